@@ -0,0 +1,67 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Random;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+
+/**
+ * Entities for the benchmarks to work on. Unlike TestUtils.getQuads, these 
+ * mix URIs, plain, language tagged and typed literals, as real data does.
+ * They are generated from a fixed seed, so every run sees the same input.
+ */
+public class BenchmarkEntities {
+
+	public static final Node SUBJECT = Node.createURI("http://example.com/resource/subject");
+	public static final Node GRAPH = Node.createURI("http://example.com/graph/benchmark");
+	
+	private static final String XSD_INT = "http://www.w3.org/2001/XMLSchema#int";
+	
+	public static Collection<Quad> getQuads(int num){
+		return getQuads(GRAPH, SUBJECT, num);
+	}
+	
+	public static Collection<Quad> getQuads(Node graph, Node subject, int num){
+		Random random = new Random(42);
+		Collection<Quad> quads = new ArrayList<Quad>(num);
+		for (int i=0; i<num; i++){
+			Node predicate = Node.createURI("http://example.com/vocab/p" + random.nextInt(20));
+			Node object;
+			switch (i % 4){
+				case 0 : 
+					object = Node.createURI("http://example.com/resource/o" + random.nextInt(100000));
+					break;
+				case 1 : 
+					object = Node.createLiteral("Some descriptive text about object " + random.nextInt(100000));
+					break;
+				case 2 : 
+					object = Node.createLiteral("Libell\u00E9 " + random.nextInt(1000), "fr", null);
+					break;
+				default : 
+					object = Node.createLiteral(Integer.toString(random.nextInt()), null, 
+										TypeMapper.getInstance().getSafeTypeByName(XSD_INT));
+			}
+			quads.add(new Quad(graph, subject, predicate, object));
+		}
+		return quads;
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected on the command line (all of them if none
+ * are), accepting the usual JMH options. The GC profiler is always enabled,
+ * so that allocation rates (gc.alloc.rate.norm, bytes per operation) are 
+ * reported alongside the timings.
+ * 
+ * java -jar target/benchmarks.jar [regexp] [JMH options]
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+						.parent(new CommandLineOptions(args))
+						.addProfiler(GCProfiler.class)
+						.build()).run();
+	}
+}
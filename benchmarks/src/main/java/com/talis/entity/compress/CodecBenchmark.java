@@ -0,0 +1,88 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.compress;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.talis.entity.benchmark.BenchmarkEntities;
+import com.talis.entity.marshal.Marshaller;
+
+/**
+ * Encoding and decoding a marshalled entity with each Codec.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CodecBenchmark {
+
+	@Param({"noop", "gzip", "lzf", "snappy"})
+	public String codecName;
+	
+	@Param({"1", "10", "100", "1000"})
+	public int quadsPerEntity;
+	
+	private Codec codec;
+	private byte[] uncompressed;
+	private byte[] compressed;
+	
+	@Setup
+	public void setup() throws IOException{
+		codec = getCodec(codecName);
+		uncompressed = new Marshaller().toEntityDesc(BenchmarkEntities.SUBJECT, BenchmarkEntities.GRAPH, 
+										BenchmarkEntities.getQuads(quadsPerEntity)).bytes;
+		compressed = codec.encode(uncompressed);
+	}
+	
+	@Benchmark
+	public byte[] encode() throws IOException{
+		return codec.encode(uncompressed);
+	}
+	
+	@Benchmark
+	public byte[] decode() throws IOException{
+		return codec.decode(compressed);
+	}
+	
+	private static Codec getCodec(String name){
+		if ("noop".equals(name)){
+			return new NoopCodec();
+		}else if ("gzip".equals(name)){
+			return new GzipCodec();
+		}else if ("lzf".equals(name)){
+			return new LZFCodec();
+		}else if ("snappy".equals(name)){
+			return new SnappyCodec();
+		}
+		throw new IllegalArgumentException("Unknown codec " + name);
+	}
+}
@@ -0,0 +1,187 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.io.Files;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.EntityDatabaseException;
+import com.talis.entity.benchmark.BenchmarkEntities;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.db.babudb.BabuDBFactoryWrapper;
+import com.talis.entity.db.babudb.BabuDbEntityDatabase;
+import com.talis.entity.db.babudb.DatabaseManager;
+import com.talis.entity.db.ram.OffHeapEntityDatabase;
+import com.talis.entity.db.ram.RamEntityDatabase;
+import com.talis.entity.marshal.Marshaller;
+
+/**
+ * A mix of reads and writes of random entities, from 1, 4 and 16 threads 
+ * sharing a single EntityDatabase. Each operation is either a get of a 
+ * subject, reading every quad, or a put replacing one of its entities. 
+ * Both throughput and the distribution of operation latency (including the
+ * p0.50, p0.99 and p0.999 percentiles) are reported, as the tail is where 
+ * contention and compaction show up.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class EntityDatabaseWorkloadBenchmark {
+
+	// the number of subjects, each of which has an entity in 2 graphs
+	static final int SUBJECTS = 5000;
+	static final int GRAPHS = 2;
+	
+	@State(Scope.Benchmark)
+	public static class Workload {
+		
+		@Param({"ram", "offheap", "babudb"})
+		public String engine;
+		
+		@Param({"0", "50", "90", "100"})
+		public int readPercent;
+		
+		@Param({"10", "100"})
+		public int quadsPerEntity;
+		
+		Node[] subjects;
+		Node[] graphs;
+		Collection<Quad>[][] entities;
+		EntityDatabase db;
+		
+		private File dbDir;
+		private DatabaseManager dbManager;
+		
+		@Setup(Level.Trial)
+		@SuppressWarnings("unchecked")
+		public void setup() throws EntityDatabaseException{
+			db = createDatabase();
+			subjects = new Node[SUBJECTS];
+			graphs = new Node[GRAPHS];
+			entities = new Collection[SUBJECTS][GRAPHS];
+			for (int g=0; g<GRAPHS; g++){
+				graphs[g] = Node.createURI("http://example.com/graph/" + g);
+			}
+			db.begin();
+			for (int s=0; s<SUBJECTS; s++){
+				subjects[s] = Node.createURI("http://example.com/resource/" + s);
+				for (int g=0; g<GRAPHS; g++){
+					entities[s][g] = BenchmarkEntities.getQuads(graphs[g], subjects[s], quadsPerEntity);
+					db.put(subjects[s], graphs[g], entities[s][g]);
+				}
+			}
+			db.commit();
+		}
+		
+		// BabuDB puts wait for their inserts to be applied, so that write 
+		// latency includes the insert. Should any be left outstanding when 
+		// an iteration ends, the writes were only timed as far as the 
+		// hand-off to BabuDB and the results can't be trusted.
+		@TearDown(Level.Iteration)
+		public void checkWritesCompleted() throws EntityDatabaseException{
+			if (null != dbManager){
+				long pending = dbManager.getStats().getPendingInserts();
+				if (pending > 0){
+					throw new IllegalStateException(pending + " BabuDB inserts still pending after the iteration");
+				}
+			}
+		}
+		
+		@TearDown(Level.Trial)
+		public void tearDown() throws EntityDatabaseException{
+			db.close();
+			if (null != dbManager){
+				dbManager.shutDown();
+			}
+			FileUtils.deleteQuietly(dbDir);
+		}
+		
+		private EntityDatabase createDatabase(){
+			if ("ram".equals(engine)){
+				return new RamEntityDatabase();
+			}else if ("offheap".equals(engine)){
+				return new OffHeapEntityDatabase();
+			}else if ("babudb".equals(engine)){
+				dbDir = Files.createTempDir();
+				dbManager = new DatabaseManager(dbDir, new BabuDBFactoryWrapper());
+				return new BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), "workload", dbManager);
+			}
+			throw new IllegalArgumentException("Unknown engine " + engine);
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class Choices {
+		// seeded per thread, so that threads don't all hit the same subjects in step
+		final Random random = new Random(Thread.currentThread().getId());
+	}
+	
+	@Benchmark
+	@Threads(1)
+	public void oneThread(Workload workload, Choices choices, Blackhole blackhole) throws EntityDatabaseException{
+		operation(workload, choices.random, blackhole);
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public void fourThreads(Workload workload, Choices choices, Blackhole blackhole) throws EntityDatabaseException{
+		operation(workload, choices.random, blackhole);
+	}
+	
+	@Benchmark
+	@Threads(16)
+	public void sixteenThreads(Workload workload, Choices choices, Blackhole blackhole) throws EntityDatabaseException{
+		operation(workload, choices.random, blackhole);
+	}
+	
+	private void operation(Workload workload, Random random, Blackhole blackhole) throws EntityDatabaseException{
+		int s = random.nextInt(SUBJECTS);
+		if (random.nextInt(100) < workload.readPercent){
+			for (Quad quad : workload.db.get(workload.subjects[s])){
+				blackhole.consume(quad);
+			}
+		}else{
+			int g = random.nextInt(GRAPHS);
+			workload.db.put(workload.subjects[s], workload.graphs[g], workload.entities[s][g]);
+		}
+	}
+}
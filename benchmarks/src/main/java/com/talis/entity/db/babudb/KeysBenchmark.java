@@ -0,0 +1,78 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hp.hpl.jena.graph.Node;
+
+/**
+ * Building the keys for every read and write. URIs with non-ASCII 
+ * characters take a different path through the escaping.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class KeysBenchmark {
+
+	@Param({"ascii", "unicode"})
+	public String uris;
+	
+	private Node subject;
+	private Node graph;
+	
+	@Setup
+	public void setup(){
+		if ("unicode".equals(uris)){
+			subject = Node.createURI("http://dbpedia.org/resource/\u00C9mile_Deschamps");
+			graph = Node.createURI("http://example.com/graphs/\u00E9v\u00E9nements");
+		}else{
+			subject = Node.createURI("http://dbpedia.org/resource/Emile_Deschamps");
+			graph = Node.createURI("http://example.com/graphs/evenements");
+		}
+	}
+	
+	@Benchmark
+	public byte[] getStorageKey(){
+		return Keys.getStorageKey(subject, graph);
+	}
+	
+	@Benchmark
+	public byte[] getInverseKey(){
+		return Keys.getInverseKey(subject, graph);
+	}
+	
+	@Benchmark
+	public byte[] getKeyPrefix(){
+		return Keys.getKeyPrefix(subject);
+	}
+}
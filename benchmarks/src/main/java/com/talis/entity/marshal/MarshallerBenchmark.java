@@ -0,0 +1,78 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.marshal;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDesc;
+import com.talis.entity.benchmark.BenchmarkEntities;
+import com.talis.entity.compress.NoopCodec;
+
+/**
+ * Marshalling an entity to bytes and back, without compression (which 
+ * CodecBenchmark covers), in both entity formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MarshallerBenchmark {
+
+	@Param({"1", "10", "100", "1000"})
+	public int quadsPerEntity;
+	
+	@Param({"NTRIPLES", "BINARY"})
+	public EntityFormat format;
+	
+	private Marshaller marshaller;
+	private Collection<Quad> quads;
+	private EntityDesc marshalled;
+	
+	@Setup
+	public void setup() throws IOException{
+		marshaller = new Marshaller(new NoopCodec(), format);
+		quads = BenchmarkEntities.getQuads(quadsPerEntity);
+		marshalled = marshaller.toEntityDesc(BenchmarkEntities.SUBJECT, BenchmarkEntities.GRAPH, quads);
+	}
+	
+	@Benchmark
+	public EntityDesc toEntityDesc() throws IOException{
+		return marshaller.toEntityDesc(BenchmarkEntities.SUBJECT, BenchmarkEntities.GRAPH, quads);
+	}
+	
+	@Benchmark
+	public Collection<Quad> toQuads() throws IOException{
+		return marshaller.toQuads(marshalled);
+	}
+}
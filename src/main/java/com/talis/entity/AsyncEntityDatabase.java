@@ -0,0 +1,40 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity;
+
+import java.util.Collection;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+
+/**
+ * Non-blocking counterpart to EntityDatabase. Each operation returns as soon 
+ * as its request has been dispatched, and the returned future completes when
+ * the underlying store has finished with it. Failures are reported through 
+ * the future, with an EntityDatabaseException as the cause.
+ */
+public interface AsyncEntityDatabase {
+
+	public ListenableFuture<Void> put(Node subject, Node graph, Collection<Quad> quads);
+	
+	public ListenableFuture<Void> delete(Node subject, Node graph);
+	
+	public ListenableFuture<Iterable<Quad>> get(Node subject);
+	public ListenableFuture<Iterable<Quad>> getGraph(Node graph);
+	
+}
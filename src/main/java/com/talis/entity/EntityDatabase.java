@@ -17,6 +17,7 @@
 package com.talis.entity;
 
 import java.util.Collection;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import com.hp.hpl.jena.graph.Node;
@@ -33,6 +34,12 @@ public interface EntityDatabase {
 	public Iterable<Quad> get(Node subject) throws EntityDatabaseException;
 	public Iterable<Quad> getGraph(Node graph) throws EntityDatabaseException;
 	
+	/**
+	 * Fetch a number of entities at once. The returned map has an entry for 
+	 * every distinct subject requested, which is empty for unknown subjects.
+	 */
+	public Map<Node, Iterable<Quad>> getAll(Collection<Node> subjects) throws EntityDatabaseException;
+	
 	public Iterable<Entry<Node, Iterable<Quad>>> all() throws EntityDatabaseException;
 	
 	public void clear() throws EntityDatabaseException;
@@ -0,0 +1,58 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.compress;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps another Codec, counting the bytes passed to and returned from 
+ * encode, so that the achieved compression ratio can be reported.
+ */
+public class CountingCodec implements Codec {
+
+	private final Codec codec;
+	private final AtomicLong encodedIn = new AtomicLong();
+	private final AtomicLong encodedOut = new AtomicLong();
+	
+	public CountingCodec(Codec codec){
+		this.codec = codec;
+	}
+	
+	@Override
+	public byte[] encode(byte[] bytes) throws IOException {
+		byte[] encoded = codec.encode(bytes);
+		encodedIn.addAndGet(bytes.length);
+		encodedOut.addAndGet(encoded.length);
+		return encoded;
+	}
+
+	@Override
+	public byte[] decode(byte[] bytes) throws IOException {
+		return codec.decode(bytes);
+	}
+	
+	/** Total bytes before encoding */
+	public long getUncompressedBytes(){
+		return encodedIn.get();
+	}
+	
+	/** Total bytes after encoding */
+	public long getCompressedBytes(){
+		return encodedOut.get();
+	}
+}
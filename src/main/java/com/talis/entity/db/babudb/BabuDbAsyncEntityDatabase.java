@@ -0,0 +1,261 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xtreemfs.babudb.api.database.Database;
+import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
+import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
+import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.AsyncEntityDatabase;
+import com.talis.entity.EntityDatabaseException;
+import com.talis.entity.EntityDesc;
+
+/**
+ * AsyncEntityDatabase over the same BabuDB database as a BabuDbEntityDatabase.
+ * Rather than blocking on each request, listeners are registered with BabuDB 
+ * and complete the returned futures. As BabuDB notifies listeners on its own 
+ * worker threads, entity descriptions are decoded using the supplied executor
+ * so that the workers are free to carry on servicing lookups. Writes are
+ * applied immediately, they don't join any batch opened with begin().
+ * <p>
+ * Requests are only non-blocking when BabuDB has worker threads of its own, 
+ * set by the com.talis.entity.store.babudb.workerThreads property (see 
+ * IndexConfig). With the default of 0, BabuDB completes each request on the 
+ * calling thread before the future is returned.
+ */
+public class BabuDbAsyncEntityDatabase implements AsyncEntityDatabase {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BabuDbAsyncEntityDatabase.class);
+	
+	private static final String DB_WRITE_ERROR_MESSAGE = "Unexpected exception writing to DB";
+	private static final String DB_READ_ERROR_MESSAGE = "Unexpected exception reading from DB";
+	
+	private final BabuDbEntityDatabase entityDatabase;
+	private final Executor decodeExecutor;
+	
+	public BabuDbAsyncEntityDatabase(BabuDbEntityDatabase entityDatabase, Executor decodeExecutor){
+		this.entityDatabase = entityDatabase;
+		this.decodeExecutor = decodeExecutor;
+	}
+	
+	@Override
+	public ListenableFuture<Void> put(Node subject, Node graph, Collection<Quad> quads) {
+		try{
+			KeyFormat keys = entityDatabase.getKeys();
+			byte[] storageKey = keys.getStorageKey(subject, graph);
+			byte[] inverseKey = keys.getInverseKey(subject, graph);
+			entityDatabase.recordSubject(subject);
+			Database db = entityDatabase.getDb();
+			DatabaseInsertGroup batch = db.createInsertGroup();
+			batch.addInsert(BabuDbEntityDatabase.SUBJECT_INDEX, storageKey, 
+					entityDatabase.getMarshaller().toEntityDesc(subject, graph, quads).bytes);
+			batch.addInsert(BabuDbEntityDatabase.GRAPH_INDEX, inverseKey, storageKey);
+			return complete(db, batch, subject, storageKey);
+		}catch(Exception e){
+			LOG.error(DB_WRITE_ERROR_MESSAGE, e);
+			return Futures.immediateFailedFuture(new EntityDatabaseException(DB_WRITE_ERROR_MESSAGE, e));
+		}
+	}
+
+	@Override
+	public ListenableFuture<Void> delete(Node subject, Node graph) {
+		try{
+			KeyFormat keys = entityDatabase.getKeys();
+			if (null == keys.getKeyPrefix(subject) || null == keys.getKeyPrefix(graph)){
+				LOG.debug("No entity stored for {} {}", subject, graph);
+				return Futures.immediateFuture(null);
+			}
+			Database db = entityDatabase.getDb();
+			byte[] storageKey = keys.getStorageKey(subject, graph);
+			DatabaseInsertGroup batch = db.createInsertGroup();
+			batch.addDelete(BabuDbEntityDatabase.SUBJECT_INDEX, storageKey);
+			batch.addDelete(BabuDbEntityDatabase.GRAPH_INDEX, keys.getInverseKey(subject, graph));
+			return complete(db, batch, subject, storageKey);
+		}catch(Exception e){
+			LOG.error(DB_WRITE_ERROR_MESSAGE, e);
+			return Futures.immediateFailedFuture(new EntityDatabaseException(DB_WRITE_ERROR_MESSAGE, e));
+		}
+	}
+
+	@Override
+	public ListenableFuture<Iterable<Quad>> get(final Node subject) {
+		try{
+			final KeyFormat keys = entityDatabase.getKeys();
+			byte[] prefix = keys.getKeyPrefix(subject);
+			if (null == prefix){
+				return Futures.<Iterable<Quad>>immediateFuture(Collections.<Quad>emptyList());
+			}
+			ListenableFuture<ResultSet<byte[], byte[]>> lookup = listen(
+					entityDatabase.getDb().prefixLookup(BabuDbEntityDatabase.SUBJECT_INDEX, prefix, null));
+			return Futures.transform(lookup, new AsyncFunction<ResultSet<byte[], byte[]>, Iterable<Quad>>(){
+				@Override
+				public ListenableFuture<Iterable<Quad>> apply(ResultSet<byte[], byte[]> entries) {
+					Collection<Quad> quads = new ArrayList<Quad>();
+					try{
+						while (entries.hasNext()){
+							Entry<byte[], byte[]> pair = entries.next();
+							Node graph = keys.getSecondNode(pair.getKey(), subject);
+							if (null != graph){
+								quads.addAll(decode(subject, graph, pair.getValue()));
+							}
+						}
+					}catch (Exception e){
+						return readFailed(e);
+					}finally{
+						entries.free();
+					}
+					return Futures.<Iterable<Quad>>immediateFuture(quads);
+				}
+			}, decodeExecutor);
+		}catch(Exception e){
+			LOG.error(DB_READ_ERROR_MESSAGE, e);
+			return Futures.immediateFailedFuture(new EntityDatabaseException(DB_READ_ERROR_MESSAGE, e));
+		}
+	}
+
+	/**
+	 * Looks up the members of the graph from the inverse index, then fetches 
+	 * each member's entity description with its own lookup. The member lookups 
+	 * are all in flight together, and each is decoded as soon as it completes.
+	 */
+	@Override
+	public ListenableFuture<Iterable<Quad>> getGraph(final Node graph) {
+		try{
+			final KeyFormat keys = entityDatabase.getKeys();
+			byte[] prefix = keys.getKeyPrefix(graph);
+			if (null == prefix){
+				return Futures.<Iterable<Quad>>immediateFuture(Collections.<Quad>emptyList());
+			}
+			final Database db = entityDatabase.getDb();
+			ListenableFuture<ResultSet<byte[], byte[]>> members = listen(
+					db.prefixLookup(BabuDbEntityDatabase.GRAPH_INDEX, prefix, null));
+			ListenableFuture<List<Collection<Quad>>> entities = Futures.transform(members, 
+					new AsyncFunction<ResultSet<byte[], byte[]>, List<Collection<Quad>>>(){
+				@Override
+				public ListenableFuture<List<Collection<Quad>>> apply(ResultSet<byte[], byte[]> entries) throws Exception {
+					List<ListenableFuture<Collection<Quad>>> lookups = new ArrayList<ListenableFuture<Collection<Quad>>>();
+					try{
+						while (entries.hasNext()){
+							Entry<byte[], byte[]> pair = entries.next();
+							final Node subject = keys.getSecondNode(pair.getKey(), graph);
+							if (null == subject){
+								continue;
+							}
+							ListenableFuture<byte[]> lookup = listen(
+									db.lookup(BabuDbEntityDatabase.SUBJECT_INDEX, pair.getValue(), null));
+							lookups.add(Futures.transform(lookup, new AsyncFunction<byte[], Collection<Quad>>(){
+								@Override
+								public ListenableFuture<Collection<Quad>> apply(byte[] bytes) {
+									try{
+										return Futures.immediateFuture(decode(subject, graph, bytes));
+									}catch (Exception e){
+										return readFailed(e);
+									}
+								}
+							}, decodeExecutor));
+						}
+					}finally{
+						entries.free();
+					}
+					return Futures.allAsList(lookups);
+				}
+			}, decodeExecutor);
+			return Futures.transform(entities, new Function<List<Collection<Quad>>, Iterable<Quad>>(){
+				@Override
+				public Iterable<Quad> apply(List<Collection<Quad>> descriptions) {
+					Collection<Quad> quads = new ArrayList<Quad>();
+					for (Collection<Quad> description : descriptions){
+						quads.addAll(description);
+					}
+					return quads;
+				}
+			});
+		}catch(Exception e){
+			LOG.error(DB_READ_ERROR_MESSAGE, e);
+			return Futures.immediateFailedFuture(new EntityDatabaseException(DB_READ_ERROR_MESSAGE, e));
+		}
+	}
+	
+	private <T> ListenableFuture<T> readFailed(Exception e){
+		LOG.error(DB_READ_ERROR_MESSAGE, e);
+		return Futures.immediateFailedFuture(new EntityDatabaseException(DB_READ_ERROR_MESSAGE, e));
+	}
+	
+	private Collection<Quad> decode(Node subject, Node graph, byte[] bytes) throws Exception{
+		if (null == bytes){
+			// removed between the graph and subject lookups
+			return Collections.emptyList();
+		}
+		return entityDatabase.getMarshaller().toQuads(new EntityDesc(subject, graph, bytes));
+	}
+	
+	private ListenableFuture<Void> complete(Database db, DatabaseInsertGroup batch, final Node subject, final byte[] storageKey){
+		final SettableFuture<Void> future = SettableFuture.create();
+		entityDatabase.getDbManager().insert(db, batch, new DatabaseRequestListener<Object>(){
+			@Override
+			public void finished(Object result, Object context) {
+				try {
+					entityDatabase.invalidateCached(storageKey, subject);
+					future.set(null);
+				} catch (EntityDatabaseException e) {
+					future.setException(e);
+				}
+			}
+			@Override
+			public void failed(BabuDBException e, Object context) {
+				LOG.error(DB_WRITE_ERROR_MESSAGE, e);
+				future.setException(new EntityDatabaseException(DB_WRITE_ERROR_MESSAGE, e));
+			}
+		});
+		return future;
+	}
+	
+	private <T> ListenableFuture<T> listen(DatabaseRequestResult<T> request){
+		final SettableFuture<T> future = SettableFuture.create();
+		request.registerListener(new DatabaseRequestListener<T>(){
+			@Override
+			public void finished(T result, Object context) {
+				future.set(result);
+			}
+			@Override
+			public void failed(BabuDBException e, Object context) {
+				LOG.error(DB_READ_ERROR_MESSAGE, e);
+				future.setException(new EntityDatabaseException(DB_READ_ERROR_MESSAGE, e));
+			}
+		});
+		return future;
+	}
+}
@@ -16,21 +16,28 @@
 
 package com.talis.entity.db.babudb;
 
-import static com.talis.entity.db.babudb.Keys.asString;
-import static com.talis.entity.db.babudb.Keys.getInverseKey;
-import static com.talis.entity.db.babudb.Keys.getKeyPrefix;
-import static com.talis.entity.db.babudb.Keys.getStorageKey;
-
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xtreemfs.babudb.api.database.Database;
 import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
+import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
+import org.xtreemfs.babudb.api.database.ResultSet;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
+import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
 
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.sparql.core.Quad;
@@ -46,13 +53,42 @@ public class BabuDbEntityDatabase implements EntityDatabase{
 
 	private static final Logger LOG = LoggerFactory.getLogger(BabuDbEntityDatabase.class);
 	
-	private static final int SUBJECT_INDEX = 0;
-	private static final int GRAPH_INDEX = 1;
+	public static final int SUBJECT_INDEX = 0;
+	public static final int GRAPH_INDEX = 1;
 	public static final int NUM_INDEXES = 2;
 	
+	// When set, subject and graph URIs are replaced in keys by ids from a node 
+	// dictionary stored alongside the entity database. The key format is fixed
+	// when a database is first populated, and must not be switched afterwards.
+	public static final String NODE_DICTIONARY_PROPERTY = "com.talis.entity.store.babudb.nodeDictionary";
+	public static final String NODE_DICTIONARY_SUFFIX = "-nodes";
+	
+	// When the window is greater than zero, writes made concurrently by 
+	// different threads are gathered for up to that many milliseconds, or 
+	// until the maximum number of index writes is reached, then applied as 
+	// a single insert group. Each writer blocks until its group is applied, 
+	// so with a synchronous log mode every write is durable when it returns.
+	public static final long GROUP_COMMIT_WINDOW_DEFAULT = 0;
+	public static final String GROUP_COMMIT_WINDOW_PROPERTY = "com.talis.entity.store.babudb.groupCommitWindow";
+	public static final int GROUP_COMMIT_MAX_WRITES_DEFAULT = 10000;
+	public static final String GROUP_COMMIT_MAX_WRITES_PROPERTY = "com.talis.entity.store.babudb.groupCommitMaxWrites";
+	
+	// When set, a bloom filter over stored subjects answers most lookups for
+	// unknown subjects without touching the indexes. The filter is saved on
+	// close, alongside the index files, and removed once loaded so that if
+	// the database isn't closed cleanly it's rebuilt from the subject index.
+	public static final String BLOOM_FILTER_PROPERTY = "com.talis.entity.store.babudb.bloomFilter";
+	public static final String BLOOM_FILTER_SUFFIX = ".bloom";
+	
 	private final String dbName;
 	private final Marshaller marshaller;
 	private final DatabaseManager dbManager;
+	private final KeyFormat keys;
+	private final ThreadLocal<WriteBatch> transaction = new ThreadLocal<WriteBatch>();
+	private final GroupCommitter groupCommitter;
+	private final File bloomFilterFile;
+	private volatile SubjectBloomFilter bloomFilter;
+	private final BlockCache blockCache;
 	private Database db;
 
 	public BabuDbEntityDatabase(Marshaller marshaller, String dbName, DatabaseManager dbManager){
@@ -61,42 +97,77 @@ public class BabuDbEntityDatabase implements EntityDatabase{
 		this.dbManager = dbManager;
 		try {
 			db = dbManager.getDatabase(dbName);
+			if (Boolean.getBoolean(NODE_DICTIONARY_PROPERTY)){
+				keys = new DictionaryKeyFormat(new NodeDictionary(dbName + NODE_DICTIONARY_SUFFIX, dbManager));
+			}else{
+				keys = new TextKeyFormat();
+			}
+			bloomFilterFile = new File(dbManager.getBaseDir(), dbName + BLOOM_FILTER_SUFFIX);
+			if (Boolean.getBoolean(BLOOM_FILTER_PROPERTY)){
+				bloomFilter = openBloomFilter();
+			}else if (bloomFilterFile.exists()){
+				// writes made without the filter would leave it stale
+				LOG.info("Bloom filter disabled, removing {}", bloomFilterFile.getAbsolutePath());
+				bloomFilterFile.delete();
+			}
 		} catch (EntityDatabaseException e) {
 			throw new RuntimeException("Unable to initialise database", e);
 		}
+		long blockCacheSize = Long.getLong(BlockCache.MAX_BYTES_PROPERTY, BlockCache.MAX_BYTES_DEFAULT);
+		if (blockCacheSize > 0){
+			blockCache = new BlockCache(blockCacheSize, Boolean.getBoolean(BlockCache.OFF_HEAP_PROPERTY));
+		}else{
+			blockCache = null;
+		}
+		long groupCommitWindow = Long.getLong(GROUP_COMMIT_WINDOW_PROPERTY, GROUP_COMMIT_WINDOW_DEFAULT);
+		if (groupCommitWindow > 0){
+			LOG.info("Enabling group commit with a window of {}ms", groupCommitWindow);
+			groupCommitter = new GroupCommitter(this, dbName, groupCommitWindow, 
+					Integer.getInteger(GROUP_COMMIT_MAX_WRITES_PROPERTY, GROUP_COMMIT_MAX_WRITES_DEFAULT));
+		}else{
+			groupCommitter = null;
+		}
 	}
 	
 	@Override
 	public void put(Node subject, Node graph, Collection<Quad> quads)
 			throws EntityDatabaseException {
 		LOG.debug("Storing entity bytes");
-		byte[] storageKey = getStorageKey(subject, graph);
-		byte[] inverseKey = getInverseKey(subject, graph);
+		byte[] storageKey = keys.getStorageKey(subject, graph);
+		byte[] inverseKey = keys.getInverseKey(subject, graph);
+		recordSubject(subject);
+		byte[] entityBytes;
 		try{
-			DatabaseInsertGroup batch = db.createInsertGroup();
-			batch.addInsert(SUBJECT_INDEX, storageKey, marshaller.toEntityDesc(subject, graph, quads).bytes);
-			batch.addInsert(GRAPH_INDEX, inverseKey, storageKey);
-			db.insert(batch, null);
+			entityBytes = marshaller.toEntityDesc(subject, graph, quads).bytes;
 		} catch (Exception e) {
 			LOG.error(DB_WRITE_ERROR_MESSAGE, e);
 			throw new EntityDatabaseException(DB_WRITE_ERROR_MESSAGE, e);
 		}
+		WriteBatch pending = transaction.get();
+		WriteBatch writes = null == pending ? new WriteBatch(NUM_INDEXES) : pending;
+		writes.put(SUBJECT_INDEX, storageKey, entityBytes);
+		writes.put(GRAPH_INDEX, inverseKey, storageKey);
+		if (null == pending){
+			apply(writes);
+		}
 		LOG.debug("Stored entity bytes");		
 	}
 
 	@Override
 	public void delete(Node subject, Node graph) throws EntityDatabaseException {
 		LOG.debug("Deleted entity bytes");
-		byte[] storageKey = getStorageKey(subject, graph);
-		byte[] inverseKey = getInverseKey(subject, graph);
-		try{
-			DatabaseInsertGroup batch = db.createInsertGroup();
-			batch.addInsert(SUBJECT_INDEX, storageKey, null);
-			batch.addInsert(GRAPH_INDEX, inverseKey, null);
-			db.insert(batch, null);
-		} catch (Exception e) {
-			LOG.error(DB_WRITE_ERROR_MESSAGE, e);
-			throw new EntityDatabaseException(DB_WRITE_ERROR_MESSAGE, e);
+		if (null == keys.getKeyPrefix(subject) || null == keys.getKeyPrefix(graph)){
+			LOG.debug("No entity stored for {} {}", subject, graph);
+			return;
+		}
+		byte[] storageKey = keys.getStorageKey(subject, graph);
+		byte[] inverseKey = keys.getInverseKey(subject, graph);
+		WriteBatch pending = transaction.get();
+		WriteBatch writes = null == pending ? new WriteBatch(NUM_INDEXES) : pending;
+		writes.delete(SUBJECT_INDEX, storageKey);
+		writes.delete(GRAPH_INDEX, inverseKey);
+		if (null == pending){
+			apply(writes);
 		}
 		LOG.debug("Deleted entity bytes");
 	}
@@ -104,12 +175,27 @@ public class BabuDbEntityDatabase implements EntityDatabase{
 	@Override
 	public boolean exists(Node subject) throws EntityDatabaseException {
 		LOG.debug("Checking for existence of {}", subject.getURI());
-		byte[] key = getKeyPrefix(subject);
+		if (definitelyAbsent(subject)){
+			return false;
+		}
+		byte[] key = keys.getKeyPrefix(subject);
+		if (null == key){
+			return false;
+		}
+		if (null != blockCache){
+			List<Entry<byte[], byte[]>> cached = blockCache.getEntries(key);
+			if (null != cached){
+				return withPendingWrites(SUBJECT_INDEX, key, cached.iterator()).hasNext();
+			}
+		}
 		try {
-			Iterator<Entry<byte[], byte[]>> iterator = 
-						db.prefixLookup(SUBJECT_INDEX, key, null).get();
-			LOG.debug("Finished subject lookup for {}", subject.getURI());
-			return iterator.hasNext();
+			ResultSet<byte[], byte[]> entries = db.prefixLookup(SUBJECT_INDEX, key, null).get();
+			try{
+				LOG.debug("Finished subject lookup for {}", subject.getURI());
+				return withPendingWrites(SUBJECT_INDEX, key, entries).hasNext();
+			}finally{
+				entries.free();
+			}
 		} catch (BabuDBException e) {
 			LOG.error("Error performing subject lookup", e);
 			throw new EntityDatabaseException("Unable to lookup subject", e);
@@ -119,81 +205,190 @@ public class BabuDbEntityDatabase implements EntityDatabase{
 	@Override
 	public Collection<Quad> get(Node subject) throws EntityDatabaseException {
 		LOG.debug("Combining entity descriptions");
-		ArrayList<Quad> quads = new ArrayList<Quad>();
-		byte[] key = getKeyPrefix(subject);
-		EntityDesc desc = new EntityDesc();
-		desc.subject = subject;
-		try {
-			Iterator<Entry<byte[], byte[]>> iterator = db.prefixLookup(SUBJECT_INDEX, key, null).get();
-			while(iterator.hasNext()) {
-			    Entry<byte[], byte[]> pair = iterator.next();
-			    String[] keyParts = asString(pair.getKey()).split("\t");
-			    if (! subject.getURI().equals(keyParts[0])){
-			    	continue;
-			    }
-				desc.graph = Node.createURI(keyParts[1]);
-				LOG.debug("Fetching single entity description");
-				desc.bytes = pair.getValue();
-				LOG.debug("Fetched single entity description");
-				quads.addAll(marshaller.toQuads(desc));
-		  }
-		} catch (Exception e) {
-			LOG.error(DB_READ_ERROR_MESSAGE, e);		
-			throw new EntityDatabaseException(DB_READ_ERROR_MESSAGE, e);
-		} 
+		Collection<Quad> quads = drain(new SubjectQuadIterator(subject));
 		LOG.debug("Combined entity descriptions");
 		return quads;
 	}
 
+	@Override
 	public Collection<Quad> getGraph(Node graph) throws EntityDatabaseException {
+		return drain(new GraphQuadIterator(graph));
+	}
+	
+	/**
+	 * As get, but the quads are decoded one entity description at a time as 
+	 * they're iterated, rather than filled into a list up front, so memory 
+	 * stays bounded however large the entity. Each iterator holds a BabuDB 
+	 * result set open until it's exhausted, so it must be consumed fully or 
+	 * else closed (the iterators are Closeable). Lookup errors are rethrown 
+	 * as RuntimeExceptions.
+	 */
+	public Iterable<Quad> stream(final Node subject){
+		return new Iterable<Quad>(){
+			@Override
+			public Iterator<Quad> iterator() {
+				return new SubjectQuadIterator(subject);
+			}
+		};
+	}
+	
+	/**
+	 * As getGraph, streaming the quads in the same way as stream(Node), with
+	 * the same requirement to consume or close each iterator.
+	 */
+	public Iterable<Quad> streamGraph(final Node graph){
+		return new Iterable<Quad>(){
+			@Override
+			public Iterator<Quad> iterator() {
+				return new GraphQuadIterator(graph);
+			}
+		};
+	}
+	
+	/**
+	 * The prefix lookups for the subjects are made in index order, so that 
+	 * neighbouring keys are read while their blocks are hot. When BabuDB has 
+	 * worker threads, they are all issued up front so that it can service them 
+	 * while earlier results are being decoded. Without workers each lookup 
+	 * would run on this thread as it was issued, so nothing would overlap, and 
+	 * instead each is drained before the next is made, so that only one 
+	 * result set is open at a time.
+	 */
+	@Override
+	public Map<Node, Iterable<Quad>> getAll(Collection<Node> subjects) throws EntityDatabaseException {
+		LOG.debug("Fetching {} entities", subjects.size());
+		List<SubjectQuadIterator> lookups = new ArrayList<SubjectQuadIterator>();
+		Map<Node, Iterable<Quad>> results = new HashMap<Node, Iterable<Quad>>();
+		for (Node subject : subjects){
+			if (results.containsKey(subject)){
+				continue;
+			}
+			results.put(subject, Collections.<Quad>emptyList());
+			SubjectQuadIterator lookup = new SubjectQuadIterator(subject);
+			lookup.resolve();
+			if (null != lookup.prefix){
+				lookups.add(lookup);
+			}
+		}
+		Collections.sort(lookups, LOOKUP_ORDER);
+		try{
+			if (dbManager.getIndexConfig().getWorkerThreads() > 0){
+				for (SubjectQuadIterator lookup : lookups){
+					lookup.issue();
+				}
+			}
+			for (SubjectQuadIterator lookup : lookups){
+				results.put(lookup.node, drain(lookup));
+			}
+		}finally{
+			// if anything failed part way, make sure no result sets are left open
+			for (SubjectQuadIterator lookup : lookups){
+				lookup.free();
+			}
+		}
+		LOG.debug("Fetched {} entities", subjects.size());
+		return results;
+	}
+	
+	private static final Comparator<EntityQuadIterator> LOOKUP_ORDER = new Comparator<EntityQuadIterator>(){
+		private final Comparator<byte[]> keyComparator = new DefaultByteRangeComparator();
+		@Override
+		public int compare(EntityQuadIterator a, EntityQuadIterator b) {
+			return keyComparator.compare(a.prefix, b.prefix);
+		}
+	};
+	
+	private Collection<Quad> drain(EntityQuadIterator iterator) throws EntityDatabaseException {
 		ArrayList<Quad> quads = new ArrayList<Quad>();
-		byte[] key = getKeyPrefix(graph);
-		EntityDesc desc = new EntityDesc();
-		desc.graph = graph;
 		try {
-		  Iterator<Entry<byte[], byte[]>> iterator = db.prefixLookup(GRAPH_INDEX, key, null).get();
-		  while (iterator.hasNext()){
-			  Entry<byte[], byte[]> pair = iterator.next();
-			  String[] keyParts = asString(pair.getKey()).split("\t");
-			  if (! graph.getURI().equals(keyParts[0])){
-			    	continue;
-			  }
-			  desc.subject = Node.createURI(keyParts[1]);
-			  LOG.debug("Fetching single entity description");
-			  desc.bytes = db.lookup(SUBJECT_INDEX, pair.getValue(), null).get();
-			  LOG.debug("Fetched single entity description");
-			  quads.addAll(marshaller.toQuads(desc));
-		  }
+			iterator.open();
+			while (iterator.advance()){
+				quads.addAll(iterator.current);
+			}
 		} catch (Exception e) {
 			LOG.error(DB_READ_ERROR_MESSAGE, e);		
 			throw new EntityDatabaseException(DB_READ_ERROR_MESSAGE, e);
+		} finally {
+			iterator.free();
 		}
 		return quads;
 	}
 	
 	@Override
 	public void deleteGraph(Node graph) throws EntityDatabaseException {
-		byte[] key = getKeyPrefix(graph);
-		EntityDesc desc = new EntityDesc();
-		desc.graph = graph;
-		DatabaseInsertGroup batch = db.createInsertGroup();
+		byte[] key = keys.getKeyPrefix(graph);
+		if (null == key){
+			return;
+		}
+		WriteBatch pending = transaction.get();
+		WriteBatch writes = null == pending ? new WriteBatch(NUM_INDEXES) : pending;
 		try {
-		  Iterator<Entry<byte[], byte[]>> iterator = db.prefixLookup(GRAPH_INDEX, key, null).get();
-		  while (iterator.hasNext()){
-			  Entry<byte[], byte[]> pair = iterator.next();
-			  String[] keyParts = asString(pair.getKey()).split("\t");
-			  if (! graph.getURI().equals(keyParts[0])){
-			    	continue;
+		  ResultSet<byte[], byte[]> entries = db.prefixLookup(GRAPH_INDEX, key, null).get();
+		  try{
+			  Iterator<Entry<byte[], byte[]>> iterator = withPendingWrites(GRAPH_INDEX, key, entries);
+			  while (iterator.hasNext()){
+				  Entry<byte[], byte[]> pair = iterator.next();
+				  if (null == keys.getSecondNode(pair.getKey(), graph)){
+				    	continue;
+				  }
+				  writes.delete(SUBJECT_INDEX, pair.getValue());
+				  writes.delete(GRAPH_INDEX, pair.getKey());
 			  }
-			  desc.subject = Node.createURI(keyParts[1]);
-			  batch.addDelete(SUBJECT_INDEX, pair.getValue());
-			  batch.addDelete(GRAPH_INDEX, pair.getKey());
+		  }finally{
+			  entries.free();
 		  }
-		  db.insert(batch, null);
 		} catch (Exception e) {
 			LOG.error(DB_READ_ERROR_MESSAGE, e);		
 			throw new EntityDatabaseException(DB_READ_ERROR_MESSAGE, e);
 		}
+		if (null == pending){
+			apply(writes);
+		}
+	}
+	
+	/**
+	 * Write a batch outside of any transaction, waiting until it has been 
+	 * applied - along with any others submitted at the same time, when group 
+	 * commit is enabled. With BabuDB worker threads the insert completes 
+	 * asynchronously, and returning before then would let a read that follows 
+	 * the write see, and let a caching decorator keep, the previous state.
+	 */
+	private void apply(WriteBatch writes) throws EntityDatabaseException{
+		if (null != groupCommitter){
+			groupCommitter.commit(writes);
+			invalidateCached(writes);
+			return;
+		}
+		try{
+			DatabaseInsertGroup batch = db.createInsertGroup();
+			writes.writeTo(batch);
+			dbManager.insert(db, batch).get();
+		} catch (Exception e) {
+			LOG.error(DB_WRITE_ERROR_MESSAGE, e);
+			throw new EntityDatabaseException(DB_WRITE_ERROR_MESSAGE, e);
+		}
+		invalidateCached(writes);
+	}
+	
+	private void invalidateCached(WriteBatch writes) throws EntityDatabaseException{
+		if (null == blockCache){
+			return;
+		}
+		for (byte[] storageKey : writes.keys(SUBJECT_INDEX)){
+			invalidateCached(storageKey, keys.getFirstNode(storageKey));
+		}
+	}
+	
+	/** Drop any cached index entries affected by a write to the storage key */
+	void invalidateCached(byte[] storageKey, Node subject) throws EntityDatabaseException{
+		if (null != blockCache){
+			blockCache.invalidate(storageKey, keys.getKeyPrefix(subject));
+		}
+	}
+	
+	/** The cache of raw subject index entries, or null if it isn't enabled */
+	public BlockCache getBlockCache(){
+		return blockCache;
 	}
 	
 	@Override
@@ -217,6 +412,14 @@ public class BabuDbEntityDatabase implements EntityDatabase{
     		LOG.debug("Database deleted");
     		db = dbManager.getDatabase(dbName);
     		LOG.debug("Database recreated");
+    		keys.clear();
+    		transaction.remove();
+    		if (null != blockCache){
+    			blockCache.invalidateAll();
+    		}
+    		if (null != bloomFilter){
+    			bloomFilter = SubjectBloomFilter.create();
+    		}
 		}catch(Exception e){
 			LOG.warn("Error clearing entity database", e);
 			throw new EntityDatabaseException("Error clearing entity database", e);
@@ -226,8 +429,20 @@ public class BabuDbEntityDatabase implements EntityDatabase{
 	
 	@Override
 	public void close() throws EntityDatabaseException {
+		if (null != groupCommitter){
+			groupCommitter.shutdown();
+		}
+		if (null != bloomFilter){
+			try {
+				bloomFilter.writeTo(bloomFilterFile);
+			} catch (IOException e) {
+				// not fatal, it will be rebuilt next time the db is opened
+				LOG.warn("Unable to save bloom filter", e);
+			}
+		}
 		try {
 			db.shutdown();
+			keys.close();
 			dbManager.shutDown();
 		} catch (BabuDBException e) {
 			LOG.error("Error closing entity database", e);
@@ -235,34 +450,353 @@ public class BabuDbEntityDatabase implements EntityDatabase{
 		}
 	}
 
+	private SubjectBloomFilter openBloomFilter() throws EntityDatabaseException{
+		if (bloomFilterFile.exists()){
+			try{
+				LOG.info("Loading bloom filter from {}", bloomFilterFile.getAbsolutePath());
+				SubjectBloomFilter filter = SubjectBloomFilter.readFrom(bloomFilterFile);
+				if (! bloomFilterFile.delete()){
+					LOG.warn("Unable to remove bloom filter file, it may be stale if the database isn't closed cleanly");
+				}
+				return filter;
+			}catch (IOException e){
+				LOG.warn("Unable to read bloom filter, rebuilding", e);
+			}
+		}
+		LOG.info("Building bloom filter from subject index");
+		SubjectBloomFilter filter = SubjectBloomFilter.create();
+		try{
+			ResultSet<byte[], byte[]> entries = db.prefixLookup(SUBJECT_INDEX, null, null).get();
+			try{
+				while (entries.hasNext()){
+					filter.put(keys.getFirstNode(entries.next().getKey()));
+				}
+			}finally{
+				entries.free();
+			}
+		}catch (BabuDBException e){
+			LOG.error(DB_READ_ERROR_MESSAGE, e);
+			throw new EntityDatabaseException("Unable to build bloom filter", e);
+		}
+		return filter;
+	}
+	
+	private boolean definitelyAbsent(Node subject){
+		SubjectBloomFilter filter = bloomFilter;
+		return null != filter && ! filter.mightContain(subject);
+	}
+	
+	// called by every write path before the insert is submitted, so that the 
+	// entity can't be visible while the filter reports that it isn't present
+	void recordSubject(Node subject){
+		SubjectBloomFilter filter = bloomFilter;
+		if (null != filter){
+			filter.put(subject);
+		}
+	}
+	
+	// exposed for BabuDbAsyncEntityDatabase, which shares this database's
+	// keys and marshaller. The db itself is replaced whenever it is cleared.
+	Database getDb(){
+		return db;
+	}
+	
+	KeyFormat getKeys(){
+		return keys;
+	}
+	
+	Marshaller getMarshaller(){
+		return marshaller;
+	}
+	
+	DatabaseManager getDbManager(){
+		return dbManager;
+	}
+
+	/**
+	 * Start buffering this thread's writes. Until commit() or abort() is 
+	 * called, puts and deletes made by the thread are held in memory, where
+	 * they're visible to its own reads but not to any other thread's.
+	 */
 	@Override
-	public void begin() throws EntityDatabaseException { /* noop */ }
+	public void begin() throws EntityDatabaseException {
+		if (null != transaction.get()){
+			throw new EntityDatabaseException("A transaction is already in progress on this thread");
+		}
+		transaction.set(new WriteBatch(NUM_INDEXES));
+	}
 
+	/**
+	 * Write everything buffered since begin() as a single insert group, 
+	 * returning once BabuDB has applied it. Commit with no transaction in 
+	 * progress does nothing.
+	 */
 	@Override
-	public void commit() throws EntityDatabaseException { /* noop */ }
+	public void commit() throws EntityDatabaseException {
+		WriteBatch pending = transaction.get();
+		if (null == pending){
+			return;
+		}
+		transaction.remove();
+		LOG.debug("Committing {} buffered writes", pending.size());
+		if (null != groupCommitter){
+			groupCommitter.commit(pending);
+		}else{
+			try{
+				DatabaseInsertGroup batch = db.createInsertGroup();
+				pending.writeTo(batch);
+				dbManager.insert(db, batch).get();
+			} catch (Exception e) {
+				LOG.error(DB_WRITE_ERROR_MESSAGE, e);
+				throw new EntityDatabaseException(DB_WRITE_ERROR_MESSAGE, e);
+			}
+		}
+		invalidateCached(pending);
+		LOG.debug("Committed buffered writes");
+	}
 
 	@Override
-	public void abort() throws EntityDatabaseException { /* noop */ }
+	public void abort() throws EntityDatabaseException {
+		WriteBatch pending = transaction.get();
+		if (null != pending){
+			LOG.debug("Discarding {} buffered writes", pending.size());
+			transaction.remove();
+		}
+	}
+	
+	/** 
+	 * Entries from a lookup on an index, including any writes to it which 
+	 * are buffered for the current thread 
+	 */
+	private Iterator<Entry<byte[], byte[]>> withPendingWrites(int index, byte[] prefix, Iterator<Entry<byte[], byte[]>> entries){
+		WriteBatch pending = transaction.get();
+		if (null == pending){
+			return entries;
+		}
+		return pending.merge(index, prefix, entries);
+	}
+	
+	
+	/**
+	 * Walks the entries of an index under a node's key prefix, decoding 
+	 * one EntityDesc at a time. Until open() is called no lookup is made, 
+	 * so lazily evaluated results don't touch the db until they are iterated.
+	 * The result set is freed once the entries are exhausted, or on close().
+	 */
+	private abstract class EntityQuadIterator implements Iterator<Quad>, Closeable{
+		
+		private final int index;
+		final Node node;
+		private boolean resolved = false;
+		byte[] prefix;
+		private DatabaseRequestResult<ResultSet<byte[], byte[]>> request;
+		private ResultSet<byte[], byte[]> results;
+		private Iterator<Entry<byte[], byte[]>> entries;
+		private List<Entry<byte[], byte[]>> cached;
+		private long seenGeneration;
+		private boolean exhausted = false;
+		Collection<Quad> current = Collections.emptyList();
+		private Iterator<Quad> quads = current.iterator();
+		
+		EntityQuadIterator(int index, Node node){
+			this.index = index;
+			this.node = node;
+		}
+		
+		/** Look up the node's key prefix, which is null if it can't be present */
+		void resolve() throws EntityDatabaseException{
+			if (! resolved){
+				if (SUBJECT_INDEX == index && definitelyAbsent(node)){
+					resolved = true;
+					return;
+				}
+				prefix = keys.getKeyPrefix(node);
+				resolved = true;
+			}
+		}
+		
+		/** Send the lookup to the db, without waiting for its result */
+		void issue() throws EntityDatabaseException{
+			resolve();
+			if (null == request && null == cached && null != prefix){
+				if (null != blockCache && SUBJECT_INDEX == index){
+					cached = blockCache.getEntries(prefix);
+					if (null != cached){
+						return;
+					}
+					seenGeneration = blockCache.generation();
+				}
+				request = db.prefixLookup(index, prefix, null);
+			}
+		}
+		
+		void open() throws EntityDatabaseException, BabuDBException{
+			if (null == entries && ! exhausted){
+				issue();
+				if (null == cached && null != request && null != blockCache && SUBJECT_INDEX == index){
+					// read the entries into the cache, rather than from the result set
+					results = request.get();
+					cached = new ArrayList<Entry<byte[], byte[]>>();
+					while (results.hasNext()){
+						cached.add(results.next());
+					}
+					blockCache.putEntries(prefix, cached, seenGeneration);
+				}
+				if (null != cached){
+					entries = withPendingWrites(index, prefix, cached.iterator());
+					return;
+				}
+				if (null == request){
+					exhausted = true;
+					return;
+				}
+				results = request.get();
+				entries = withPendingWrites(index, prefix, results);
+			}
+		}
+		
+		/** 
+		 * Move on to the next entity description matching the node, 
+		 * returning false once the index entries are exhausted
+		 */
+		boolean advance() throws Exception{
+			while (! exhausted && entries.hasNext()){
+				Entry<byte[], byte[]> pair = entries.next();
+				Node other = keys.getSecondNode(pair.getKey(), node);
+				if (null == other){
+					continue;
+				}
+				LOG.debug("Fetching single entity description");
+				current = decode(other, pair.getValue());
+				LOG.debug("Fetched single entity description");
+				quads = current.iterator();
+				return true;
+			}
+			free();
+			return false;
+		}
+		
+		void free(){
+			if (! exhausted){
+				if (null == results && null != request){
+					// issued but never opened, wait for the result so it can be released
+					try {
+						results = request.get();
+					} catch (BabuDBException e) {
+						LOG.warn("Error completing abandoned lookup", e);
+					}
+				}
+				if (null != results){
+					results.free();
+				}
+			}
+			exhausted = true;
+		}
+		
+		@Override
+		public void close(){
+			free();
+			quads = Collections.<Quad>emptyList().iterator();
+		}
+		
+		abstract Collection<Quad> decode(Node other, byte[] value) throws Exception;
+		
+		@Override
+		public boolean hasNext() {
+			try{
+				open();
+				while (! quads.hasNext()){
+					if (! advance()){
+						return false;
+					}
+				}
+				return true;
+			} catch (Exception e) {
+				LOG.error(DB_READ_ERROR_MESSAGE, e);
+				free();
+				throw new RuntimeException(DB_READ_ERROR_MESSAGE, e);
+			}
+		}
+
+		@Override
+		public Quad next() {
+			if (! hasNext()){
+				throw new NoSuchElementException();
+			}
+			return quads.next();
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Not supported");
+		}
+	}
+	
+	private class SubjectQuadIterator extends EntityQuadIterator{
+		
+		private final EntityDesc desc = new EntityDesc();
+		
+		SubjectQuadIterator(Node subject){
+			super(SUBJECT_INDEX, subject);
+			desc.subject = subject;
+		}
+
+		@Override
+		Collection<Quad> decode(Node graph, byte[] value) throws Exception {
+			desc.graph = graph;
+			desc.bytes = value;
+			return marshaller.toQuads(desc);
+		}
+	}
 	
+	private class GraphQuadIterator extends EntityQuadIterator{
+		
+		private final EntityDesc desc = new EntityDesc();
+		
+		GraphQuadIterator(Node graph){
+			super(GRAPH_INDEX, graph);
+			desc.graph = graph;
+		}
+		
+		@Override
+		Collection<Quad> decode(Node subject, byte[] storageKey) throws Exception {
+			desc.subject = subject;
+			WriteBatch pending = transaction.get();
+			if (null != pending && pending.contains(SUBJECT_INDEX, storageKey)){
+				desc.bytes = pending.get(SUBJECT_INDEX, storageKey);
+			}else if (null != blockCache){
+				desc.bytes = blockCache.getValue(storageKey);
+				if (null == desc.bytes){
+					long seenGeneration = blockCache.generation();
+					desc.bytes = db.lookup(SUBJECT_INDEX, storageKey, null).get();
+					if (null != desc.bytes){
+						blockCache.putValue(storageKey, desc.bytes, seenGeneration);
+					}
+				}
+			}else{
+				desc.bytes = db.lookup(SUBJECT_INDEX, storageKey, null).get();
+			}
+			return marshaller.toQuads(desc);
+		}
+	}
 	
 	private class EntityIterable implements Iterable<Entry<Node, Iterable<Quad>>>{
 		
 		private final Iterator<Entry<byte[], byte[]>> dbIterator;
 		
 		public EntityIterable() throws BabuDBException{
-			dbIterator = db.prefixLookup(SUBJECT_INDEX, null, null).get();
+			dbIterator = withPendingWrites(SUBJECT_INDEX, null, db.prefixLookup(SUBJECT_INDEX, null, null).get());
 		}
 		
 		@Override
 		public Iterator<Entry<Node, Iterable<Quad>>> iterator() {
 			return new Iterator<Entry<Node, Iterable<Quad>>>(){
-				private String currentSubject = null;
+				private Node currentSubject = null;
 				{
 					// when we create the iterator, move it to the first item
 					if (dbIterator.hasNext()){
 						Entry<byte[], byte[]> pair = dbIterator.next();
-						String[] keyParts = asString(pair.getKey()).split("\t");
-						currentSubject = keyParts[0];
+						currentSubject = getFirstNode(pair.getKey());
 					}
 				}
 								
@@ -275,7 +809,7 @@ public class BabuDbEntityDatabase implements EntityDatabase{
 				public Entry<Node, Iterable<Quad>> next() {
 					// build an Entry to return from the current subject
 					try{
-						Node subject = Node.createURI(currentSubject);
+						Node subject = currentSubject;
 						Entity entity = new Entity(subject, get(subject));
 						
 						// move the iterator on to the next subject
@@ -286,9 +820,9 @@ public class BabuDbEntityDatabase implements EntityDatabase{
 						
 						while (dbIterator.hasNext()){
 							Entry<byte[], byte[]> pair = dbIterator.next();
-							String[] keyParts = asString(pair.getKey()).split("\t");
-							if (! keyParts[0].equals(currentSubject)){
-								currentSubject = keyParts[0];
+							Node nextSubject = getFirstNode(pair.getKey());
+							if (! nextSubject.equals(currentSubject)){
+								currentSubject = nextSubject;
 								break;
 							}
 						}
@@ -304,6 +838,15 @@ public class BabuDbEntityDatabase implements EntityDatabase{
 				public void remove() {
 					throw new UnsupportedOperationException("Not supported");					
 				}
+				
+				private Node getFirstNode(byte[] key){
+					try {
+						return keys.getFirstNode(key);
+					} catch (EntityDatabaseException e) {
+						LOG.error("Error during iteration", e);
+						throw new RuntimeException("Error decoding key", e);
+					}
+				}
 			};
 		
 		}
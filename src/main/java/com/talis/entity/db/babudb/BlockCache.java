@@ -0,0 +1,232 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+
+/**
+ * Cache of the raw, still encoded, entries read from the subject index. The
+ * results of prefix lookups for a subject are held together, as are single 
+ * entity descriptions fetched by storage key. As the values are the codec's
+ * output, many more entities fit in the same space than when caching decoded
+ * quads, at the cost of decoding on each hit.
+ * 
+ * Entries are held in ByteBuffers, which can be allocated outside the heap.
+ * The cache is bounded by the total size of those buffers. 
+ * 
+ * Each invalidation moves the cache on a generation, and results are only 
+ * cached if no invalidation has happened since the lookup that produced them
+ * was started, so that a lookup which raced with a write can't leave a stale 
+ * entry behind.
+ */
+public class BlockCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BlockCache.class);
+	
+	// zero disables the cache
+	public static final long MAX_BYTES_DEFAULT = 0;
+	public static final String MAX_BYTES_PROPERTY = "com.talis.entity.store.babudb.blockCache.maxBytes";
+	public static final String OFF_HEAP_PROPERTY = "com.talis.entity.store.babudb.blockCache.offHeap";
+	
+	private static final byte PREFIX_ENTRY = 'P';
+	private static final byte VALUE_ENTRY = 'V';
+	
+	private final boolean offHeap;
+	private final Cache<CacheKey, ByteBuffer> cache;
+	private final Object invalidationLock = new Object();
+	private long generation = 0;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	public BlockCache(long maxBytes, boolean offHeap){
+		LOG.info("Caching up to {} bytes of index entries {}", maxBytes, offHeap ? "off heap" : "on heap");
+		this.offHeap = offHeap;
+		this.cache = CacheBuilder.newBuilder()
+						.maximumWeight(maxBytes)
+						.weigher(new Weigher<CacheKey, ByteBuffer>(){
+							@Override
+							public int weigh(CacheKey key, ByteBuffer value) {
+								return key.bytes.length + value.capacity();
+							}
+						})
+						.removalListener(new RemovalListener<CacheKey, ByteBuffer>(){
+							@Override
+							public void onRemoval(RemovalNotification<CacheKey, ByteBuffer> notification) {
+								if (notification.wasEvicted()){
+									evictions.incrementAndGet();
+								}
+							}
+						})
+						.build();
+	}
+	
+	public long getHitCount(){
+		return hits.get();
+	}
+	
+	public long getMissCount(){
+		return misses.get();
+	}
+	
+	public long getEvictionCount(){
+		return evictions.get();
+	}
+	
+	/** To be read before starting a lookup whose results may be cached */
+	long generation(){
+		synchronized (invalidationLock){
+			return generation;
+		}
+	}
+	
+	/** The entries under a subject's key prefix, or null if not cached */
+	List<Entry<byte[], byte[]>> getEntries(byte[] prefix){
+		ByteBuffer cached = lookup(new CacheKey(PREFIX_ENTRY, prefix));
+		if (null == cached){
+			return null;
+		}
+		int count = cached.getInt();
+		List<Entry<byte[], byte[]>> entries = new ArrayList<Entry<byte[], byte[]>>(count);
+		for (int i=0; i<count; i++){
+			byte[] key = read(cached);
+			entries.add(new SimpleImmutableEntry<byte[], byte[]>(key, read(cached)));
+		}
+		return entries;
+	}
+	
+	void putEntries(byte[] prefix, List<Entry<byte[], byte[]>> entries, long seenGeneration){
+		int size = 4;
+		for (Entry<byte[], byte[]> entry : entries){
+			size += 8 + entry.getKey().length + entry.getValue().length;
+		}
+		ByteBuffer buffer = allocate(size);
+		buffer.putInt(entries.size());
+		for (Entry<byte[], byte[]> entry : entries){
+			write(buffer, entry.getKey());
+			write(buffer, entry.getValue());
+		}
+		store(new CacheKey(PREFIX_ENTRY, prefix), buffer, seenGeneration);
+	}
+	
+	/** The entity description stored under a key, or null if not cached */
+	byte[] getValue(byte[] storageKey){
+		ByteBuffer cached = lookup(new CacheKey(VALUE_ENTRY, storageKey));
+		return null == cached ? null : read(cached);
+	}
+	
+	void putValue(byte[] storageKey, byte[] value, long seenGeneration){
+		ByteBuffer buffer = allocate(4 + value.length);
+		write(buffer, value);
+		store(new CacheKey(VALUE_ENTRY, storageKey), buffer, seenGeneration);
+	}
+	
+	/** Drop the cached entries affected by a write to a storage key */
+	void invalidate(byte[] storageKey, byte[] subjectPrefix){
+		synchronized (invalidationLock){
+			generation++;
+			cache.invalidate(new CacheKey(VALUE_ENTRY, storageKey));
+			if (null != subjectPrefix){
+				cache.invalidate(new CacheKey(PREFIX_ENTRY, subjectPrefix));
+			}
+		}
+	}
+	
+	void invalidateAll(){
+		synchronized (invalidationLock){
+			generation++;
+			cache.invalidateAll();
+		}
+	}
+	
+	private ByteBuffer lookup(CacheKey key){
+		ByteBuffer cached = cache.getIfPresent(key);
+		if (null == cached){
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		// readers each get their own position
+		return cached.duplicate();
+	}
+	
+	private void store(CacheKey key, ByteBuffer buffer, long seenGeneration){
+		buffer.flip();
+		synchronized (invalidationLock){
+			if (seenGeneration == generation){
+				cache.put(key, buffer);
+			}
+		}
+	}
+	
+	private ByteBuffer allocate(int size){
+		return offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+	}
+	
+	private static void write(ByteBuffer buffer, byte[] bytes){
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+	
+	private static byte[] read(ByteBuffer buffer){
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return bytes;
+	}
+	
+	private static final class CacheKey{
+		private final byte type;
+		private final byte[] bytes;
+		private final int hash;
+		
+		CacheKey(byte type, byte[] bytes){
+			this.type = type;
+			this.bytes = bytes;
+			this.hash = 31 * Arrays.hashCode(bytes) + type;
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (! (obj instanceof CacheKey)){
+				return false;
+			}
+			CacheKey other = (CacheKey)obj;
+			return type == other.type && Arrays.equals(bytes, other.bytes);
+		}
+	}
+}
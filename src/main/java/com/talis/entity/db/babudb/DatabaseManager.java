@@ -21,13 +21,24 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xtreemfs.babudb.api.BabuDB;
 import org.xtreemfs.babudb.api.database.Database;
+import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
+import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
+import org.xtreemfs.babudb.api.database.DatabaseRequestResult;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.config.BabuDBConfig;
 import org.xtreemfs.babudb.config.ConfigBuilder;
@@ -46,25 +57,55 @@ public class DatabaseManager {
 	public static final long MAX_LOG_SIZE_DEFAULT = 1024 * 1024 * 64;
 	public static final String MAX_LOG_SIZE_PROPERTY = "com.talis.entity.store.babudb.maxLogfileSize";
 	
+	// one of BabuDB's log SyncModes, FSYNC or FDATASYNC make each insert 
+	// durable before it completes. Best combined with group commit, see 
+	// BabuDbEntityDatabase.GROUP_COMMIT_WINDOW_PROPERTY 
+	public static final SyncMode LOG_SYNC_MODE_DEFAULT = SyncMode.ASYNC;
+	public static final String LOG_SYNC_MODE_PROPERTY = "com.talis.entity.store.babudb.logSyncMode";
+	
 	public static final String DEBUG_LOG_LEVEL_PROPERTY = "com.talis.entity.store.babudb.debugLogLevel";
 	public static final String DEBUG_LOG_FILE_PROPERTY = "com.talis.entity.store.babudb.debugLogFile";
 	
+	// BabuDB's names for index snapshots (IX<index>V<version>SEQ<seq>.idx) and log files
+	private static final String INDEX_FILE_SUFFIX = ".idx";
+	private static final String LOG_FILE_SUFFIX = ".dbl";
+	
+	public static final String MBEAN_DOMAIN = "com.talis.entity";
+	
 	private final BabuDB dbSystem;
+	private final File baseDir;
+	private final IndexConfig indexConfig;
+	
+	private final AtomicLong pendingInserts = new AtomicLong();
+	private final AtomicLong completedInserts = new AtomicLong();
+	private final AtomicLong failedInserts = new AtomicLong();
+	private final AtomicLong checkpoints = new AtomicLong();
+	private volatile long lastCheckpointTime = -1;
+	private volatile long lastCheckpointDuration = -1;
+	private ObjectName mbeanName;
 	
 	public DatabaseManager(File dbDir, BabuDBFactoryWrapper babuDBFactory){
-		LOG.info("Initialising DatabaseProvider");
+		this(dbDir, babuDBFactory, new IndexConfig());
+	}
+	
+	public DatabaseManager(File dbDir, BabuDBFactoryWrapper babuDBFactory, IndexConfig indexConfig){
+		LOG.info("Initialising DatabaseProvider ({})", indexConfig);
 		initDbDir(dbDir);
+		baseDir = dbDir;
+		this.indexConfig = indexConfig;
 		
 		// use the builder to get a config with the default values
 		BabuDBConfig config = new ConfigBuilder()
-									.setCompressed(false)
-									.setMultiThreaded(0)
-									.setLogAppendSyncMode(SyncMode.ASYNC)
+									.setCompressed(indexConfig.isCompressIndex())
+									.setMultiThreaded(indexConfig.getWorkerThreads())
+									.setLogAppendSyncMode(getLogSyncMode())
 									.build();
 		// now set our specific properties
 		Properties props = config.getProps();
 		props.setProperty("babudb.baseDir", dbDir.getAbsolutePath());
 		props.setProperty("babudb.logDir", dbDir.getAbsolutePath() + "/logs");
+		props.setProperty("babudb.maxNumRecordsPerBlock", "" + indexConfig.getMaxRecordsPerBlock());
+		props.setProperty("babudb.maxBlockFileSize", "" + indexConfig.getMaxBlockFileSize());
 		props.setProperty("babudb.checkInterval", System.getProperty(CHECK_INTERVAL_PROPERTY, "" + CHECK_INTERVAL_DEFAULT));
 		props.setProperty("babudb.maxLogfileSize", System.getProperty(MAX_LOG_SIZE_PROPERTY, "" + MAX_LOG_SIZE_DEFAULT));
 		props.setProperty("babudb.debug.level", System.getProperty(DEBUG_LOG_LEVEL_PROPERTY, "" + getDebugLogLevel()));
@@ -88,6 +129,19 @@ public class DatabaseManager {
 		}
 	}
 	
+	public final SyncMode getLogSyncMode(){
+		String syncMode = System.getProperty(LOG_SYNC_MODE_PROPERTY);
+		if (null == syncMode){
+			return LOG_SYNC_MODE_DEFAULT;
+		}
+		try{
+			return SyncMode.valueOf(syncMode.toUpperCase());
+		}catch(IllegalArgumentException e){
+			LOG.warn("Unknown log sync mode {}, using {}", syncMode, LOG_SYNC_MODE_DEFAULT);
+			return LOG_SYNC_MODE_DEFAULT;
+		}
+	}
+	
 	public final int getDebugLogLevel(){
 		String logLevel = System.getProperty(DEBUG_LOG_LEVEL_PROPERTY); 
 		if ("EMERGENCY".equalsIgnoreCase(logLevel)){
@@ -122,26 +176,171 @@ public class DatabaseManager {
 		}
 	}
 	
+	public IndexConfig getIndexConfig(){
+		return indexConfig;
+	}
+	
+	/** The directory holding the databases' index files and logs */
+	public File getBaseDir(){
+		return baseDir;
+	}
+	
 	public Database getDatabase(String dbName) throws EntityDatabaseException{
+		return getDatabase(dbName, BabuDbEntityDatabase.NUM_INDEXES);
+	}
+	
+	public Database getDatabase(String dbName, int numIndexes) throws EntityDatabaseException{
 		try{
     		return dbSystem.getDatabaseManager().getDatabase(dbName);
     	}catch(BabuDBException e){
     		if (e.getErrorCode().equals(BabuDBException.ErrorCode.NO_SUCH_DB)){
-    			return createDatabase(dbName);
+    			return createDatabase(dbName, numIndexes);
     		}else{
     			throw new EntityDatabaseException("Error creating entity database", e);
     		}
     	}
 	}
 	
-	private Database createDatabase(String dbName) throws EntityDatabaseException{
+	private Database createDatabase(String dbName, int numIndexes) throws EntityDatabaseException{
 		try{
-			return dbSystem.getDatabaseManager().createDatabase(dbName, BabuDbEntityDatabase.NUM_INDEXES);
+			return dbSystem.getDatabaseManager().createDatabase(dbName, numIndexes);
 		}catch(Exception e){
     		throw new EntityDatabaseException("Error creating entity database", e);
     	}
 	}
 	
+	/**
+	 * Submits an insert group, counting it as pending until BabuDB reports 
+	 * that it has completed, see DatabaseStats.getPendingInserts()
+	 */
+	public DatabaseRequestResult<Object> insert(Database db, DatabaseInsertGroup batch){
+		return insert(db, batch, null);
+	}
+	
+	/**
+	 * As insert(db, batch), also notifying a listener once the insert has 
+	 * completed. BabuDB only notifies a single listener of each request, so 
+	 * the listener must be passed here rather than registered on the result.
+	 */
+	public DatabaseRequestResult<Object> insert(Database db, DatabaseInsertGroup batch, 
+												final DatabaseRequestListener<Object> listener){
+		pendingInserts.incrementAndGet();
+		DatabaseRequestResult<Object> result;
+		try{
+			result = db.insert(batch, null);
+		}catch(RuntimeException e){
+			pendingInserts.decrementAndGet();
+			failedInserts.incrementAndGet();
+			throw e;
+		}
+		result.registerListener(new DatabaseRequestListener<Object>(){
+			@Override
+			public void finished(Object result, Object context) {
+				pendingInserts.decrementAndGet();
+				completedInserts.incrementAndGet();
+				if (null != listener){
+					listener.finished(result, context);
+				}
+			}
+			@Override
+			public void failed(BabuDBException e, Object context) {
+				pendingInserts.decrementAndGet();
+				failedInserts.incrementAndGet();
+				if (null != listener){
+					listener.failed(e, context);
+				}
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Writes the contents of the log into new index files for every 
+	 * database, and starts a new log, blocking until it's done. BabuDB also
+	 * checkpoints by itself when the log reaches its maximum size.
+	 */
+	public void checkpoint() throws EntityDatabaseException{
+		LOG.info("Checkpointing databases");
+		long start = System.currentTimeMillis();
+		try{
+			dbSystem.getCheckpointer().checkpoint();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new EntityDatabaseException("Interrupted while checkpointing", e);
+		}catch(BabuDBException e){
+			throw new EntityDatabaseException("Error checkpointing databases", e);
+		}
+		long end = System.currentTimeMillis();
+		lastCheckpointTime = end;
+		lastCheckpointDuration = end - start;
+		checkpoints.incrementAndGet();
+		LOG.info("Checkpoint completed in {} ms", lastCheckpointDuration);
+	}
+	
+	/**
+	 * The sizes of the index and log files, and the state of checkpoints and 
+	 * inserts. The file sizes are read from disk on each call.
+	 */
+	public DatabaseStats getStats() throws EntityDatabaseException{
+		Map<String, Long> indexBytes = new HashMap<String, Long>();
+		long newestIndex = -1;
+		try{
+			for (String dbName : dbSystem.getDatabaseManager().getDatabases().keySet()){
+				long bytes = 0;
+				File[] files = new File(baseDir, dbName).listFiles();
+				for (File file : null == files ? new File[0] : files){
+					if (file.getName().endsWith(INDEX_FILE_SUFFIX)){
+						bytes += file.isDirectory() ? FileUtils.sizeOfDirectory(file) : file.length();
+						newestIndex = Math.max(newestIndex, file.lastModified());
+					}
+				}
+				indexBytes.put(dbName, bytes);
+			}
+		}catch(BabuDBException e){
+			throw new EntityDatabaseException("Error listing databases", e);
+		}
+		long logBytes = 0;
+		int logFiles = 0;
+		File[] logs = getLogDir().listFiles();
+		for (File log : null == logs ? new File[0] : logs){
+			if (log.getName().endsWith(LOG_FILE_SUFFIX)){
+				logBytes += log.length();
+				logFiles++;
+			}
+		}
+		long lastCheckpoint = Math.max(newestIndex, lastCheckpointTime);
+		return new DatabaseStats(indexBytes, logBytes, logFiles,
+				lastCheckpoint < 0 ? -1 : System.currentTimeMillis() - lastCheckpoint, 
+				lastCheckpointDuration, checkpoints.get(),
+				pendingInserts.get(), completedInserts.get(), failedInserts.get());
+	}
+	
+	/**
+	 * Publishes the stats through JMX, as 
+	 * com.talis.entity:type=DatabaseManager,dir=base directory. The MBean 
+	 * is unregistered when the manager is shut down. 
+	 */
+	public synchronized ObjectName registerMBean() throws EntityDatabaseException{
+		if (null != mbeanName){
+			return mbeanName;
+		}
+		try{
+			Hashtable<String, String> properties = new Hashtable<String, String>();
+			properties.put("type", "DatabaseManager");
+			properties.put("dir", ObjectName.quote(baseDir.getAbsolutePath()));
+			ObjectName name = new ObjectName(MBEAN_DOMAIN, properties);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new StatsMXBean(), name);
+			mbeanName = name;
+			return name;
+		}catch(JMException e){
+			throw new EntityDatabaseException("Unable to register DatabaseManager MBean", e);
+		}
+	}
+	
+	private File getLogDir(){
+		return new File(baseDir, "logs");
+	}
+	
 	public void deleteDatabase(String dbName) throws EntityDatabaseException{
 		try {
 			dbSystem.getDatabaseManager().deleteDatabase(dbName);
@@ -151,6 +350,7 @@ public class DatabaseManager {
 	}
 	
 	public void shutDown(){
+		unregisterMBean();
 		try {
 			LOG.info("Shutting down");
 			dbSystem.shutdown(true);
@@ -159,4 +359,96 @@ public class DatabaseManager {
 		}
 	}
 	
+	private synchronized void unregisterMBean(){
+		if (null == mbeanName){
+			return;
+		}
+		try{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+		}catch(JMException e){
+			LOG.warn("Unable to unregister DatabaseManager MBean", e);
+		}
+		mbeanName = null;
+	}
+	
+	// the file based attributes share a snapshot of the stats for up to a 
+	// second, so a client reading them all only scans the directories once.
+	// Unavailable stats are reported as -1 
+	private class StatsMXBean implements DatabaseManagerMXBean {
+		
+		private static final long STATS_TTL_MILLIS = 1000;
+		
+		private DatabaseStats snapshot;
+		private long snapshotTime;
+		
+		private synchronized DatabaseStats stats(){
+			long now = System.currentTimeMillis();
+			if (null == snapshot || now - snapshotTime >= STATS_TTL_MILLIS){
+				try{
+					snapshot = getStats();
+				}catch(EntityDatabaseException e){
+					LOG.warn("Unable to read database stats", e);
+					snapshot = new DatabaseStats(new HashMap<String, Long>(), -1, -1, -1, -1, -1, -1, -1, -1);
+				}
+				snapshotTime = now;
+			}
+			return snapshot;
+		}
+
+		@Override
+		public Map<String, Long> getIndexBytes() {
+			return stats().getIndexBytes();
+		}
+
+		@Override
+		public long getTotalIndexBytes() {
+			return stats().getTotalIndexBytes();
+		}
+
+		@Override
+		public long getLogBytes() {
+			return stats().getLogBytes();
+		}
+
+		@Override
+		public int getLogFiles() {
+			return stats().getLogFiles();
+		}
+
+		@Override
+		public long getMillisSinceLastCheckpoint() {
+			return stats().getMillisSinceLastCheckpoint();
+		}
+
+		@Override
+		public long getLastCheckpointDurationMillis() {
+			return lastCheckpointDuration;
+		}
+
+		@Override
+		public long getCheckpoints() {
+			return checkpoints.get();
+		}
+
+		@Override
+		public long getPendingInserts() {
+			return pendingInserts.get();
+		}
+
+		@Override
+		public long getCompletedInserts() {
+			return completedInserts.get();
+		}
+
+		@Override
+		public long getFailedInserts() {
+			return failedInserts.get();
+		}
+
+		@Override
+		public void checkpoint() throws EntityDatabaseException {
+			DatabaseManager.this.checkpoint();
+		}
+	}
+	
 }
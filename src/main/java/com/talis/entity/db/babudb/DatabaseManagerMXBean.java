@@ -0,0 +1,41 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import java.util.Map;
+
+import com.talis.entity.EntityDatabaseException;
+
+/**
+ * The JMX view of a DatabaseManager, see DatabaseManager.registerMBean()
+ * and DatabaseStats for the meaning of each attribute.
+ */
+public interface DatabaseManagerMXBean {
+
+	public Map<String, Long> getIndexBytes();
+	public long getTotalIndexBytes();
+	public long getLogBytes();
+	public int getLogFiles();
+	public long getMillisSinceLastCheckpoint();
+	public long getLastCheckpointDurationMillis();
+	public long getCheckpoints();
+	public long getPendingInserts();
+	public long getCompletedInserts();
+	public long getFailedInserts();
+	
+	public void checkpoint() throws EntityDatabaseException;
+}
@@ -0,0 +1,120 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A snapshot of the state of the BabuDB system behind a DatabaseManager, 
+ * see DatabaseManager.getStats(). 
+ * 
+ * Everything written since the last checkpoint is only held in the log 
+ * (and memory), so the log size is roughly what has to be replayed when 
+ * the system next starts. A checkpoint merges the log into new index 
+ * files and starts a new log.
+ */
+public class DatabaseStats {
+
+	private final Map<String, Long> indexBytes;
+	private final long logBytes;
+	private final int logFiles;
+	private final long millisSinceLastCheckpoint;
+	private final long lastCheckpointDurationMillis;
+	private final long checkpoints;
+	private final long pendingInserts;
+	private final long completedInserts;
+	private final long failedInserts;
+	
+	DatabaseStats(Map<String, Long> indexBytes, long logBytes, int logFiles, 
+			long millisSinceLastCheckpoint, long lastCheckpointDurationMillis, long checkpoints,
+			long pendingInserts, long completedInserts, long failedInserts){
+		this.indexBytes = Collections.unmodifiableMap(new TreeMap<String, Long>(indexBytes));
+		this.logBytes = logBytes;
+		this.logFiles = logFiles;
+		this.millisSinceLastCheckpoint = millisSinceLastCheckpoint;
+		this.lastCheckpointDurationMillis = lastCheckpointDurationMillis;
+		this.checkpoints = checkpoints;
+		this.pendingInserts = pendingInserts;
+		this.completedInserts = completedInserts;
+		this.failedInserts = failedInserts;
+	}
+	
+	/** The size of each database's index files, by database name */
+	public Map<String, Long> getIndexBytes(){
+		return indexBytes;
+	}
+	
+	/** The size of every database's index files */
+	public long getTotalIndexBytes(){
+		long total = 0;
+		for (long bytes : indexBytes.values()){
+			total += bytes;
+		}
+		return total;
+	}
+	
+	/** The size of the log files, which are shared by all of the databases */
+	public long getLogBytes(){
+		return logBytes;
+	}
+	
+	public int getLogFiles(){
+		return logFiles;
+	}
+	
+	/** 
+	 * Time since the most recent checkpoint, whether BabuDB's own or made by 
+	 * DatabaseManager.checkpoint(), or -1 if there hasn't been one. BabuDB's 
+	 * own checkpoints are only seen through the index files they write.
+	 */
+	public long getMillisSinceLastCheckpoint(){
+		return millisSinceLastCheckpoint;
+	}
+	
+	/** How long the last DatabaseManager.checkpoint() took, or -1 if it hasn't been called */
+	public long getLastCheckpointDurationMillis(){
+		return lastCheckpointDurationMillis;
+	}
+	
+	/** The number of calls to DatabaseManager.checkpoint() */
+	public long getCheckpoints(){
+		return checkpoints;
+	}
+	
+	/** Inserts submitted through DatabaseManager.insert() which haven't yet completed */
+	public long getPendingInserts(){
+		return pendingInserts;
+	}
+	
+	public long getCompletedInserts(){
+		return completedInserts;
+	}
+	
+	public long getFailedInserts(){
+		return failedInserts;
+	}
+	
+	@Override
+	public String toString(){
+		return String.format("index bytes %s, log %s bytes in %s files, last checkpoint %s ms ago (took %s ms), " +
+				"inserts %s pending %s completed %s failed", 
+				indexBytes, logBytes, logFiles, millisSinceLastCheckpoint, lastCheckpointDurationMillis, 
+				pendingInserts, completedInserts, failedInserts);
+	}
+}
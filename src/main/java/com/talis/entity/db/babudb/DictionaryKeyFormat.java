@@ -0,0 +1,89 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import java.nio.ByteBuffer;
+
+import com.hp.hpl.jena.graph.Node;
+import com.talis.entity.EntityDatabaseException;
+
+/**
+ * Keys made of two 8 byte node ids from a {@link NodeDictionary}, so every 
+ * key is 16 bytes and the prefix for a node is its 8 byte id. Decoding a key 
+ * is a byte read and a (usually cached) dictionary lookup, rather than 
+ * splitting a string.
+ */
+public class DictionaryKeyFormat implements KeyFormat {
+
+	private static final int ID_LENGTH = 8;
+	
+	private final NodeDictionary dictionary;
+	
+	public DictionaryKeyFormat(NodeDictionary dictionary){
+		this.dictionary = dictionary;
+	}
+	
+	@Override
+	public byte[] getStorageKey(Node subject, Node graph) throws EntityDatabaseException {
+		long[] ids = dictionary.getOrCreateIds(subject, graph);
+		return getKey(ids[0], ids[1]);
+	}
+
+	@Override
+	public byte[] getInverseKey(Node subject, Node graph) throws EntityDatabaseException {
+		long[] ids = dictionary.getOrCreateIds(subject, graph);
+		return getKey(ids[1], ids[0]);
+	}
+	
+	private byte[] getKey(long first, long second){
+		return ByteBuffer.allocate(ID_LENGTH * 2).putLong(first).putLong(second).array();
+	}
+
+	@Override
+	public byte[] getKeyPrefix(Node node) throws EntityDatabaseException {
+		long id = dictionary.getId(node);
+		if (NodeDictionary.NO_ID == id){
+			return null;
+		}
+		return NodeDictionary.toBytes(id);
+	}
+
+	@Override
+	public Node getFirstNode(byte[] key) throws EntityDatabaseException {
+		return dictionary.getNode(ByteBuffer.wrap(key).getLong(0));
+	}
+
+	@Override
+	public Node getSecondNode(byte[] key, Node first) throws EntityDatabaseException {
+		ByteBuffer buffer = ByteBuffer.wrap(key);
+		if (buffer.getLong(0) != dictionary.getId(first)){
+			return null;
+		}
+		return dictionary.getNode(buffer.getLong(ID_LENGTH));
+	}
+
+	@Override
+	public void clear() throws EntityDatabaseException {
+		dictionary.clear();
+	}
+
+	@Override
+	public void close() throws EntityDatabaseException {
+		dictionary.close();
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xtreemfs.babudb.api.database.Database;
+import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
+
+import com.google.common.util.concurrent.SettableFuture;
+import com.talis.entity.EntityDatabaseException;
+
+/**
+ * Applies the write batches of concurrent writers together. A single thread 
+ * takes batches from a queue, collecting as many as arrive within the window 
+ * after the first (up to a maximum number of index writes), merges them in 
+ * the order they were submitted and applies them as one insert group. Each 
+ * writer is released once the insert group has completed, so the cost of a 
+ * synchronous log write is shared by every batch in the group.
+ */
+class GroupCommitter {
+	
+	private static final Logger LOG = LoggerFactory.getLogger(GroupCommitter.class);
+	
+	private static final String DB_WRITE_ERROR_MESSAGE = "Unexpected exception writing to DB";
+	private static final Submission SHUTDOWN = new Submission(null);
+	
+	private final BabuDbEntityDatabase entityDatabase;
+	private final long windowMillis;
+	private final int maxWrites;
+	private final BlockingQueue<Submission> queue = new LinkedBlockingQueue<Submission>();
+	private final Thread committer;
+	private boolean running = true;
+	
+	GroupCommitter(BabuDbEntityDatabase entityDatabase, String dbName, long windowMillis, int maxWrites){
+		this.entityDatabase = entityDatabase;
+		this.windowMillis = windowMillis;
+		this.maxWrites = maxWrites;
+		committer = new Thread(new Runnable(){
+			@Override
+			public void run() {
+				runCommits();
+			}
+		}, "group-commit-" + dbName);
+		committer.setDaemon(true);
+		committer.start();
+	}
+	
+	/** Submit a batch, blocking until it has been applied */
+	void commit(WriteBatch writes) throws EntityDatabaseException{
+		Submission submission = new Submission(writes);
+		synchronized (this){
+			if (! running){
+				throw new EntityDatabaseException("Group committer has been shut down");
+			}
+			queue.add(submission);
+		}
+		try {
+			submission.done.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EntityDatabaseException("Interrupted waiting for group commit", e);
+		} catch (ExecutionException e) {
+			throw new EntityDatabaseException(DB_WRITE_ERROR_MESSAGE, e.getCause());
+		}
+	}
+	
+	/** Stop accepting batches, waiting for those already queued to be applied */
+	void shutdown(){
+		synchronized (this){
+			if (! running){
+				return;
+			}
+			running = false;
+			queue.add(SHUTDOWN);
+		}
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			LOG.warn("Interrupted waiting for group committer to finish");
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void runCommits(){
+		List<Submission> group = new ArrayList<Submission>();
+		boolean stopping = false;
+		while (! stopping){
+			try {
+				Submission first = queue.take();
+				if (SHUTDOWN == first){
+					break;
+				}
+				group.add(first);
+				int writes = first.writes.size();
+				long deadline = System.currentTimeMillis() + windowMillis;
+				while (writes < maxWrites){
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0){
+						break;
+					}
+					Submission next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+					if (null == next){
+						break;
+					}
+					if (SHUTDOWN == next){
+						stopping = true;
+						break;
+					}
+					group.add(next);
+					writes += next.writes.size();
+				}
+				apply(group);
+			} catch (InterruptedException e) {
+				LOG.warn("Group committer interrupted");
+				stopping = true;
+			} finally {
+				group.clear();
+			}
+		}
+		// anything still waiting can't be applied now
+		Submission abandoned;
+		while (null != (abandoned = queue.poll())){
+			if (SHUTDOWN != abandoned){
+				abandoned.done.setException(new EntityDatabaseException("Group committer has been shut down"));
+			}
+		}
+	}
+	
+	private void apply(List<Submission> group){
+		LOG.debug("Applying group of {} write batches", group.size());
+		try{
+			WriteBatch merged = new WriteBatch(BabuDbEntityDatabase.NUM_INDEXES);
+			for (Submission submission : group){
+				merged.putAll(submission.writes);
+			}
+			Database db = entityDatabase.getDb();
+			DatabaseInsertGroup batch = db.createInsertGroup();
+			merged.writeTo(batch);
+			entityDatabase.getDbManager().insert(db, batch).get();
+			for (Submission submission : group){
+				submission.done.set(null);
+			}
+		}catch (Exception e){
+			LOG.error(DB_WRITE_ERROR_MESSAGE, e);
+			for (Submission submission : group){
+				submission.done.setException(e);
+			}
+		}
+	}
+	
+	private static class Submission{
+		final WriteBatch writes;
+		final SettableFuture<Void> done = SettableFuture.create();
+		
+		Submission(WriteBatch writes){
+			this.writes = writes;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+/**
+ * Layout of BabuDB index files and the resources used to build and serve 
+ * them. The bulk builder writes index files which a DatabaseManager later
+ * opens, so both should be given the same configuration; in particular a
+ * compressed index can only be read by a database system configured for
+ * compression.
+ * 
+ * The defaults are BabuDB's own, or those the builder has always used, and
+ * each can be overridden by a system property.
+ */
+public class IndexConfig {
+
+	public static final int MAX_RECORDS_PER_BLOCK_DEFAULT = 64;
+	public static final String MAX_RECORDS_PER_BLOCK_PROPERTY = "com.talis.entity.store.babudb.maxNumRecordsPerBlock";
+	
+	public static final int MAX_BLOCK_FILE_SIZE_DEFAULT = 1024 * 1024 * 50;
+	public static final String MAX_BLOCK_FILE_SIZE_PROPERTY = "com.talis.entity.store.babudb.maxBlockFileSize";
+	
+	public static final String COMPRESS_INDEX_PROPERTY = "com.talis.entity.store.babudb.compressIndex";
+	
+	// 0 runs inserts and lookups on the calling thread
+	public static final int WORKER_THREADS_DEFAULT = 0;
+	public static final String WORKER_THREADS_PROPERTY = "com.talis.entity.store.babudb.workerThreads";
+	
+	// number of items held in memory by each external sort before a run is written 
+	public static final int SORT_BUFFER_DEFAULT = 100000;
+	public static final String SORT_BUFFER_PROPERTY = "com.talis.entity.builder.sortBuffer";
+	
+	// defaults to the number of processors
+	public static final String MARSHAL_THREADS_PROPERTY = "com.talis.entity.builder.marshalThreads";
+	
+	private int maxRecordsPerBlock;
+	private int maxBlockFileSize;
+	private boolean compressIndex;
+	private int workerThreads;
+	private int sortBufferSize;
+	private int marshalThreads;
+	
+	public IndexConfig(){
+		setMaxRecordsPerBlock(Integer.getInteger(MAX_RECORDS_PER_BLOCK_PROPERTY, MAX_RECORDS_PER_BLOCK_DEFAULT));
+		setMaxBlockFileSize(Integer.getInteger(MAX_BLOCK_FILE_SIZE_PROPERTY, MAX_BLOCK_FILE_SIZE_DEFAULT));
+		setCompressIndex(Boolean.getBoolean(COMPRESS_INDEX_PROPERTY));
+		setWorkerThreads(Integer.getInteger(WORKER_THREADS_PROPERTY, WORKER_THREADS_DEFAULT));
+		setSortBufferSize(Integer.getInteger(SORT_BUFFER_PROPERTY, SORT_BUFFER_DEFAULT));
+		setMarshalThreads(Integer.getInteger(MARSHAL_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors()));
+	}
+	
+	/** Records in each index block, the unit of lookup and (optionally) compression */
+	public int getMaxRecordsPerBlock(){
+		return maxRecordsPerBlock;
+	}
+	
+	public IndexConfig setMaxRecordsPerBlock(int maxRecordsPerBlock){
+		checkPositive(maxRecordsPerBlock, "records per block");
+		this.maxRecordsPerBlock = maxRecordsPerBlock;
+		return this;
+	}
+	
+	/** Size in bytes at which a new block file is started */
+	public int getMaxBlockFileSize(){
+		return maxBlockFileSize;
+	}
+	
+	public IndexConfig setMaxBlockFileSize(int maxBlockFileSize){
+		checkPositive(maxBlockFileSize, "block file size");
+		this.maxBlockFileSize = maxBlockFileSize;
+		return this;
+	}
+	
+	public boolean isCompressIndex(){
+		return compressIndex;
+	}
+	
+	public IndexConfig setCompressIndex(boolean compressIndex){
+		this.compressIndex = compressIndex;
+		return this;
+	}
+	
+	/** BabuDB worker threads */
+	public int getWorkerThreads(){
+		return workerThreads;
+	}
+	
+	public IndexConfig setWorkerThreads(int workerThreads){
+		if (workerThreads < 0){
+			throw new IllegalArgumentException("Worker threads cannot be negative");
+		}
+		this.workerThreads = workerThreads;
+		return this;
+	}
+	
+	public int getSortBufferSize(){
+		return sortBufferSize;
+	}
+	
+	public IndexConfig setSortBufferSize(int sortBufferSize){
+		checkPositive(sortBufferSize, "sort buffer size");
+		this.sortBufferSize = sortBufferSize;
+		return this;
+	}
+	
+	/** Threads used by the bulk builder to marshal and compress entities */
+	public int getMarshalThreads(){
+		return marshalThreads;
+	}
+	
+	public IndexConfig setMarshalThreads(int marshalThreads){
+		checkPositive(marshalThreads, "marshalling threads");
+		this.marshalThreads = marshalThreads;
+		return this;
+	}
+	
+	private void checkPositive(int value, String name){
+		if (value < 1){
+			throw new IllegalArgumentException("Invalid " + name + ": " + value);
+		}
+	}
+	
+	@Override
+	public String toString(){
+		return String.format("recordsPerBlock=%s blockFileSize=%s compressed=%s workerThreads=%s sortBuffer=%s marshalThreads=%s",
+				maxRecordsPerBlock, maxBlockFileSize, compressIndex, workerThreads, sortBufferSize, marshalThreads);
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import com.hp.hpl.jena.graph.Node;
+import com.talis.entity.EntityDatabaseException;
+
+/**
+ * Maps (subject, graph) pairs to the keys of the BabuDB indexes and back again.
+ * Storage keys (subject then graph) are used in the subject index, inverse keys 
+ * (graph then subject) in the graph index. Either kind of key begins with the 
+ * prefix of its first node, so prefix lookups find every entry for that node.
+ */
+public interface KeyFormat {
+
+	public byte[] getStorageKey(Node subject, Node graph) throws EntityDatabaseException;
+	public byte[] getInverseKey(Node subject, Node graph) throws EntityDatabaseException;
+	
+	/**
+	 * @return the prefix shared by every key starting with the node, or null if
+	 * no key can possibly start with it
+	 */
+	public byte[] getKeyPrefix(Node node) throws EntityDatabaseException;
+	
+	public Node getFirstNode(byte[] key) throws EntityDatabaseException;
+	
+	/**
+	 * @return the second node of the key, or null if the key does not 
+	 * actually begin with the given first node
+	 */
+	public Node getSecondNode(byte[] key, Node first) throws EntityDatabaseException;
+	
+	public void clear() throws EntityDatabaseException;
+	public void close() throws EntityDatabaseException;
+	
+}
@@ -36,11 +36,14 @@ public class Keys {
 	}
 	
 	public static String getKeyString(Node first, Node second){
-		StringWriter w1 = new StringWriter();
-		StringWriter w2 = new StringWriter();
-		escapeProc.writeStr(w1, first.getURI());
-		escapeProc.writeStr(w2, second.getURI());
-		return w1.toString().concat("\t").concat(w2.toString());
+		return escape(first).concat("\t").concat(escape(second));
+	}
+	
+	/** The escaped form of a URI, as it appears on either side of a key */
+	public static String escape(Node node){
+		StringWriter w = new StringWriter();
+		escapeProc.writeStr(w, node.getURI());
+		return w.toString();
 	}
 	
 	public static byte[] getKeyPrefix(Node node){
@@ -0,0 +1,302 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xtreemfs.babudb.api.database.Database;
+import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.api.exception.BabuDBException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.hp.hpl.jena.graph.Node;
+import com.talis.entity.EntityDatabaseException;
+
+/**
+ * A persistent, two way mapping between URI nodes and fixed width long ids,
+ * stored in its own BabuDB database. Ids are allocated in sequence, starting 
+ * at 1, so their big-endian byte order matches their numeric order.
+ * 
+ * New ids are reserved under the dictionary's lock, then written outside it,
+ * so that writers meeting different new nodes don't queue behind each 
+ * other's inserts. A thread needing an id which another is still writing 
+ * waits for that write, so no id is used before it's stored.
+ */
+public class NodeDictionary {
+
+	private static final Logger LOG = LoggerFactory.getLogger(NodeDictionary.class);
+	
+	public static final long NO_ID = -1;
+	public static final int NUM_INDEXES = 2;
+	
+	public static final int CACHE_SIZE_DEFAULT = 100000;
+	public static final String CACHE_SIZE_PROPERTY = "com.talis.entity.store.babudb.nodeDictionary.cacheSize";
+	
+	private static final int ID_INDEX = 0;
+	private static final int NODE_INDEX = 1;
+	
+	// URIs never contain a NUL, so this can't clash with the key of a node. 
+	// No longer written, as concurrent allocations could store it out of 
+	// order, but it may be the only record of the next id in older dictionaries
+	private static final byte[] NEXT_ID_KEY = {0};
+	
+	private final String dbName;
+	private final DatabaseManager dbManager;
+	private final Cache<String, Long> ids;
+	private final Cache<Long, Node> nodes;
+	private final ConcurrentMap<String, Allocation> allocating = new ConcurrentHashMap<String, Allocation>();
+	private Database db;
+	private long nextId;
+	
+	public NodeDictionary(String dbName, DatabaseManager dbManager) throws EntityDatabaseException{
+		LOG.info("Initialising node dictionary {}", dbName);
+		this.dbName = dbName;
+		this.dbManager = dbManager;
+		int cacheSize = Integer.getInteger(CACHE_SIZE_PROPERTY, CACHE_SIZE_DEFAULT);
+		ids = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+		nodes = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+		db = dbManager.getDatabase(dbName, NUM_INDEXES);
+		nextId = readNextId();
+	}
+	
+	// one after the highest id stored
+	private long readNextId() throws EntityDatabaseException{
+		byte[] value = lookup(ID_INDEX, NEXT_ID_KEY);
+		long next = null == value ? 1 : toLong(value);
+		try{
+			ResultSet<byte[], byte[]> highest = db.reversePrefixLookup(NODE_INDEX, null, null).get();
+			try{
+				if (highest.hasNext()){
+					next = Math.max(next, toLong(highest.next().getKey()) + 1);
+				}
+			}finally{
+				highest.free();
+			}
+		}catch(BabuDBException e){
+			LOG.error("Error reading node dictionary", e);
+			throw new EntityDatabaseException("Error reading node dictionary", e);
+		}
+		return next;
+	}
+	
+	/**
+	 * @return the id of the node, or NO_ID if it has never been stored
+	 */
+	public long getId(Node node) throws EntityDatabaseException{
+		String uri = node.getURI();
+		Long id = ids.getIfPresent(uri);
+		if (null != id){
+			return id;
+		}
+		byte[] value = lookup(ID_INDEX, toBytes(uri));
+		if (null == value){
+			return NO_ID;
+		}
+		long found = toLong(value);
+		ids.put(uri, found);
+		return found;
+	}
+	
+	public long getOrCreateId(Node node) throws EntityDatabaseException{
+		return getOrCreateIds(node)[0];
+	}
+	
+	/**
+	 * @return the ids of the nodes, in order. Any new ids are written in a 
+	 * single insert
+	 */
+	public long[] getOrCreateIds(Node... toFind) throws EntityDatabaseException{
+		long[] found = new long[toFind.length];
+		Allocation[] pending = new Allocation[toFind.length];
+		List<Allocation> reserved = new ArrayList<Allocation>();
+		try{
+			for (int i=0; i<toFind.length; i++){
+				found[i] = getId(toFind[i]);
+				if (NO_ID == found[i]){
+					pending[i] = reserve(toFind[i], reserved);
+				}
+			}
+		}catch(EntityDatabaseException e){
+			// don't leave other threads waiting for ids that won't be written
+			release(reserved, e);
+			throw e;
+		}
+		if (! reserved.isEmpty()){
+			write(reserved);
+		}
+		for (int i=0; i<toFind.length; i++){
+			if (null != pending[i]){
+				found[i] = pending[i].await();
+			}
+		}
+		return found;
+	}
+	
+	// returns the node's allocation, adding it to reserved if it's new
+	private synchronized Allocation reserve(Node node, List<Allocation> reserved) throws EntityDatabaseException{
+		String uri = node.getURI();
+		Allocation allocation = allocating.get(uri);
+		if (null != allocation){
+			return allocation;
+		}
+		// check again, another thread may have written it since
+		long id = getId(node);
+		allocation = new Allocation(node, NO_ID == id ? nextId++ : id);
+		if (NO_ID == id){
+			allocating.put(uri, allocation);
+			reserved.add(allocation);
+		}else{
+			allocation.finished(null);
+		}
+		return allocation;
+	}
+	
+	private void write(List<Allocation> reserved) throws EntityDatabaseException{
+		EntityDatabaseException failure = null;
+		try{
+			DatabaseInsertGroup batch = db.createInsertGroup();
+			for (Allocation allocation : reserved){
+				byte[] uri = toBytes(allocation.node.getURI());
+				batch.addInsert(ID_INDEX, uri, toBytes(allocation.id));
+				batch.addInsert(NODE_INDEX, toBytes(allocation.id), uri);
+			}
+			db.insert(batch, null).get();
+			for (Allocation allocation : reserved){
+				ids.put(allocation.node.getURI(), allocation.id);
+				nodes.put(allocation.id, allocation.node);
+			}
+		}catch(BabuDBException e){
+			LOG.error("Error allocating node id", e);
+			failure = new EntityDatabaseException("Error allocating node id", e);
+		}finally{
+			release(reserved, failure);
+		}
+		if (null != failure){
+			throw failure;
+		}
+	}
+	
+	private void release(List<Allocation> reserved, EntityDatabaseException failure){
+		for (Allocation allocation : reserved){
+			allocating.remove(allocation.node.getURI(), allocation);
+			allocation.finished(failure);
+		}
+	}
+	
+	public Node getNode(long id) throws EntityDatabaseException{
+		Node node = nodes.getIfPresent(id);
+		if (null != node){
+			return node;
+		}
+		byte[] uri = lookup(NODE_INDEX, toBytes(id));
+		if (null == uri){
+			throw new EntityDatabaseException("Unknown node id " + id);
+		}
+		node = Node.createURI(Keys.asString(uri));
+		nodes.put(id, node);
+		return node;
+	}
+	
+	private byte[] lookup(int index, byte[] key) throws EntityDatabaseException{
+		try {
+			return db.lookup(index, key, null).get();
+		} catch (BabuDBException e) {
+			LOG.error("Error reading node dictionary", e);
+			throw new EntityDatabaseException("Error reading node dictionary", e);
+		}
+	}
+	
+	public synchronized void clear() throws EntityDatabaseException{
+		LOG.info("Clearing node dictionary {}", dbName);
+		try{
+			db.shutdown();
+			dbManager.deleteDatabase(dbName);
+			db = dbManager.getDatabase(dbName, NUM_INDEXES);
+		}catch(BabuDBException e){
+			throw new EntityDatabaseException("Error clearing node dictionary", e);
+		}
+		ids.invalidateAll();
+		nodes.invalidateAll();
+		allocating.clear();
+		nextId = 1;
+	}
+	
+	public void close() throws EntityDatabaseException{
+		try {
+			db.shutdown();
+		} catch (BabuDBException e) {
+			throw new EntityDatabaseException("Error closing node dictionary", e);
+		}
+	}
+	
+	// An id which has been reserved for a node, and is being written
+	private static final class Allocation {
+		private final Node node;
+		private final long id;
+		private final CountDownLatch written = new CountDownLatch(1);
+		private volatile EntityDatabaseException failure;
+		
+		Allocation(Node node, long id){
+			this.node = node;
+			this.id = id;
+		}
+		
+		void finished(EntityDatabaseException failure){
+			this.failure = failure;
+			written.countDown();
+		}
+		
+		long await() throws EntityDatabaseException{
+			try{
+				written.await();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				throw new EntityDatabaseException("Interrupted waiting for node id", e);
+			}
+			if (null != failure){
+				throw new EntityDatabaseException("Error allocating node id", failure);
+			}
+			return id;
+		}
+	}
+	
+	static byte[] toBytes(long id){
+		return ByteBuffer.allocate(8).putLong(id).array();
+	}
+	
+	static long toLong(byte[] bytes){
+		return ByteBuffer.wrap(bytes).getLong();
+	}
+	
+	private static byte[] toBytes(String uri){
+		try {
+			return uri.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
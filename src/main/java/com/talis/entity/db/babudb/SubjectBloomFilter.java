@@ -0,0 +1,155 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.commons.io.IOUtils;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.hp.hpl.jena.graph.Node;
+
+/**
+ * Bloom filter over the subjects of an entity database, so that lookups for 
+ * subjects which have never been stored can mostly be answered without going
+ * to the indexes. Subjects can be added concurrently with other additions 
+ * and lookups. There's no way to remove a subject, so once deleted a subject
+ * is reported as possibly present until the filter is rebuilt.
+ * 
+ * Positions are derived from a single 128 bit murmur3 hash of the subject's
+ * URI, split in two and combined as h1 + i*h2 for each of the hash functions.
+ */
+public class SubjectBloomFilter {
+	
+	public static final long EXPECTED_SUBJECTS_DEFAULT = 1000000;
+	public static final String EXPECTED_SUBJECTS_PROPERTY = "com.talis.entity.store.babudb.bloomFilter.expectedSubjects";
+	
+	public static final double FALSE_POSITIVE_RATE_DEFAULT = 0.01;
+	public static final String FALSE_POSITIVE_RATE_PROPERTY = "com.talis.entity.store.babudb.bloomFilter.falsePositiveRate";
+	
+	private static final int FORMAT_MARKER = 0xB100F11E;
+	private static final HashFunction HASH = Hashing.murmur3_128();
+	
+	private final AtomicLongArray bits;
+	private final long numBits;
+	private final int numHashes;
+	
+	/** A filter sized according to the system properties */
+	public static SubjectBloomFilter create(){
+		long expectedSubjects = Long.getLong(EXPECTED_SUBJECTS_PROPERTY, EXPECTED_SUBJECTS_DEFAULT);
+		double falsePositiveRate = FALSE_POSITIVE_RATE_DEFAULT;
+		String rate = System.getProperty(FALSE_POSITIVE_RATE_PROPERTY);
+		if (null != rate){
+			falsePositiveRate = Double.parseDouble(rate);
+		}
+		return create(expectedSubjects, falsePositiveRate);
+	}
+	
+	public static SubjectBloomFilter create(long expectedSubjects, double falsePositiveRate){
+		if (expectedSubjects <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1){
+			throw new IllegalArgumentException("Invalid bloom filter sizing");
+		}
+		long numBits = (long) Math.ceil(-expectedSubjects * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		int numHashes = Math.max(1, (int) Math.round((double) numBits / expectedSubjects * Math.log(2)));
+		return new SubjectBloomFilter(new AtomicLongArray((int) ((numBits + 63) / 64)), numHashes);
+	}
+	
+	private SubjectBloomFilter(AtomicLongArray bits, int numHashes){
+		this.bits = bits;
+		this.numBits = (long) bits.length() * 64;
+		this.numHashes = numHashes;
+	}
+	
+	public void put(Node subject){
+		ByteBuffer hash = hash(subject);
+		long h1 = hash.getLong();
+		long h2 = hash.getLong();
+		for (int i=0; i<numHashes; i++){
+			long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+			int word = (int) (bit >>> 6);
+			long mask = 1L << bit;
+			long current;
+			do{
+				current = bits.get(word);
+				if ((current & mask) != 0){
+					break;
+				}
+			}while (! bits.compareAndSet(word, current, current | mask));
+		}
+	}
+	
+	/** False if the subject has definitely not been added to the filter */
+	public boolean mightContain(Node subject){
+		ByteBuffer hash = hash(subject);
+		long h1 = hash.getLong();
+		long h2 = hash.getLong();
+		for (int i=0; i<numHashes; i++){
+			long bit = ((h1 + i * h2) & Long.MAX_VALUE) % numBits;
+			if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private ByteBuffer hash(Node subject){
+		return ByteBuffer.wrap(HASH.hashBytes(subject.getURI().getBytes(Charsets.UTF_8)).asBytes());
+	}
+	
+	public void writeTo(File file) throws IOException{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try{
+			out.writeInt(FORMAT_MARKER);
+			out.writeInt(numHashes);
+			out.writeInt(bits.length());
+			for (int i=0; i<bits.length(); i++){
+				out.writeLong(bits.get(i));
+			}
+			out.flush();
+		}finally{
+			IOUtils.closeQuietly(out);
+		}
+	}
+	
+	public static SubjectBloomFilter readFrom(File file) throws IOException{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try{
+			if (in.readInt() != FORMAT_MARKER){
+				throw new IOException("Not a bloom filter file: " + file.getAbsolutePath());
+			}
+			int numHashes = in.readInt();
+			AtomicLongArray bits = new AtomicLongArray(in.readInt());
+			for (int i=0; i<bits.length(); i++){
+				bits.set(i, in.readLong());
+			}
+			return new SubjectBloomFilter(bits, numHashes);
+		}finally{
+			IOUtils.closeQuietly(in);
+		}
+	}
+}
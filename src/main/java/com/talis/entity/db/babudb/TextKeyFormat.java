@@ -0,0 +1,63 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import static com.talis.entity.db.babudb.Keys.asString;
+
+import com.hp.hpl.jena.graph.Node;
+
+/**
+ * The original key format - escaped URIs separated by a tab
+ */
+public class TextKeyFormat implements KeyFormat {
+
+	@Override
+	public byte[] getStorageKey(Node subject, Node graph) {
+		return Keys.getStorageKey(subject, graph);
+	}
+
+	@Override
+	public byte[] getInverseKey(Node subject, Node graph) {
+		return Keys.getInverseKey(subject, graph);
+	}
+
+	@Override
+	public byte[] getKeyPrefix(Node node) {
+		return Keys.getKeyPrefix(node);
+	}
+
+	@Override
+	public Node getFirstNode(byte[] key) {
+		return Node.createURI(asString(key).split("\t")[0]);
+	}
+
+	@Override
+	public Node getSecondNode(byte[] key, Node first) {
+		String[] keyParts = asString(key).split("\t");
+		if (! first.getURI().equals(keyParts[0])){
+			return null;
+		}
+		return Node.createURI(keyParts[1]);
+	}
+
+	@Override
+	public void clear() { /* noop */ }
+
+	@Override
+	public void close() { /* noop */ }
+
+}
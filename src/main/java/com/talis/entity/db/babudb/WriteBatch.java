@@ -0,0 +1,204 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
+import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
+
+/**
+ * Inserts and deletes buffered between begin() and commit(), for each index,
+ * in the same key order as BabuDB's own indexes. A null value records that a 
+ * key has been deleted. Only the latest write to any key is kept, so the whole
+ * batch can be applied with a single insert group when it's committed.
+ */
+class WriteBatch {
+
+	private static final Comparator<byte[]> KEY_ORDER = new DefaultByteRangeComparator();
+	
+	private final SortedMap<byte[], byte[]>[] pending;
+	
+	@SuppressWarnings("unchecked")
+	WriteBatch(int numIndexes){
+		pending = new SortedMap[numIndexes];
+		for (int i=0; i<numIndexes; i++){
+			pending[i] = new TreeMap<byte[], byte[]>(KEY_ORDER);
+		}
+	}
+	
+	void put(int index, byte[] key, byte[] value){
+		pending[index].put(key, value);
+	}
+	
+	void delete(int index, byte[] key){
+		pending[index].put(key, null);
+	}
+	
+	/** Add all of another batch's writes to this one, replacing any to the same keys */
+	void putAll(WriteBatch other){
+		for (int i=0; i<pending.length; i++){
+			pending[i].putAll(other.pending[i]);
+		}
+	}
+	
+	/** True if the batch has a write, which may be a delete, for the key */
+	boolean contains(int index, byte[] key){
+		return pending[index].containsKey(key);
+	}
+	
+	byte[] get(int index, byte[] key){
+		return pending[index].get(key);
+	}
+	
+	/** The keys written to an index, in key order */
+	Set<byte[]> keys(int index){
+		return pending[index].keySet();
+	}
+	
+	int size(){
+		int size = 0;
+		for (SortedMap<byte[], byte[]> writes : pending){
+			size += writes.size();
+		}
+		return size;
+	}
+	
+	void writeTo(DatabaseInsertGroup batch){
+		for (int i=0; i<pending.length; i++){
+			for (Entry<byte[], byte[]> write : pending[i].entrySet()){
+				if (null == write.getValue()){
+					batch.addDelete(i, write.getKey());
+				}else{
+					batch.addInsert(i, write.getKey(), write.getValue());
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Overlay the pending writes to an index on the results of a prefix lookup
+	 * against it. Entries come back in key order, with pending values replacing
+	 * stored ones and deleted keys left out. A null prefix covers every key.
+	 */
+	Iterator<Entry<byte[], byte[]>> merge(int index, byte[] prefix, Iterator<Entry<byte[], byte[]>> stored){
+		SortedMap<byte[], byte[]> writes = pending[index];
+		if (null != prefix){
+			writes = writes.tailMap(prefix);
+		}
+		if (writes.isEmpty()){
+			return stored;
+		}
+		return new MergingIterator(prefix, writes.entrySet().iterator(), stored);
+	}
+	
+	private static boolean hasPrefix(byte[] key, byte[] prefix){
+		if (null == prefix){
+			return true;
+		}
+		if (key.length < prefix.length){
+			return false;
+		}
+		for (int i=0; i<prefix.length; i++){
+			if (key[i] != prefix[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static class MergingIterator implements Iterator<Entry<byte[], byte[]>>{
+		
+		private final byte[] prefix;
+		private final Iterator<Entry<byte[], byte[]>> writes;
+		private final Iterator<Entry<byte[], byte[]>> stored;
+		private Entry<byte[], byte[]> nextWrite;
+		private Entry<byte[], byte[]> nextStored;
+		private Entry<byte[], byte[]> next;
+		
+		MergingIterator(byte[] prefix, Iterator<Entry<byte[], byte[]>> writes, Iterator<Entry<byte[], byte[]>> stored){
+			this.prefix = prefix;
+			this.writes = writes;
+			this.stored = stored;
+			advanceWrites();
+			advanceStored();
+		}
+		
+		private void advanceWrites(){
+			nextWrite = null;
+			if (writes.hasNext()){
+				Entry<byte[], byte[]> write = writes.next();
+				if (hasPrefix(write.getKey(), prefix)){
+					nextWrite = write;
+				}
+			}
+		}
+		
+		private void advanceStored(){
+			nextStored = stored.hasNext() ? stored.next() : null;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			while (null == next && (null != nextWrite || null != nextStored)){
+				int cmp;
+				if (null == nextWrite){
+					cmp = 1;
+				}else if (null == nextStored){
+					cmp = -1;
+				}else{
+					cmp = KEY_ORDER.compare(nextWrite.getKey(), nextStored.getKey());
+				}
+				if (cmp > 0){
+					next = nextStored;
+					advanceStored();
+				}else{
+					if (cmp == 0){
+						// overwritten or deleted in this batch
+						advanceStored();
+					}
+					if (null != nextWrite.getValue()){
+						next = nextWrite;
+					}
+					advanceWrites();
+				}
+			}
+			return null != next;
+		}
+
+		@Override
+		public Entry<byte[], byte[]> next() {
+			if (! hasNext()){
+				throw new NoSuchElementException();
+			}
+			Entry<byte[], byte[]> entry = next;
+			next = null;
+			return entry;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Not supported");
+		}
+	}
+}
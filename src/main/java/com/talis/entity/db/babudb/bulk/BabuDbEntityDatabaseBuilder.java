@@ -16,15 +16,28 @@
 
 package com.talis.entity.db.babudb.bulk;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xtreemfs.babudb.BabuDBFactory;
@@ -39,12 +52,19 @@ import org.xtreemfs.babudb.index.writer.DiskIndexWriter;
 import org.xtreemfs.babudb.log.DiskLogger.SyncMode;
 
 import com.google.common.collect.Iterables;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.compress.CountingCodec;
 import com.talis.entity.compress.SnappyCodec;
 import com.talis.entity.db.babudb.BabuDBFactoryWrapper;
 import com.talis.entity.db.babudb.BabuDbEntityDatabase;
 import com.talis.entity.db.babudb.DatabaseManager;
+import com.talis.entity.db.babudb.IndexConfig;
+import com.talis.entity.db.babudb.Keys;
+import com.talis.entity.db.babudb.SubjectBloomFilter;
+import com.talis.entity.db.mapped.MappedEntityDatabaseWriter;
 import com.talis.entity.marshal.Marshaller;
 import com.talis.sort.ExternalSortIterator;
 import com.talis.sort.ExternalSortWriter;
@@ -55,6 +75,43 @@ public class BabuDbEntityDatabaseBuilder {
 
 	private static final Logger LOG = LoggerFactory.getLogger(BabuDbEntityDatabaseBuilder.class);
 	
+	public static final String MAPPED_SUFFIX = ".entities";
+	
+	// seconds between calls to BuildListener.progress()
+	public static final long PROGRESS_INTERVAL_DEFAULT = 10;
+	public static final String PROGRESS_INTERVAL_PROPERTY = "com.talis.entity.builder.progressInterval";
+	
+	private final IndexConfig config;
+	private final BuildListener listener;
+	
+	public BabuDbEntityDatabaseBuilder(){
+		this(new IndexConfig());
+	}
+	
+	/**
+	 * @param marshalThreads The number of threads used to marshal and compress 
+	 * entity descriptions while the input is parsed and the indexes written
+	 */
+	public BabuDbEntityDatabaseBuilder(int marshalThreads){
+		this(new IndexConfig().setMarshalThreads(marshalThreads));
+	}
+	
+	/**
+	 * @param config The layout of the index files, which should match that of 
+	 * the DatabaseManager used to open them, and the resources used to write them 
+	 */
+	public BabuDbEntityDatabaseBuilder(IndexConfig config){
+		this(config, new LoggingBuildListener());
+	}
+	
+	/**
+	 * @param listener Notified of the progress of each build
+	 */
+	public BabuDbEntityDatabaseBuilder(IndexConfig config, BuildListener listener){
+		this.config = config;
+		this.listener = listener;
+	}
+	
 	/**
 	 * Build a BabuDB database for use as a EntityDatabase
 	 * @param quads A stream of the input quads - must be sorted by subject, then by graph
@@ -63,62 +120,291 @@ public class BabuDbEntityDatabaseBuilder {
 	 * @throws BabuDBException 
 	 */
 	public void build(InputStream quads, File tmpDir, File outputDir, String dbName) throws IOException, BabuDBException{
+		initWorkingDirs(tmpDir);
+		BuildContext context = new BuildContext();
+		try{
+			build(context.parse(quads, -1), context, tmpDir, outputDir, dbName);
+		}finally{
+			context.close();
+		}
+	}
+	
+	/**
+	 * Build a BabuDB database for use as a EntityDatabase, reporting an 
+	 * estimate of the time remaining from the size of the file
+	 * @param quads A file of the input quads, gzipped if its name ends with .gz - must be sorted 
+	 * by subject, then by graph
+	 * @param outputDir The output location of the BabuDB files
+	 * @throws IOException 
+	 * @throws BabuDBException 
+	 */
+	public void build(File quads, File tmpDir, File outputDir, String dbName) throws IOException, BabuDBException{
+		initWorkingDirs(tmpDir);
+		BuildContext context = new BuildContext();
+		try{
+			build(context.parse(quads), context, tmpDir, outputDir, dbName);
+		}finally{
+			context.close();
+		}
+	}
+	
+	/**
+	 * Build a BabuDB database for use as a EntityDatabase from quads in any 
+	 * order, sorting them first in tmpDir
+	 * @param quads A stream of the input quads
+	 * @param outputDir The output location of the BabuDB files
+	 * @throws IOException 
+	 * @throws BabuDBException 
+	 */
+	public void buildUnsorted(InputStream quads, File tmpDir, File outputDir, String dbName) throws IOException, BabuDBException{
+		buildUnsorted(quads, new File(tmpDir, "spill"), tmpDir, outputDir, dbName);
+	}
+	
+	/**
+	 * Build a BabuDB database for use as a EntityDatabase from quads in any 
+	 * order, sorting them first
+	 * @param quads A stream of the input quads
+	 * @param spillDir Where the sorted runs of quads are written, which may 
+	 * be on a different device to tmpDir
+	 * @param outputDir The output location of the BabuDB files
+	 * @throws IOException 
+	 * @throws BabuDBException 
+	 */
+	public void buildUnsorted(InputStream quads, File spillDir, File tmpDir, File outputDir, String dbName) throws IOException, BabuDBException{
+		initWorkingDirs(tmpDir);
+		QuadSorter sorter = new QuadSorter(spillDir, config.getSortBufferSize(), 2);
+		BuildContext context = new BuildContext();
+		try{
+			context.startPhase(BuildPhase.SORT_INPUT);
+			Iterator<Quad> sorted = sorter.sort(context.parse(quads, -1));
+			context.finishPhase(BuildPhase.SORT_INPUT);
+			build(sorted, context, tmpDir, outputDir, dbName);
+		}finally{
+			context.close();
+			sorter.cleanup();
+		}
+	}
+	
+	/**
+	 * Build a new BabuDB database from an existing one and a set of changes, 
+	 * in one pass over the existing primary index, so that the time taken 
+	 * depends far more on the size of the changes than a full build. The 
+	 * existing database is opened (replaying its log) but not modified.
+	 * @param existingDir The location of the existing database's files 
+	 * @param existingName The name of the existing database
+	 * @param upserts A stream of quads in any order, which are sorted in tmpDir first. The 
+	 * quads for each subject and graph replace any existing description
+	 * @param deletedGraphs Graphs whose existing descriptions are removed, before the upserts are applied
+	 * @param outputDir The output location of the BabuDB files, which must differ from existingDir
+	 * @throws IOException 
+	 * @throws BabuDBException 
+	 */
+	public void merge(File existingDir, String existingName, InputStream upserts, Collection<Node> deletedGraphs, 
+						File tmpDir, File outputDir, String dbName) throws IOException, BabuDBException{
+		// the existing database system stays open while the output is written, 
+		// and two systems can't share a directory's config and log files
+		if (existingDir.getAbsoluteFile().equals(outputDir.getAbsoluteFile())){
+			throw new IllegalArgumentException("Cannot merge into the existing database's directory, use a new location");
+		}
+		LOG.info("Merging changes into {} from {}", dbName, existingName);
+		initWorkingDirs(tmpDir);
+		final Set<String> graphs = new HashSet<String>();
+		for (Node graph : deletedGraphs){
+			graphs.add(Keys.escape(graph));
+		}
+		
+		// the changes must be in storage key order, which a plain sort of the 
+		// N-Quads lines doesn't give: <http://x/10> sorts before <http://x/1> 
+		// as text, as '0' sorts before '>', but after it as a key
+		QuadSorter sorter = new QuadSorter(new File(tmpDir, "spill"), config.getSortBufferSize(), 2);
+		BuildContext context = new BuildContext();
+		BabuDB existingSystem = null;
+		try{
+			context.startPhase(BuildPhase.SORT_INPUT);
+			Iterator<Quad> sorted = sorter.sort(context.parse(upserts, -1));
+			context.finishPhase(BuildPhase.SORT_INPUT);
+			existingSystem = makeDatabaseSystem(existingDir);
+			Database existingDb = existingSystem.getDatabaseManager().getDatabase(existingName);
+			final ResultSet<byte[], byte[]> existing = 
+					existingDb.prefixLookup(BabuDbEntityDatabase.SUBJECT_INDEX, null, null).get();
+			final PipelinedEntityIterator entities = context.entities(sorted);
+			try{
+				writeDatabase(new PrimaryRecords(){
+					@Override
+					ResultSet<Object, Object> open(ExternalSortWriter<byte[]> inverseKeys, Runnable onExhausted) {
+						return new MergingResultSet(existing, entities, graphs, inverseKeys, onExhausted);
+					}
+				}, context, tmpDir, outputDir, dbName);
+			}finally{
+				entities.close();
+				existing.free();
+			}
+			existingDb.shutdown();
+		}finally{
+			if (null != existingSystem){
+				existingSystem.shutdown();
+			}
+			context.close();
+			sorter.cleanup();
+		}
+		
+		// subjects can't be recovered from the merged keys without decoding 
+		// them, so the database builds a new filter when it is first opened 
+		FileUtils.deleteQuietly(new File(outputDir, dbName + BabuDbEntityDatabase.BLOOM_FILTER_SUFFIX));
+		listener.buildFinished(context.progress);
+		LOG.info("Done merging entity database");
+	}
+	
+	private void build(Iterator<Quad> quads, BuildContext context, File tmpDir, File outputDir, String dbName) throws IOException, BabuDBException{
 		LOG.info("Building entity database in {}", outputDir.getAbsolutePath());
+		
+		// if the database will be opened with a bloom filter, save it from 
+		// having to scan the new index to build one 
+		SubjectBloomFilter bloomFilter = null;
+		if (Boolean.getBoolean(BabuDbEntityDatabase.BLOOM_FILTER_PROPERTY)){
+			bloomFilter = SubjectBloomFilter.create();
+		}
+		
+		final SubjectBloomFilter filter = bloomFilter;
+		final File filterFile = new File(outputDir, dbName + BabuDbEntityDatabase.BLOOM_FILTER_SUFFIX);
+		final PipelinedEntityIterator entities = context.entities(quads);
+		try{
+			writeDatabase(new PrimaryRecords(){
+				@Override
+				ResultSet<Object, Object> open(ExternalSortWriter<byte[]> inverseKeys, Runnable onExhausted) {
+					return new EntityResultSet(entities, inverseKeys, filter, onExhausted);
+				}
+				@Override
+				void written() throws IOException {
+					// every subject has been seen once the primary index is written
+					if (null != filter){
+						filter.writeTo(filterFile);
+					}
+				}
+			}, context, tmpDir, outputDir, dbName);
+		}finally{
+			entities.close();
+		}
+		listener.buildFinished(context.progress);
+		LOG.info("Done building entity database");
+	}
+	
+	private void writeDatabase(PrimaryRecords records, final BuildContext context, File tmpDir, File outputDir, String dbName) throws IOException, BabuDBException{
 		File dbDir = new File(outputDir, dbName);
-
-		initWorkingDirs(tmpDir);
-		File tmpDbDir = new File(tmpDir, "db");
 		File tmpSortDir = new File(tmpDir, "sort");
 		FileUtils.forceMkdir(tmpSortDir);
-		Comparator<byte[]> comparator = new DefaultByteRangeComparator();
-		PassThruSerializer serializer = new PassThruSerializer();
+		final Comparator<byte[]> comparator = new DefaultByteRangeComparator();
+		final PassThruSerializer serializer = new PassThruSerializer();
 		
-		ExternalSortWriter<byte[]> sortWriter = new ExternalSortWriter<byte[]>(tmpSortDir, serializer, comparator, 100000, 2, true); 
+		ExternalSortWriter<byte[]> sortWriter = new ExternalSortWriter<byte[]>(tmpSortDir, serializer, comparator, config.getSortBufferSize(), 2, true); 
 		
-		EntityIterator entities = new EntityIterator(quads, new Marshaller( new SnappyCodec() ) );
-		ResultSet<Object, Object> iterator = new EntityResultSet(entities ,sortWriter);
+		final int maxNumRecordsPerBlock = config.getMaxRecordsPerBlock();
+		final int maxBlockFileSize = config.getMaxBlockFileSize();
+		final boolean compressIndex = config.isCompressIndex();
 		
-		// values from default babudb config
-		int maxNumRecordsPerBlock = 64;
-		int maxBlockFileSize = 52428800;
-		boolean compressIndex = false;
+		// The inverse (graph:subject -> subject:graph) index is written from 
+		// a merge of the sorted runs, so it can't start until every inverse key
+		// has been sent to the sort writer. It then proceeds on its own thread
+		// while the first index writer finishes its last blocks and index, and
+		// while the records write any files of their own. The database config 
+		// can only be created after both, as BabuDB loads the indexes then.
+		final File firstIndexDir = new File(dbDir, "IX0V0SEQ0.idx");
+		final File secondIndexDir = new File(dbDir, "IX1V0SEQ0.idx");
+		FileUtils.deleteDirectory(firstIndexDir);
+		FileUtils.deleteDirectory(secondIndexDir);
+		final ExternalSortWriter<byte[]> inverseKeys = sortWriter;
+		final FutureTask<Void> inversePass = new FutureTask<Void>(new Callable<Void>(){
+			@Override
+			public Void call() throws Exception {
+				context.startPhase(BuildPhase.INVERSE_SORT);
+				inverseKeys.waitForCompletion();
+				context.finishPhase(BuildPhase.INVERSE_SORT);
+				context.startPhase(BuildPhase.INVERSE_INDEX);
+				InverseIndexResultSet inverseIterator = new InverseIndexResultSet(
+						new ExternalSortIterator<byte[]>(inverseKeys.getTmpDir(), serializer, comparator, inverseKeys.compressed()));
+				DiskIndexWriter secondWriter = new DiskIndexWriter(secondIndexDir.getAbsolutePath(), maxNumRecordsPerBlock, compressIndex, maxBlockFileSize);
+				secondWriter.writeIndex(inverseIterator);
+				context.finishPhase(BuildPhase.INVERSE_INDEX);
+				return null;
+			}
+		});
+		Runnable startInversePass = new Runnable(){
+			@Override
+			public void run() {
+				inverseKeys.flush();
+				Thread inverseWriter = new Thread(inversePass, "inverse-index-writer");
+				inverseWriter.setDaemon(true);
+				inverseWriter.start();
+			}
+		};
 		
 		// Write the first babudb index (subject:graph -> po), by virtue of the
 		// KeySortWriter, this has the side effect of writing the tmp files to 
 		// be used by the merge sort that provides an iterator to build the inverse 
-		// (graph:subject -> subject:graph) index in the next step
-		DiskIndexWriter firstWriter = new DiskIndexWriter(tmpDbDir.getAbsolutePath(), maxNumRecordsPerBlock, compressIndex, maxBlockFileSize);
-		firstWriter.writeIndex(iterator);
-		sortWriter.flush();
-		copyIndexFiles(tmpDbDir, dbDir, "IX0V0SEQ0.idx");
-		sortWriter.waitForCompletion();
-		FileUtils.deleteDirectory(tmpDbDir);
-		
-		// Use a new writer, as they keep an index of the block files they've written,
-		// and we want to start again at 0 for the second set of index files
-		InverseIndexResultSet inverseIterator = new InverseIndexResultSet(
-				new ExternalSortIterator<byte[]>(sortWriter.getTmpDir(), serializer, comparator, sortWriter.compressed()));
-		DiskIndexWriter secondWriter = new DiskIndexWriter(tmpDbDir.getAbsolutePath(), maxNumRecordsPerBlock, compressIndex, maxBlockFileSize);
-		secondWriter.writeIndex(inverseIterator);
-		copyIndexFiles(tmpDbDir, dbDir, "IX1V0SEQ0.idx");
+		// index. Each writer numbers its block files from 0, so they write 
+		// straight into their own index directories.
+		DiskIndexWriter firstWriter = new DiskIndexWriter(firstIndexDir.getAbsolutePath(), maxNumRecordsPerBlock, compressIndex, maxBlockFileSize);
+		boolean written = false;
+		try{
+			context.startPhase(BuildPhase.PRIMARY_INDEX);
+			firstWriter.writeIndex(records.open(sortWriter, startInversePass));
+			context.finishPhase(BuildPhase.PRIMARY_INDEX);
+			records.written();
+			written = true;
+		}finally{
+			if (! written){
+				inversePass.cancel(true);
+			}
+		}
+		LOG.debug("Primary index written, waiting for inverse index");
+		awaitInversePass(inversePass);
 		
 		BabuDB dbSystem = makeDatabaseSystem(outputDir);
 		Database db = dbSystem.getDatabaseManager().createDatabase(dbName, 2);
 		db.shutdown();
 		dbSystem.shutdown();
-		LOG.info("Done building entity database");
+	}
+	
+	/**
+	 * Build a read only, memory mapped entity database file, for use with 
+	 * MappedEntityDatabase 
+	 * @param quads A stream of the input quads - must be sorted by subject, then by graph
+	 * @param outputDir The output location of the database file, which is named dbName.entities
+	 * @return The database file
+	 * @throws IOException 
+	 */
+	public File buildMapped(InputStream quads, File tmpDir, File outputDir, String dbName) throws IOException{
+		LOG.info("Building mapped entity database in {}", outputDir.getAbsolutePath());
+		initWorkingDirs(tmpDir);
+		FileUtils.forceMkdir(outputDir);
+		File file = new File(outputDir, dbName + MAPPED_SUFFIX);
+		BuildContext context = new BuildContext();
+		PipelinedEntityIterator entities = context.entities(context.parse(quads, -1));
+		try{
+			context.startPhase(BuildPhase.PRIMARY_INDEX);
+			new MappedEntityDatabaseWriter(file, tmpDir).write(entities);
+			context.finishPhase(BuildPhase.PRIMARY_INDEX);
+		}finally{
+			entities.close();
+			context.close();
+		}
+		listener.buildFinished(context.progress);
+		LOG.info("Done building mapped entity database");
+		return file;
 	}
 	
 	private BabuDB makeDatabaseSystem(File rootDir){
 		BabuDBConfig config = new ConfigBuilder()
-									.setCompressed(false)
-									.setMultiThreaded(0)
+									.setCompressed(this.config.isCompressIndex())
+									.setMultiThreaded(this.config.getWorkerThreads())
 									.setLogAppendSyncMode(SyncMode.ASYNC)
 									.build();
 		// now set our specific properties
 		Properties props = config.getProps();
 		props.setProperty("babudb.baseDir", rootDir.getAbsolutePath());
 		props.setProperty("babudb.logDir", rootDir.getAbsolutePath() + "/logs");
+		props.setProperty("babudb.maxNumRecordsPerBlock", "" + this.config.getMaxRecordsPerBlock());
+		props.setProperty("babudb.maxBlockFileSize", "" + this.config.getMaxBlockFileSize());
 		props.setProperty("babudb.checkInterval", "30");
 		props.setProperty("babudb.maxLogfileSize", "" + 1024 * 1024 * 256);
 		props.setProperty("babudb.debug.level", "" + 6);
@@ -132,8 +418,101 @@ public class BabuDbEntityDatabaseBuilder {
 		}
 	}
 	
-	private void copyIndexFiles(File source, File target, String indexName) throws IOException{
-		FileUtils.copyDirectory(source, new File(target, indexName));
+	// The state of a single build: its progress, the codec counting bytes
+	// before and after compression, and the thread reporting progress
+	private final class BuildContext {
+		
+		private final BuildProgress progress = new BuildProgress();
+		private final CountingCodec codec = new CountingCodec(new SnappyCodec());
+		private final ScheduledExecutorService reporter;
+		private InputStream input;
+		
+		BuildContext(){
+			progress.setCodec(codec);
+			reporter = Executors.newSingleThreadScheduledExecutor(
+					new ThreadFactoryBuilder().setNameFormat("build-progress").setDaemon(true).build());
+			long interval = Long.getLong(PROGRESS_INTERVAL_PROPERTY, PROGRESS_INTERVAL_DEFAULT);
+			reporter.scheduleAtFixedRate(new Runnable(){
+				@Override
+				public void run() {
+					try{
+						listener.progress(progress);
+					}catch(RuntimeException e){
+						LOG.warn("Error reporting build progress", e);
+					}
+				}
+			}, interval, interval, TimeUnit.SECONDS);
+		}
+		
+		Iterator<Quad> parse(InputStream quads, long length){
+			CountingInputStream counting = new CountingInputStream(quads);
+			progress.setInput(counting, length);
+			return PipelinedEntityIterator.parse(counting);
+		}
+		
+		// counts the (possibly compressed) bytes read from the file, to 
+		// compare with its length
+		Iterator<Quad> parse(File quads) throws IOException{
+			CountingInputStream counting = new CountingInputStream(
+					new BufferedInputStream(new FileInputStream(quads)));
+			input = counting;
+			progress.setInput(counting, quads.length());
+			if (quads.getName().endsWith(".gz")){
+				input = new GZIPInputStream(counting);
+			}
+			return PipelinedEntityIterator.parse(input);
+		}
+		
+		PipelinedEntityIterator entities(Iterator<Quad> quads){
+			return new PipelinedEntityIterator(quads, new Marshaller(codec), config.getMarshalThreads(), progress);
+		}
+		
+		void startPhase(BuildPhase phase){
+			progress.startPhase(phase);
+			listener.phaseStarted(phase, progress);
+		}
+		
+		void finishPhase(BuildPhase phase){
+			progress.finishPhase(phase);
+			listener.phaseFinished(phase, progress);
+		}
+		
+		void close(){
+			reporter.shutdownNow();
+			IOUtils.closeQuietly(input);
+		}
+	}
+	
+	// Supplies the records of the primary index in key order, sending the 
+	// inverse key of each to the sort writer, then running onExhausted. Once 
+	// the primary index is written, written() is called while the inverse 
+	// index is still being written.
+	private static abstract class PrimaryRecords {
+		abstract ResultSet<Object, Object> open(ExternalSortWriter<byte[]> inverseKeys, Runnable onExhausted);
+		
+		void written() throws IOException {
+			// nothing else to write by default
+		}
+	}
+	
+	private void awaitInversePass(FutureTask<Void> inversePass) throws IOException, BabuDBException{
+		try{
+			inversePass.get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			inversePass.cancel(true);
+			throw new IOException("Interrupted while writing inverse index", e);
+		}catch(ExecutionException e){
+			Throwable cause = e.getCause();
+			LOG.error("Error writing inverse index", cause);
+			if (cause instanceof IOException){
+				throw (IOException) cause;
+			}
+			if (cause instanceof BabuDBException){
+				throw (BabuDBException) cause;
+			}
+			throw new RuntimeException("Error writing inverse index", cause);
+		}
 	}
 	
 	private void initWorkingDirs(File rootDir) throws IOException{
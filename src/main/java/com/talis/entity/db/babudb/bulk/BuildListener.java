@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb.bulk;
+
+/**
+ * Notified as a bulk build proceeds. Methods may be called from several of 
+ * the builder's threads, so implementations must be thread safe, and should
+ * return quickly.
+ */
+public interface BuildListener {
+
+	public void phaseStarted(BuildPhase phase, BuildProgress progress);
+	
+	public void phaseFinished(BuildPhase phase, BuildProgress progress);
+	
+	/** Called periodically while the build runs */
+	public void progress(BuildProgress progress);
+	
+	public void buildFinished(BuildProgress progress);
+}
@@ -0,0 +1,37 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb.bulk;
+
+/**
+ * The stages of a bulk build. Parsing and marshalling run concurrently with
+ * writing the primary index, so their times are the total time the parse
+ * thread and the marshalling threads spent working, rather than wall time.
+ */
+public enum BuildPhase {
+	/** Sorting unsorted input before the build proper */
+	SORT_INPUT,
+	/** Parsing quads and grouping them into entities */
+	PARSE,
+	/** Marshalling and compressing entities, summed over all threads */
+	MARSHAL,
+	/** Writing the primary (subject) index */
+	PRIMARY_INDEX,
+	/** Waiting for the sorted runs of inverse keys */
+	INVERSE_SORT,
+	/** Merging the runs and writing the inverse (graph) index */
+	INVERSE_INDEX
+}
@@ -0,0 +1,147 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb.bulk;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.io.CountingInputStream;
+import com.talis.entity.compress.CountingCodec;
+
+/**
+ * Counters for a single bulk build, updated by the builder's threads and
+ * read by BuildListeners.
+ */
+public class BuildProgress {
+
+	private final long startTime = System.nanoTime();
+	private final AtomicLong quadsParsed = new AtomicLong();
+	private final AtomicLong entitiesWritten = new AtomicLong();
+	private final Map<BuildPhase, AtomicLong> phaseNanos = new EnumMap<BuildPhase, AtomicLong>(BuildPhase.class);
+	private final Map<BuildPhase, AtomicLong> phaseStarts = new EnumMap<BuildPhase, AtomicLong>(BuildPhase.class);
+	
+	private volatile CountingInputStream input;
+	private volatile long inputLength = -1;
+	private volatile CountingCodec codec;
+	
+	public BuildProgress(){
+		for (BuildPhase phase : BuildPhase.values()){
+			phaseNanos.put(phase, new AtomicLong());
+			phaseStarts.put(phase, new AtomicLong());
+		}
+	}
+	
+	void setInput(CountingInputStream input, long inputLength){
+		this.input = input;
+		this.inputLength = inputLength;
+	}
+	
+	void setCodec(CountingCodec codec){
+		this.codec = codec;
+	}
+	
+	void quadParsed(){
+		quadsParsed.incrementAndGet();
+	}
+	
+	void entityWritten(){
+		entitiesWritten.incrementAndGet();
+	}
+	
+	void startPhase(BuildPhase phase){
+		phaseStarts.get(phase).set(System.nanoTime());
+	}
+	
+	void finishPhase(BuildPhase phase){
+		addPhaseTime(phase, System.nanoTime() - phaseStarts.get(phase).get());
+	}
+	
+	void addPhaseTime(BuildPhase phase, long nanos){
+		phaseNanos.get(phase).addAndGet(nanos);
+	}
+	
+	public long getQuadsParsed(){
+		return quadsParsed.get();
+	}
+	
+	public long getEntitiesWritten(){
+		return entitiesWritten.get();
+	}
+	
+	/** Bytes of marshalled entities before compression */
+	public long getUncompressedBytes(){
+		return null == codec ? 0 : codec.getUncompressedBytes();
+	}
+	
+	/** Bytes of marshalled entities after compression */
+	public long getCompressedBytes(){
+		return null == codec ? 0 : codec.getCompressedBytes();
+	}
+	
+	/** Bytes of input consumed so far */
+	public long getInputBytesRead(){
+		return null == input ? 0 : input.getCount();
+	}
+	
+	/** Total bytes of input, or -1 if unknown */
+	public long getInputLength(){
+		return inputLength;
+	}
+	
+	public long getElapsedMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+	}
+	
+	/** Time spent in a phase so far, see BuildPhase */
+	public long getPhaseMillis(BuildPhase phase){
+		return TimeUnit.NANOSECONDS.toMillis(phaseNanos.get(phase).get());
+	}
+	
+	public double getQuadsPerSecond(){
+		long elapsed = getElapsedMillis();
+		return elapsed == 0 ? 0 : quadsParsed.get() * 1000.0 / elapsed;
+	}
+	
+	/**
+	 * Estimated time until the input has been consumed, extrapolated from the
+	 * rate it has been read at so far, or -1 if the input length isn't known.
+	 * The inverse index is written after this, and typically takes a fraction 
+	 * of the time.
+	 */
+	public long getEstimatedRemainingMillis(){
+		long read = getInputBytesRead();
+		if (inputLength < 0 || read == 0){
+			return -1;
+		}
+		return (long) (getElapsedMillis() * ((double) (inputLength - read) / read));
+	}
+	
+	@Override
+	public String toString(){
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("%s quads (%.0f/s), %s entities, %s -> %s bytes", 
+				getQuadsParsed(), getQuadsPerSecond(), getEntitiesWritten(), 
+				getUncompressedBytes(), getCompressedBytes()));
+		if (inputLength >= 0){
+			builder.append(String.format(", read %s of %s bytes, ETA %ss", 
+					getInputBytesRead(), inputLength, getEstimatedRemainingMillis() / 1000));
+		}
+		return builder.toString();
+	}
+}
@@ -95,4 +95,8 @@ public class EntityIterator implements Iterator<EntityDesc> {
 		LOG.info("Removing global halt flag");
 		FORCE_TERMINATE.set(false);
 	}
+	
+	static boolean isHalted(){
+		return FORCE_TERMINATE.get();
+	}
 }
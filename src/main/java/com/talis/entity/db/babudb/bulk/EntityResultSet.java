@@ -18,32 +18,62 @@ package com.talis.entity.db.babudb.bulk;
 
 import static com.talis.entity.db.babudb.Keys.getStorageKey;
 
+import java.util.Iterator;
 import java.util.Map.Entry;
 
 import org.xtreemfs.babudb.api.database.ResultSet;
 
 import com.talis.entity.EntityDesc;
 import com.talis.entity.db.babudb.Keys;
+import com.talis.entity.db.babudb.SubjectBloomFilter;
 import com.talis.sort.ExternalSortWriter;
 
 public class EntityResultSet implements ResultSet<Object, Object> {
 
-	private final EntityIterator iterator;
+	private final Iterator<EntityDesc> iterator;
 	private final ExternalSortWriter<byte[]> sortWriter;
+	private final SubjectBloomFilter bloomFilter;
+	private Runnable onExhausted;
 
-	public EntityResultSet(EntityIterator iterator, ExternalSortWriter<byte[]> sortWriter){
+	public EntityResultSet(Iterator<EntityDesc> iterator, ExternalSortWriter<byte[]> sortWriter){
+		this(iterator, sortWriter, null);
+	}
+	
+	public EntityResultSet(Iterator<EntityDesc> iterator, ExternalSortWriter<byte[]> sortWriter, SubjectBloomFilter bloomFilter){
 		this.iterator = iterator;
 		this.sortWriter = sortWriter;
+		this.bloomFilter = bloomFilter;
+	}
+	
+	/**
+	 * @param onExhausted Run once, on the first call to hasNext() which returns
+	 * false, after which every inverse key has been sent to the sort writer
+	 */
+	public EntityResultSet(Iterator<EntityDesc> iterator, ExternalSortWriter<byte[]> sortWriter, 
+							SubjectBloomFilter bloomFilter, Runnable onExhausted){
+		this(iterator, sortWriter, bloomFilter);
+		this.onExhausted = onExhausted;
 	}
 	
 	@Override
 	public boolean hasNext() {
-		return iterator.hasNext();
+		if (iterator.hasNext()){
+			return true;
+		}
+		if (null != onExhausted){
+			Runnable callback = onExhausted;
+			onExhausted = null;
+			callback.run();
+		}
+		return false;
 	}
 
 	@Override
 	public Entry<Object, Object> next() {
 		EntityDesc entity = iterator.next();
+		if (null != bloomFilter){
+			bloomFilter.put(entity.subject);
+		}
 		sortWriter.sendItem(Keys.getInverseKey(entity.subject, entity.graph));
 		return new ByteArrayPair(getStorageKey(entity.subject, entity.graph), entity.bytes);
 	}
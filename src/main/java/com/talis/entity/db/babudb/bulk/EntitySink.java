@@ -58,6 +58,7 @@ public class EntitySink implements Sink<Quad>{
 		    currentGraph = quad.getGraph();
 		}
 		quadBuffer.add(quad);
+		quadCount++;
 	}
 
 	@Override
@@ -0,0 +1,51 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb.bulk;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The default BuildListener, which logs progress and phase timings. 
+ */
+public class LoggingBuildListener implements BuildListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(LoggingBuildListener.class);
+	
+	@Override
+	public void phaseStarted(BuildPhase phase, BuildProgress progress) {
+		LOG.info("Started {}", phase);
+	}
+
+	@Override
+	public void phaseFinished(BuildPhase phase, BuildProgress progress) {
+		LOG.info("Finished {} in {} ms", phase, progress.getPhaseMillis(phase));
+	}
+
+	@Override
+	public void progress(BuildProgress progress) {
+		LOG.info("Build progress: {}", progress);
+	}
+
+	@Override
+	public void buildFinished(BuildProgress progress) {
+		LOG.info("Build finished in {} ms: {}", progress.getElapsedMillis(), progress);
+		for (BuildPhase phase : BuildPhase.values()){
+			LOG.info("  {}: {} ms", phase, progress.getPhaseMillis(phase));
+		}
+	}
+}
@@ -0,0 +1,205 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb.bulk;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xtreemfs.babudb.api.database.ResultSet;
+import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
+
+import com.talis.entity.EntityDesc;
+import com.talis.entity.db.babudb.Keys;
+import com.talis.sort.ExternalSortWriter;
+
+/**
+ * Merges the records of an existing primary index with a sorted set of 
+ * changes. Existing records in any of the deleted graphs are dropped, then
+ * each upserted entity either replaces the existing record with the same 
+ * key or is inserted in key order. As with EntityResultSet, the inverse key
+ * of every record is sent to the sort writer for the inverse index.
+ */
+public class MergingResultSet implements ResultSet<Object, Object> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MergingResultSet.class);
+	
+	private static final Comparator<byte[]> COMPARATOR = new DefaultByteRangeComparator();
+	
+	private final ResultSet<byte[], byte[]> existing;
+	private final Iterator<EntityDesc> upserts;
+	private final Set<String> deletedGraphs;
+	private final ExternalSortWriter<byte[]> sortWriter;
+	private Runnable onExhausted;
+	
+	private Entry<byte[], byte[]> nextExisting;
+	private EntityDesc nextUpsert;
+	private byte[] nextUpsertKey;
+	private byte[] lastUpsertKey;
+	private ByteArrayPair next;
+	
+	private long kept;
+	private long added;
+	private long replaced;
+	private long deleted;
+	
+	/**
+	 * @param existing The records of the existing primary index, in key order
+	 * @param upserts Entities sorted by subject, then graph
+	 * @param deletedGraphs The escaped URIs of the graphs to delete
+	 * @param onExhausted Run once all records have been returned, may be null
+	 */
+	public MergingResultSet(ResultSet<byte[], byte[]> existing, Iterator<EntityDesc> upserts, Set<String> deletedGraphs,
+							ExternalSortWriter<byte[]> sortWriter, Runnable onExhausted){
+		this.existing = existing;
+		this.upserts = upserts;
+		this.deletedGraphs = deletedGraphs;
+		this.sortWriter = sortWriter;
+		this.onExhausted = onExhausted;
+	}
+	
+	@Override
+	public boolean hasNext() {
+		if (null != next){
+			return true;
+		}
+		advanceExisting();
+		advanceUpserts();
+		if (null == nextExisting && null == nextUpsert){
+			if (null != onExhausted){
+				LOG.info("Merge complete: kept {}, replaced {}, added {}, deleted {}", 
+						new Object[]{kept, replaced, added, deleted});
+				Runnable callback = onExhausted;
+				onExhausted = null;
+				callback.run();
+			}
+			return false;
+		}
+		int cmp;
+		if (null == nextUpsert){
+			cmp = -1;
+		}else if (null == nextExisting){
+			cmp = 1;
+		}else{
+			cmp = COMPARATOR.compare(nextExisting.getKey(), nextUpsertKey);
+		}
+		if (cmp < 0){
+			next = new ByteArrayPair(nextExisting.getKey(), nextExisting.getValue());
+			nextExisting = null;
+			kept++;
+		}else{
+			if (cmp == 0){
+				nextExisting = null;
+				replaced++;
+			}else{
+				added++;
+			}
+			next = new ByteArrayPair(nextUpsertKey, nextUpsert.bytes);
+			nextUpsert = null;
+			nextUpsertKey = null;
+		}
+		sortWriter.sendItem(getInverseKey(next.getKey()));
+		return true;
+	}
+
+	@Override
+	public Entry<Object, Object> next() {
+		if (! hasNext()){
+			throw new IllegalStateException("No more records");
+		}
+		ByteArrayPair pair = next;
+		next = null;
+		return pair;
+	}
+	
+	private void advanceExisting(){
+		while (null == nextExisting && existing.hasNext()){
+			Entry<byte[], byte[]> entry = existing.next();
+			if (deletedGraphs.contains(getGraph(entry.getKey()))){
+				deleted++;
+			}else{
+				nextExisting = entry;
+			}
+		}
+	}
+	
+	private void advanceUpserts(){
+		if (null == nextUpsert && upserts.hasNext()){
+			nextUpsert = upserts.next();
+			nextUpsertKey = Keys.getStorageKey(nextUpsert.subject, nextUpsert.graph);
+			if (null != lastUpsertKey && COMPARATOR.compare(lastUpsertKey, nextUpsertKey) >= 0){
+				LOG.error("Change set is out of order at {}", nextUpsert);
+				throw new IllegalStateException("Change set must be sorted by subject, then by graph");
+			}
+			lastUpsertKey = nextUpsertKey;
+		}
+	}
+	
+	private static int separator(byte[] key){
+		for (int i=0; i<key.length; i++){
+			if (key[i] == '\t'){
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Malformed key");
+	}
+	
+	private static String getGraph(byte[] key){
+		int separator = separator(key);
+		return new String(key, separator + 1, key.length - separator - 1);
+	}
+	
+	// subject\tgraph -> graph\tsubject
+	private static byte[] getInverseKey(byte[] key){
+		int separator = separator(key);
+		byte[] inverse = new byte[key.length];
+		int graphLength = key.length - separator - 1;
+		System.arraycopy(key, separator + 1, inverse, 0, graphLength);
+		inverse[graphLength] = '\t';
+		System.arraycopy(key, 0, inverse, graphLength + 1, separator);
+		return inverse;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Not supported");
+	}
+
+	@Override
+	public void free() {
+		existing.free();
+	}
+	
+	public long getKeptCount(){
+		return kept;
+	}
+	
+	public long getAddedCount(){
+		return added;
+	}
+	
+	public long getReplacedCount(){
+		return replaced;
+	}
+	
+	public long getDeletedCount(){
+		return deleted;
+	}
+}
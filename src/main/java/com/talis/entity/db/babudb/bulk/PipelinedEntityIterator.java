@@ -0,0 +1,324 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb.bulk;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.openjena.atlas.lib.Sink;
+import org.openjena.atlas.lib.SinkNull;
+import org.openjena.riot.Lang;
+import org.openjena.riot.lang.LangNQuads;
+import org.openjena.riot.system.RiotLib;
+import org.openjena.riot.tokens.Tokenizer;
+import org.openjena.riot.tokens.TokenizerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDesc;
+import com.talis.entity.marshal.Marshaller;
+
+/**
+ * Produces the same sequence of entity descriptions as EntityIterator, but
+ * spreads the work over several threads. One thread parses the quads and 
+ * groups them into batches of entities, which are marshalled and compressed
+ * by a pool of workers. The futures for the batches are queued in the order
+ * they were parsed, so the consumer (usually the index writer) sees the 
+ * entities in subject order. The queue is bounded, so parsing blocks when 
+ * the workers or the consumer fall behind.
+ * 
+ * The input can be an N-Quads stream or any sorted iterator of quads. The
+ * threads finish when the input is exhausted. Consumers which stop
+ * early should call close().
+ */
+public class PipelinedEntityIterator implements Iterator<EntityDesc> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(PipelinedEntityIterator.class);
+	
+	public static final int BATCH_SIZE = 256;
+	public static final int QUEUE_SIZE_PER_THREAD = 4;
+	
+	private static final Future<List<EntityDesc>> END = 
+			Futures.immediateFuture(Collections.<EntityDesc>emptyList());
+	
+	private final BlockingQueue<Future<List<EntityDesc>>> batches;
+	private final ExecutorService marshalPool;
+	private final Thread parseThread;
+	private final BuildProgress progress;
+	
+	// time the parse thread spends waiting for space in the queue
+	private long parseBlockedNanos;
+	
+	private Iterator<EntityDesc> current = Collections.<EntityDesc>emptyList().iterator();
+	private boolean finished = false;
+	
+	public PipelinedEntityIterator(InputStream quadStream, Marshaller marshaller, int marshalThreads){
+		this(parse(quadStream), marshaller, marshalThreads);
+	}
+	
+	public PipelinedEntityIterator(Iterator<Quad> quads, Marshaller marshaller, int marshalThreads){
+		this(quads, marshaller, marshalThreads, new BuildProgress());
+	}
+	
+	/**
+	 * @param quads Quads sorted by subject, then by graph, which are read on 
+	 * the parsing thread
+	 * @param progress Updated with the quads parsed, entities returned, and the
+	 * time spent parsing and marshalling
+	 */
+	public PipelinedEntityIterator(Iterator<Quad> quads, Marshaller marshaller, int marshalThreads, BuildProgress progress){
+		LOG.debug("Initialising Pipelined Entity Iterator with {} marshalling threads", marshalThreads);
+		batches = new ArrayBlockingQueue<Future<List<EntityDesc>>>(marshalThreads * QUEUE_SIZE_PER_THREAD);
+		marshalPool = Executors.newFixedThreadPool(marshalThreads, 
+				new ThreadFactoryBuilder().setNameFormat("entity-marshal-%d").setDaemon(true).build());
+		this.progress = progress;
+		parseThread = new Thread(new Parser(quads, marshaller), "entity-parse");
+		parseThread.setDaemon(true);
+		parseThread.start();
+	}
+	
+	@Override
+	public boolean hasNext() {
+		while (! current.hasNext()){
+			if (finished){
+				return false;
+			}
+			if (EntityIterator.isHalted()){
+				close();
+				return false;
+			}
+			try{
+				Future<List<EntityDesc>> batch = batches.take();
+				if (batch == END){
+					close();
+					return false;
+				}
+				current = batch.get().iterator();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				close();
+				throw new RuntimeException("Interrupted while waiting for entities", e);
+			}catch(ExecutionException e){
+				LOG.error("Error building entities", e.getCause());
+				close();
+				throw new RuntimeException("Error building entities", e.getCause());
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public EntityDesc next() {
+		if (! hasNext()){
+			throw new NoSuchElementException();
+		}
+		progress.entityWritten();
+		return current.next();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Not supported");
+	}
+	
+	/**
+	 * Stop the parsing and marshalling threads. Any entities not yet 
+	 * consumed are discarded.
+	 */
+	public void close(){
+		if (! finished){
+			finished = true;
+			current = Collections.<EntityDesc>emptyList().iterator();
+			parseThread.interrupt();
+			marshalPool.shutdownNow();
+			batches.clear();
+		}
+	}
+	
+	// the parser reads from the stream lazily, on whichever thread consumes it
+	static Iterator<Quad> parse(InputStream quadStream){
+		Tokenizer tokens = TokenizerFactory.makeTokenizerUTF8(quadStream);
+		return new LangNQuads(tokens, RiotLib.profile(Lang.NQUADS, null), SinkNull.<Quad>create());
+	}
+	
+	private void enqueue(Future<List<EntityDesc>> batch){
+		long start = System.nanoTime();
+		try{
+			batches.put(batch);
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new Closed();
+		}finally{
+			parseBlockedNanos += System.nanoTime() - start;
+		}
+	}
+	
+	private final class Parser implements Runnable {
+		
+		private final Iterator<Quad> quads;
+		private final Marshaller marshaller;
+		
+		Parser(Iterator<Quad> quads, Marshaller marshaller){
+			this.quads = quads;
+			this.marshaller = marshaller;
+		}
+		
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			try{
+				BatchingSink sink = new BatchingSink(marshaller);
+				while (quads.hasNext()){
+					if (Thread.currentThread().isInterrupted()){
+						return;
+					}
+					sink.send(quads.next());
+					progress.quadParsed();
+				}
+				sink.flush();
+				enqueue(END);
+			}catch(Closed e){
+				LOG.debug("Parsing stopped as the iterator was closed");
+			}catch(RuntimeException e){
+				LOG.error("Error parsing quads", e);
+				try{
+					enqueue(Futures.<List<EntityDesc>>immediateFailedFuture(e));
+				}catch(Closed c){
+					// nobody is waiting
+				}
+			}finally{
+				progress.addPhaseTime(BuildPhase.PARSE, System.nanoTime() - start - parseBlockedNanos);
+			}
+		}
+	}
+	
+	// Groups quads into entities, as EntitySink does, then hands them to the 
+	// marshalling pool a batch at a time
+	private final class BatchingSink implements Sink<Quad> {
+		
+		private final Marshaller marshaller;
+		
+		private List<Quad> quads = new ArrayList<Quad>();
+		private List<Entity> batch = new ArrayList<Entity>(BATCH_SIZE);
+		private Node currentSubject;
+		private Node currentGraph;
+		
+		BatchingSink(Marshaller marshaller){
+			this.marshaller = marshaller;
+		}
+		
+		@Override
+		public void send(Quad quad) {
+			if ( ! quad.getSubject().equals(currentSubject) ||
+					! quad.getGraph().equals(currentGraph) ){
+				endEntity();
+				currentSubject = quad.getSubject();
+				currentGraph = quad.getGraph();
+			}
+			quads.add(quad);
+		}
+		
+		@Override
+		public void flush() {
+			endEntity();
+			submit();
+		}
+		
+		@Override
+		public void close() {
+			flush();
+		}
+		
+		private void endEntity(){
+			if (quads.isEmpty()){
+				return;
+			}
+			if (null != currentSubject && ! currentSubject.isBlank()){
+				batch.add(new Entity(currentSubject, currentGraph, quads));
+				quads = new ArrayList<Quad>();
+				if (batch.size() >= BATCH_SIZE){
+					submit();
+				}
+			}else{
+				quads.clear();
+			}
+		}
+		
+		private void submit(){
+			if (batch.isEmpty()){
+				return;
+			}
+			final List<Entity> toMarshal = batch;
+			batch = new ArrayList<Entity>(BATCH_SIZE);
+			Future<List<EntityDesc>> marshalled;
+			try{
+				marshalled = marshalPool.submit(new Callable<List<EntityDesc>>(){
+					@Override
+					public List<EntityDesc> call() throws Exception {
+						long start = System.nanoTime();
+						List<EntityDesc> entities = new ArrayList<EntityDesc>(toMarshal.size());
+						for (Entity entity : toMarshal){
+							entities.add(marshaller.toEntityDesc(entity.subject, entity.graph, entity.quads));
+						}
+						progress.addPhaseTime(BuildPhase.MARSHAL, System.nanoTime() - start);
+						return entities;
+					}
+				});
+			}catch(RejectedExecutionException e){
+				// the pool is only shut down by close()
+				if (marshalPool.isShutdown()){
+					throw new Closed();
+				}
+				throw e;
+			}
+			enqueue(marshalled);
+		}
+	}
+	
+	private static final class Entity {
+		private final Node subject;
+		private final Node graph;
+		private final List<Quad> quads;
+		
+		Entity(Node subject, Node graph, List<Quad> quads){
+			this.subject = subject;
+			this.graph = graph;
+			this.quads = quads;
+		}
+	}
+	
+	// thrown on the parse thread when the iterator has been closed
+	private static final class Closed extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+}
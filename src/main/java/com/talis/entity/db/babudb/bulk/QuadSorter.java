@@ -0,0 +1,185 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb.bulk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xtreemfs.babudb.index.DefaultByteRangeComparator;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.db.babudb.IndexConfig;
+import com.talis.entity.db.babudb.Keys;
+import com.talis.entity.marshal.BinaryNodeFormat;
+import com.talis.sort.ExternalSortIterator;
+import com.talis.sort.ExternalSortWriter;
+import com.talis.sort.PassThruSerializer;
+
+/**
+ * Sorts quads into the order required by the bulk builder (subject, then 
+ * graph, in storage key order) with an external merge sort, so that memory 
+ * use is bounded by the sort buffer whatever the size of the input. 
+ * 
+ * Each quad is sorted as its storage key, a zero byte, then the binary form
+ * of its nodes. Duplicate quads are dropped, as are quads whose subject or
+ * graph is not a URI, which the builder couldn't store.
+ */
+public class QuadSorter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(QuadSorter.class);
+	
+	private static final Comparator<byte[]> COMPARATOR = new DefaultByteRangeComparator();
+	private static final PassThruSerializer SERIALIZER = new PassThruSerializer();
+	
+	private final File spillDir;
+	private final int bufferSize;
+	private final int threads;
+	
+	public QuadSorter(File spillDir){
+		this(spillDir, new IndexConfig().getSortBufferSize(), 2);
+	}
+	
+	/**
+	 * @param spillDir Where the sorted runs are written, it is cleaned before use 
+	 * @param bufferSize The number of quads held in memory and sorted into each run
+	 * @param threads The number of threads sorting and writing runs
+	 */
+	public QuadSorter(File spillDir, int bufferSize, int threads){
+		this.spillDir = spillDir;
+		this.bufferSize = bufferSize;
+		this.threads = threads;
+	}
+	
+	/**
+	 * Consume all of the quads, returning an iterator over the distinct ones 
+	 * in sorted order, which reads from the spill directory.
+	 */
+	public Iterator<Quad> sort(Iterator<Quad> quads) throws IOException {
+		LOG.info("Sorting quads using {}", spillDir.getAbsolutePath());
+		FileUtils.forceMkdir(spillDir);
+		FileUtils.cleanDirectory(spillDir);
+		ExternalSortWriter<byte[]> sortWriter = 
+				new ExternalSortWriter<byte[]>(spillDir, SERIALIZER, COMPARATOR, bufferSize, threads, true);
+		long count = 0;
+		long skipped = 0;
+		while (quads.hasNext()){
+			Quad quad = quads.next();
+			if (! quad.getSubject().isURI() || ! quad.getGraph().isURI()){
+				skipped++;
+				continue;
+			}
+			sortWriter.sendItem(toRecord(quad));
+			count++;
+		}
+		sortWriter.flush();
+		sortWriter.waitForCompletion();
+		LOG.info("Sorted {} quads, skipped {} without a URI subject or graph", count, skipped);
+		if (count == 0){
+			return Collections.<Quad>emptyList().iterator();
+		}
+		return new SortedQuadIterator(
+				new ExternalSortIterator<byte[]>(sortWriter.getTmpDir(), SERIALIZER, COMPARATOR, sortWriter.compressed()));
+	}
+	
+	/** Remove the sorted runs */
+	public void cleanup() throws IOException {
+		FileUtils.deleteDirectory(spillDir);
+	}
+	
+	static byte[] toRecord(Quad quad) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.write(Keys.getStorageKey(quad.getSubject(), quad.getGraph()));
+		out.writeByte(0);
+		BinaryNodeFormat.writeNode(out, quad.getSubject());
+		BinaryNodeFormat.writeNode(out, quad.getGraph());
+		BinaryNodeFormat.writeNode(out, quad.getPredicate());
+		BinaryNodeFormat.writeNode(out, quad.getObject());
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	static Quad fromRecord(byte[] record) throws IOException {
+		int start = 0;
+		while (record[start] != 0){
+			start++;
+		}
+		start++;
+		DataInputStream in = new DataInputStream(
+				new ByteArrayInputStream(record, start, record.length - start));
+		Node subject = BinaryNodeFormat.readNode(in);
+		Node graph = BinaryNodeFormat.readNode(in);
+		Node predicate = BinaryNodeFormat.readNode(in);
+		Node object = BinaryNodeFormat.readNode(in);
+		return new Quad(graph, subject, predicate, object);
+	}
+	
+	// Decodes the sorted records, skipping any which repeat the last one 
+	private static final class SortedQuadIterator implements Iterator<Quad> {
+		
+		private final Iterator<byte[]> records;
+		private byte[] previous;
+		private byte[] next;
+		
+		SortedQuadIterator(Iterator<byte[]> records){
+			this.records = records;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			while (null == next && records.hasNext()){
+				byte[] record = records.next();
+				if (! Arrays.equals(previous, record)){
+					next = record;
+				}
+			}
+			return null != next;
+		}
+
+		@Override
+		public Quad next() {
+			if (! hasNext()){
+				throw new NoSuchElementException();
+			}
+			previous = next;
+			next = null;
+			try{
+				return fromRecord(previous);
+			}catch(IOException e){
+				throw new RuntimeException("Error reading sorted quad", e);
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Not supported");
+		}
+	}
+}
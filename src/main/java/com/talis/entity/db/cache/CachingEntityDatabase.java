@@ -0,0 +1,370 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.EntityDatabaseException;
+
+/**
+ * Decorates an EntityDatabase with a cache of decoded quads, for both 
+ * subject and graph lookups, bounded by an estimate of the memory they use.
+ * 
+ * Writes invalidate the affected entries once the underlying database has 
+ * applied them, so its writes must be visible to readers when they return. 
+ * A lookup which was running while an entry was invalidated 
+ * doesn't cache its result, as it may have read the state from before the 
+ * write. Within a transaction reads go straight to the underlying database,
+ * as they may see writes which other threads can't, and everything written
+ * in the transaction is invalidated again when it's committed.
+ */
+public class CachingEntityDatabase implements EntityDatabase {
+
+	private static final Logger LOG = LoggerFactory.getLogger(CachingEntityDatabase.class);
+	
+	public static final long MAX_BYTES_DEFAULT = 1024 * 1024 * 64;
+	public static final String MAX_BYTES_PROPERTY = "com.talis.entity.cache.maxBytes";
+	
+	// rough per object overheads, for estimating the size of cached quads
+	private static final int QUAD_OVERHEAD = 96;
+	private static final int ENTRY_OVERHEAD = 64;
+	
+	private final EntityDatabase delegate;
+	private final Cache<CacheKey, CachedQuads> cache;
+	private final ThreadLocal<Transaction> transaction = new ThreadLocal<Transaction>();
+	private final Object invalidationLock = new Object();
+	private long generation = 0;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	public CachingEntityDatabase(EntityDatabase delegate){
+		this(delegate, Long.getLong(MAX_BYTES_PROPERTY, MAX_BYTES_DEFAULT));
+	}
+	
+	public CachingEntityDatabase(EntityDatabase delegate, long maxBytes){
+		LOG.info("Caching up to {} bytes of entities", maxBytes);
+		this.delegate = delegate;
+		this.cache = CacheBuilder.newBuilder()
+						.maximumWeight(maxBytes)
+						.weigher(new Weigher<CacheKey, CachedQuads>(){
+							@Override
+							public int weigh(CacheKey key, CachedQuads value) {
+								return value.weight;
+							}
+						})
+						.removalListener(new RemovalListener<CacheKey, CachedQuads>(){
+							@Override
+							public void onRemoval(RemovalNotification<CacheKey, CachedQuads> notification) {
+								if (notification.wasEvicted()){
+									evictions.incrementAndGet();
+								}
+							}
+						})
+						.build();
+	}
+	
+	public long getHitCount(){
+		return hits.get();
+	}
+	
+	public long getMissCount(){
+		return misses.get();
+	}
+	
+	public long getEvictionCount(){
+		return evictions.get();
+	}
+	
+	@Override
+	public void put(Node subject, Node graph, Collection<Quad> quads) throws EntityDatabaseException {
+		delegate.put(subject, graph, quads);
+		written(subject, graph);
+	}
+
+	@Override
+	public void delete(Node subject, Node graph) throws EntityDatabaseException {
+		delegate.delete(subject, graph);
+		written(subject, graph);
+	}
+
+	@Override
+	public void deleteGraph(Node graph) throws EntityDatabaseException {
+		delegate.deleteGraph(graph);
+		Transaction current = transaction.get();
+		if (null != current){
+			current.graphs.add(graph);
+		}
+		synchronized (invalidationLock){
+			generation++;
+			invalidateGraph(graph);
+		}
+	}
+	
+	private void written(Node subject, Node graph){
+		Transaction current = transaction.get();
+		if (null != current){
+			current.subjects.add(subject);
+			current.graphs.add(graph);
+		}
+		synchronized (invalidationLock){
+			generation++;
+			cache.invalidate(CacheKey.forSubject(subject));
+			cache.invalidate(CacheKey.forGraph(graph));
+		}
+	}
+	
+	// subjects with quads in a deleted graph can only be found by looking 
+	// through the cached subjects' graphs
+	private void invalidateGraph(Node graph){
+		cache.invalidate(CacheKey.forGraph(graph));
+		List<CacheKey> affected = new ArrayList<CacheKey>();
+		for (Entry<CacheKey, CachedQuads> entry : cache.asMap().entrySet()){
+			if (entry.getValue().graphs.contains(graph)){
+				affected.add(entry.getKey());
+			}
+		}
+		cache.invalidateAll(affected);
+	}
+
+	@Override
+	public boolean exists(Node subject) throws EntityDatabaseException {
+		if (null == transaction.get()){
+			CachedQuads cached = cache.getIfPresent(CacheKey.forSubject(subject));
+			if (null != cached){
+				return ! cached.quads.isEmpty();
+			}
+		}
+		return delegate.exists(subject);
+	}
+
+	@Override
+	public Iterable<Quad> get(Node subject) throws EntityDatabaseException {
+		if (null != transaction.get()){
+			return delegate.get(subject);
+		}
+		CacheKey key = CacheKey.forSubject(subject);
+		CachedQuads cached = cache.getIfPresent(key);
+		if (null != cached){
+			hits.incrementAndGet();
+			return cached.quads;
+		}
+		misses.incrementAndGet();
+		long seen = currentGeneration();
+		return load(key, delegate.get(subject), seen).quads;
+	}
+
+	@Override
+	public Iterable<Quad> getGraph(Node graph) throws EntityDatabaseException {
+		if (null != transaction.get()){
+			return delegate.getGraph(graph);
+		}
+		CacheKey key = CacheKey.forGraph(graph);
+		CachedQuads cached = cache.getIfPresent(key);
+		if (null != cached){
+			hits.incrementAndGet();
+			return cached.quads;
+		}
+		misses.incrementAndGet();
+		long seen = currentGeneration();
+		return load(key, delegate.getGraph(graph), seen).quads;
+	}
+
+	@Override
+	public Map<Node, Iterable<Quad>> getAll(Collection<Node> subjects) throws EntityDatabaseException {
+		if (null != transaction.get()){
+			return delegate.getAll(subjects);
+		}
+		Map<Node, Iterable<Quad>> results = new HashMap<Node, Iterable<Quad>>();
+		List<Node> uncached = new ArrayList<Node>();
+		for (Node subject : subjects){
+			if (results.containsKey(subject)){
+				continue;
+			}
+			CachedQuads cached = cache.getIfPresent(CacheKey.forSubject(subject));
+			if (null != cached){
+				hits.incrementAndGet();
+				results.put(subject, cached.quads);
+			}else{
+				misses.incrementAndGet();
+				results.put(subject, null);
+				uncached.add(subject);
+			}
+		}
+		if (! uncached.isEmpty()){
+			long seen = currentGeneration();
+			for (Entry<Node, Iterable<Quad>> fetched : delegate.getAll(uncached).entrySet()){
+				results.put(fetched.getKey(), load(CacheKey.forSubject(fetched.getKey()), fetched.getValue(), seen).quads);
+			}
+		}
+		return results;
+	}
+	
+	private long currentGeneration(){
+		synchronized (invalidationLock){
+			return generation;
+		}
+	}
+	
+	private CachedQuads load(CacheKey key, Iterable<Quad> quads, long seen){
+		CachedQuads loaded = new CachedQuads(quads);
+		synchronized (invalidationLock){
+			if (seen == generation){
+				cache.put(key, loaded);
+			}
+		}
+		return loaded;
+	}
+	
+	@Override
+	public Iterable<Entry<Node, Iterable<Quad>>> all() throws EntityDatabaseException {
+		return delegate.all();
+	}
+
+	@Override
+	public void clear() throws EntityDatabaseException {
+		delegate.clear();
+		invalidateAll();
+	}
+	
+	private void invalidateAll(){
+		synchronized (invalidationLock){
+			generation++;
+			cache.invalidateAll();
+		}
+	}
+
+	@Override
+	public void close() throws EntityDatabaseException {
+		invalidateAll();
+		delegate.close();
+	}
+
+	@Override
+	public void begin() throws EntityDatabaseException {
+		delegate.begin();
+		transaction.set(new Transaction());
+	}
+
+	@Override
+	public void commit() throws EntityDatabaseException {
+		Transaction current = transaction.get();
+		transaction.remove();
+		delegate.commit();
+		if (null != current){
+			// other threads may have read the previously committed state 
+			// between a write being made and being committed
+			synchronized (invalidationLock){
+				generation++;
+				for (Node subject : current.subjects){
+					cache.invalidate(CacheKey.forSubject(subject));
+				}
+				for (Node graph : current.graphs){
+					invalidateGraph(graph);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void abort() throws EntityDatabaseException {
+		transaction.remove();
+		delegate.abort();
+		invalidateAll();
+	}
+	
+	private static final class Transaction{
+		final Set<Node> subjects = new HashSet<Node>();
+		final Set<Node> graphs = new HashSet<Node>();
+	}
+	
+	private static final class CacheKey{
+		private final boolean isGraph;
+		private final Node node;
+		
+		static CacheKey forSubject(Node subject){
+			return new CacheKey(false, subject);
+		}
+		
+		static CacheKey forGraph(Node graph){
+			return new CacheKey(true, graph);
+		}
+		
+		private CacheKey(boolean isGraph, Node node){
+			this.isGraph = isGraph;
+			this.node = node;
+		}
+		
+		@Override
+		public int hashCode() {
+			return isGraph ? ~node.hashCode() : node.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (! (obj instanceof CacheKey)){
+				return false;
+			}
+			CacheKey other = (CacheKey)obj;
+			return isGraph == other.isGraph && node.equals(other.node);
+		}
+	}
+	
+	private static final class CachedQuads{
+		final Collection<Quad> quads;
+		final Set<Node> graphs;
+		final int weight;
+		
+		CachedQuads(Iterable<Quad> source){
+			List<Quad> copy = new ArrayList<Quad>();
+			Set<Node> sourceGraphs = new HashSet<Node>();
+			long size = ENTRY_OVERHEAD;
+			for (Quad quad : source){
+				copy.add(quad);
+				sourceGraphs.add(quad.getGraph());
+				size += QUAD_OVERHEAD + 2 * (
+							quad.getSubject().toString().length() + 
+							quad.getPredicate().toString().length() + 
+							quad.getObject().toString().length());
+			}
+			quads = Collections.unmodifiableList(copy);
+			graphs = sourceGraphs;
+			weight = (int) Math.min(Integer.MAX_VALUE, size);
+		}
+	}
+}
@@ -0,0 +1,388 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.mapped;
+
+import static com.talis.entity.db.mapped.MappedFormat.ENTITY_COUNT;
+import static com.talis.entity.db.mapped.MappedFormat.ENTITY_OFFSETS;
+import static com.talis.entity.db.mapped.MappedFormat.HEADER_LENGTH;
+import static com.talis.entity.db.mapped.MappedFormat.INVERSE_COUNT;
+import static com.talis.entity.db.mapped.MappedFormat.INVERSE_OFFSETS;
+import static com.talis.entity.db.mapped.MappedFormat.MAGIC;
+import static com.talis.entity.db.mapped.MappedFormat.MAX_RECORD_LENGTH;
+import static com.talis.entity.db.mapped.MappedFormat.VERSION;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.EntityDatabaseException;
+import com.talis.entity.EntityDesc;
+import com.talis.entity.marshal.Marshaller;
+
+/**
+ * Read only EntityDatabase over a file written by MappedEntityDatabaseWriter
+ * (usually via the bulk builder), which is memory mapped rather than read 
+ * through a cache of its own, leaving the OS page cache to hold the working 
+ * set.
+ * 
+ * Lookups binary search the sorted offset arrays, comparing keys where they
+ * lie in the mapped file, so the only copying is of the marshalled entities 
+ * which are returned. Files larger than a single mapping can address are
+ * mapped as a number of segments, which overlap by the length of the 
+ * longest record so that any record can be read from a single segment.
+ * 
+ * The mappings are released once they are garbage collected after close().
+ */
+public class MappedEntityDatabase implements EntityDatabase {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MappedEntityDatabase.class);
+	
+	static final long SEGMENT_SIZE = 1024 * 1024 * 1024;
+	
+	private final Marshaller marshaller;
+	private final long segmentSize;
+	private final long entityCount;
+	private final long entityOffsets;
+	private final long inverseCount;
+	private final long inverseOffsets;
+	
+	private volatile MappedByteBuffer[] segments;
+	
+	public MappedEntityDatabase(File file, Marshaller marshaller) throws EntityDatabaseException {
+		this(file, marshaller, SEGMENT_SIZE);
+	}
+	
+	MappedEntityDatabase(File file, Marshaller marshaller, long segmentSize) throws EntityDatabaseException {
+		LOG.info("Mapping entity database {}", file.getAbsolutePath());
+		this.marshaller = marshaller;
+		this.segmentSize = segmentSize;
+		try{
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try{
+				if (raf.length() < HEADER_LENGTH || raf.readInt() != MAGIC){
+					throw new EntityDatabaseException("Not a mapped entity database: " + file.getAbsolutePath());
+				}
+				int version = raf.readInt();
+				if (version != VERSION){
+					throw new EntityDatabaseException("Unsupported mapped entity database version: " + version);
+				}
+				raf.seek(ENTITY_COUNT);
+				entityCount = raf.readLong();
+				raf.seek(ENTITY_OFFSETS);
+				entityOffsets = raf.readLong();
+				raf.seek(INVERSE_COUNT);
+				inverseCount = raf.readLong();
+				raf.seek(INVERSE_OFFSETS);
+				inverseOffsets = raf.readLong();
+				raf.seek(MAX_RECORD_LENGTH);
+				int overlap = Math.max(raf.readInt(), 8);
+				if (segmentSize + overlap > Integer.MAX_VALUE){
+					throw new EntityDatabaseException("Records are too large to map: " + overlap);
+				}
+				segments = map(raf.getChannel(), raf.length(), overlap);
+			}finally{
+				raf.close();
+			}
+		}catch(IOException e){
+			LOG.error("Unable to map entity database", e);
+			throw new EntityDatabaseException("Unable to map entity database", e);
+		}
+	}
+	
+	private MappedByteBuffer[] map(FileChannel channel, long length, int overlap) throws IOException{
+		int count = (int) ((length + segmentSize - 1) / segmentSize);
+		MappedByteBuffer[] mapped = new MappedByteBuffer[count];
+		for (int i=0; i<count; i++){
+			long start = i * segmentSize;
+			mapped[i] = channel.map(MapMode.READ_ONLY, start, Math.min(segmentSize + overlap, length - start));
+		}
+		return mapped;
+	}
+
+	@Override
+	public boolean exists(Node subject) throws EntityDatabaseException {
+		MappedByteBuffer[] mapped = getSegments();
+		byte[] prefix = MappedFormat.getKeyPrefix(subject);
+		long index = search(mapped, entityOffsets, entityCount, prefix);
+		return index < entityCount && startsWith(mapped, entityOffset(mapped, index), prefix);
+	}
+	
+	@Override
+	public Iterable<Quad> get(Node subject) throws EntityDatabaseException {
+		return collect(getSegments(), subject);
+	}
+	
+	@Override
+	public Map<Node, Iterable<Quad>> getAll(Collection<Node> subjects) throws EntityDatabaseException {
+		MappedByteBuffer[] mapped = getSegments();
+		Map<Node, Iterable<Quad>> results = new HashMap<Node, Iterable<Quad>>();
+		for (Node subject : subjects){
+			if (! results.containsKey(subject)){
+				results.put(subject, collect(mapped, subject));
+			}
+		}
+		return results;
+	}
+	
+	@Override
+	public Iterable<Quad> getGraph(Node graph) throws EntityDatabaseException {
+		MappedByteBuffer[] mapped = getSegments();
+		byte[] prefix = MappedFormat.getKeyPrefix(graph);
+		Collection<Quad> quads = new ArrayList<Quad>();
+		for (long index = search(mapped, inverseOffsets, inverseCount, prefix); index < inverseCount; index++){
+			long position = readLong(mapped, inverseOffsets + (index * 8));
+			if (! startsWith(mapped, position, prefix)){
+				break;
+			}
+			long ordinal = readLong(mapped, position + 4 + readInt(mapped, position));
+			long record = entityOffset(mapped, ordinal);
+			byte[] key = readKey(mapped, record);
+			quads.addAll(decode(new EntityDesc(MappedFormat.getFirstNode(key), graph, readValue(mapped, record))));
+		}
+		return quads;
+	}
+	
+	@Override
+	public Iterable<Entry<Node, Iterable<Quad>>> all() throws EntityDatabaseException {
+		final MappedByteBuffer[] mapped = getSegments();
+		return new Iterable<Entry<Node, Iterable<Quad>>>(){
+			@Override
+			public Iterator<Entry<Node, Iterable<Quad>>> iterator() {
+				return new EntityIterator(mapped);
+			}
+		};
+	}
+	
+	private Collection<Quad> collect(MappedByteBuffer[] mapped, Node subject) throws EntityDatabaseException {
+		byte[] prefix = MappedFormat.getKeyPrefix(subject);
+		Collection<Quad> quads = new ArrayList<Quad>();
+		for (long index = search(mapped, entityOffsets, entityCount, prefix); index < entityCount; index++){
+			long record = entityOffset(mapped, index);
+			if (! startsWith(mapped, record, prefix)){
+				break;
+			}
+			Node graph = MappedFormat.getSecondNode(readKey(mapped, record));
+			quads.addAll(decode(new EntityDesc(subject, graph, readValue(mapped, record))));
+		}
+		return quads;
+	}
+	
+	private Collection<Quad> decode(EntityDesc desc) throws EntityDatabaseException {
+		try{
+			return marshaller.toQuads(desc);
+		}catch(IOException e){
+			LOG.error("Error decoding entity {}", desc);
+			throw new EntityDatabaseException("Error decoding entity", e);
+		}
+	}
+	
+	/**
+	 * Index of the first record whose key is not less than the probe, or 
+	 * count if there is none. 
+	 */
+	private long search(MappedByteBuffer[] mapped, long offsets, long count, byte[] probe){
+		long low = 0;
+		long high = count;
+		while (low < high){
+			long mid = (low + high) >>> 1;
+			if (compareKey(mapped, readLong(mapped, offsets + (mid * 8)), probe) < 0){
+				low = mid + 1;
+			}else{
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	private int compareKey(MappedByteBuffer[] mapped, long record, byte[] probe){
+		ByteBuffer segment = mapped[(int) (record / segmentSize)];
+		int offset = (int) (record % segmentSize);
+		int keyLength = segment.getInt(offset);
+		int length = Math.min(keyLength, probe.length);
+		for (int i=0; i<length; i++){
+			int cmp = (segment.get(offset + 4 + i) & 0xff) - (probe[i] & 0xff);
+			if (cmp != 0){
+				return cmp;
+			}
+		}
+		return keyLength - probe.length;
+	}
+	
+	private boolean startsWith(MappedByteBuffer[] mapped, long record, byte[] prefix){
+		ByteBuffer segment = mapped[(int) (record / segmentSize)];
+		int offset = (int) (record % segmentSize);
+		if (segment.getInt(offset) < prefix.length){
+			return false;
+		}
+		for (int i=0; i<prefix.length; i++){
+			if (segment.get(offset + 4 + i) != prefix[i]){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private long entityOffset(MappedByteBuffer[] mapped, long index){
+		return readLong(mapped, entityOffsets + (index * 8));
+	}
+	
+	private long readLong(MappedByteBuffer[] mapped, long position){
+		return mapped[(int) (position / segmentSize)].getLong((int) (position % segmentSize));
+	}
+	
+	private int readInt(MappedByteBuffer[] mapped, long position){
+		return mapped[(int) (position / segmentSize)].getInt((int) (position % segmentSize));
+	}
+	
+	private byte[] readKey(MappedByteBuffer[] mapped, long record){
+		return read(mapped, record);
+	}
+	
+	private byte[] readValue(MappedByteBuffer[] mapped, long record){
+		return read(mapped, record + 4 + readInt(mapped, record));
+	}
+	
+	// a length prefixed array of bytes, read through a duplicate so that 
+	// concurrent readers don't disturb each other's positions
+	private byte[] read(MappedByteBuffer[] mapped, long position){
+		ByteBuffer segment = mapped[(int) (position / segmentSize)].duplicate();
+		int offset = (int) (position % segmentSize);
+		byte[] bytes = new byte[segment.getInt(offset)];
+		segment.position(offset + 4);
+		segment.get(bytes);
+		return bytes;
+	}
+	
+	private MappedByteBuffer[] getSegments() throws EntityDatabaseException {
+		MappedByteBuffer[] mapped = segments;
+		if (null == mapped){
+			throw new EntityDatabaseException("Database is closed");
+		}
+		return mapped;
+	}
+
+	@Override
+	public void put(Node subject, Node graph, Collection<Quad> quads) {
+		throw new UnsupportedOperationException("Database is read only");
+	}
+
+	@Override
+	public void delete(Node subject, Node graph) {
+		throw new UnsupportedOperationException("Database is read only");
+	}
+
+	@Override
+	public void deleteGraph(Node graph) {
+		throw new UnsupportedOperationException("Database is read only");
+	}
+	
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("Database is read only");
+	}
+
+	@Override
+	public void close() {
+		// the mappings are released once they're collected
+		segments = null;
+	}
+
+	@Override
+	public void begin() {
+		// noop
+	}
+
+	@Override
+	public void commit() {
+		// noop
+	}
+
+	@Override
+	public void abort() {
+		throw new UnsupportedOperationException("Not supported");
+	}
+	
+	/** Number of entity descriptions, one per subject and graph */
+	public long getEntityCount(){
+		return entityCount;
+	}
+	
+	// Walks the entity records in order, grouping consecutive records with 
+	// the same subject into a single entry 
+	private class EntityIterator implements Iterator<Entry<Node, Iterable<Quad>>> {
+		
+		private final MappedByteBuffer[] mapped;
+		private long index = 0;
+		
+		EntityIterator(MappedByteBuffer[] mapped){
+			this.mapped = mapped;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return index < entityCount;
+		}
+
+		@Override
+		public Entry<Node, Iterable<Quad>> next() {
+			if (! hasNext()){
+				throw new NoSuchElementException();
+			}
+			byte[] key = readKey(mapped, entityOffset(mapped, index));
+			Node subject = MappedFormat.getFirstNode(key);
+			byte[] prefix = MappedFormat.getKeyPrefix(subject);
+			Collection<Quad> quads = new ArrayList<Quad>();
+			try{
+				while (index < entityCount){
+					long record = entityOffset(mapped, index);
+					if (! startsWith(mapped, record, prefix)){
+						break;
+					}
+					Node graph = MappedFormat.getSecondNode(readKey(mapped, record));
+					quads.addAll(decode(new EntityDesc(subject, graph, readValue(mapped, record))));
+					index++;
+				}
+			}catch(EntityDatabaseException e){
+				throw new RuntimeException("Error reading entity", e);
+			}
+			return new SimpleImmutableEntry<Node, Iterable<Quad>>(subject, quads);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Not supported");
+		}
+	}
+}
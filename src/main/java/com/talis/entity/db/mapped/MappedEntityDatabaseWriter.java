@@ -0,0 +1,203 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.mapped;
+
+import static com.talis.entity.db.mapped.MappedFormat.HEADER_LENGTH;
+import static com.talis.entity.db.mapped.MappedFormat.MAGIC;
+import static com.talis.entity.db.mapped.MappedFormat.VERSION;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.talis.entity.EntityDesc;
+import com.talis.sort.ExternalSortIterator;
+import com.talis.sort.ExternalSortWriter;
+import com.talis.sort.PassThruSerializer;
+
+/**
+ * Writes the file read by MappedEntityDatabase from a stream of entity
+ * descriptions, which must be sorted by subject, then by graph. The inverse
+ * (graph to entity) records are sorted externally using files in tmpDir.
+ */
+public class MappedEntityDatabaseWriter {
+
+	private static final Logger LOG = LoggerFactory.getLogger(MappedEntityDatabaseWriter.class);
+	
+	private static final Comparator<byte[]> KEY_ORDER = new Comparator<byte[]>(){
+		@Override
+		public int compare(byte[] a, byte[] b) {
+			return MappedFormat.compare(a, b);
+		}
+	};
+	
+	private final File file;
+	private final File tmpDir;
+	
+	private long position;
+	private int maxRecordLength;
+	
+	public MappedEntityDatabaseWriter(File file, File tmpDir){
+		this.file = file;
+		this.tmpDir = tmpDir;
+	}
+	
+	public void write(Iterator<EntityDesc> entities) throws IOException {
+		LOG.info("Writing mapped entity database to {}", file.getAbsolutePath());
+		FileUtils.forceMkdir(tmpDir);
+		File sortDir = new File(tmpDir, "sort");
+		FileUtils.forceMkdir(sortDir);
+		File entityOffsetsFile = new File(tmpDir, "entity.offsets");
+		File inverseOffsetsFile = new File(tmpDir, "inverse.offsets");
+		PassThruSerializer serializer = new PassThruSerializer();
+		ExternalSortWriter<byte[]> sortWriter = 
+				new ExternalSortWriter<byte[]>(sortDir, serializer, KEY_ORDER, 100000, 2, true);
+		
+		position = 0;
+		maxRecordLength = 0;
+		DataOutputStream out = open(file);
+		try{
+			out.write(new byte[HEADER_LENGTH]);
+			position = HEADER_LENGTH;
+			
+			// entity records, checking they arrive in key order
+			long entityCount = 0;
+			DataOutputStream offsets = open(entityOffsetsFile);
+			try{
+				byte[] previous = null;
+				while (entities.hasNext()){
+					EntityDesc entity = entities.next();
+					byte[] key = MappedFormat.getKey(entity.subject, entity.graph);
+					if (null != previous && MappedFormat.compare(previous, key) >= 0){
+						LOG.error("Entity {} is out of order", entity);
+						throw new IOException("Input is not sorted by subject and graph at " + entity);
+					}
+					previous = key;
+					byte[] value = null == entity.bytes ? new byte[0] : entity.bytes;
+					offsets.writeLong(position);
+					out.writeInt(key.length);
+					out.write(key);
+					out.writeInt(value.length);
+					out.write(value);
+					advance(8 + key.length + value.length);
+					sortWriter.sendItem(inverseItem(entity, entityCount));
+					entityCount++;
+				}
+			}finally{
+				offsets.close();
+			}
+			sortWriter.flush();
+			long entityOffsetsPosition = position;
+			position += copy(entityOffsetsFile, out);
+			sortWriter.waitForCompletion();
+			
+			// inverse records, already sorted by graph then subject
+			long inverseCount = 0;
+			offsets = open(inverseOffsetsFile);
+			try{
+				if (entityCount > 0){
+					Iterator<byte[]> inverse = new ExternalSortIterator<byte[]>(
+							sortWriter.getTmpDir(), serializer, KEY_ORDER, sortWriter.compressed());
+					while (inverse.hasNext()){
+						byte[] item = inverse.next();
+						int keyLength = item.length - 9;
+						offsets.writeLong(position);
+						out.writeInt(keyLength);
+						out.write(item, 0, keyLength);
+						out.write(item, keyLength + 1, 8);
+						advance(4 + keyLength + 8);
+						inverseCount++;
+					}
+				}
+			}finally{
+				offsets.close();
+			}
+			long inverseOffsetsPosition = position;
+			position += copy(inverseOffsetsFile, out);
+			out.close();
+			
+			writeHeader(entityCount, entityOffsetsPosition, inverseCount, inverseOffsetsPosition);
+			LOG.info("Wrote {} entities, {} bytes", entityCount, position);
+		}finally{
+			IOUtils.closeQuietly(out);
+			FileUtils.deleteQuietly(entityOffsetsFile);
+			FileUtils.deleteQuietly(inverseOffsetsFile);
+			FileUtils.deleteQuietly(sortDir);
+		}
+	}
+	
+	// graph:subject, then a zero byte so that the sort order is that of the
+	// keys alone, then the ordinal of the entity record 
+	private byte[] inverseItem(EntityDesc entity, long ordinal){
+		byte[] key = MappedFormat.getKey(entity.graph, entity.subject);
+		byte[] item = new byte[key.length + 9];
+		System.arraycopy(key, 0, item, 0, key.length);
+		for (int i=0; i<8; i++){
+			item[item.length - 1 - i] = (byte) (ordinal >>> (8 * i));
+		}
+		return item;
+	}
+	
+	private void advance(int recordLength){
+		position += recordLength;
+		maxRecordLength = Math.max(maxRecordLength, recordLength);
+	}
+	
+	private void writeHeader(long entityCount, long entityOffsetsPosition, 
+							long inverseCount, long inverseOffsetsPosition) throws IOException{
+		RandomAccessFile header = new RandomAccessFile(file, "rw");
+		try{
+			header.seek(0);
+			header.writeInt(MAGIC);
+			header.writeInt(VERSION);
+			header.writeLong(entityCount);
+			header.writeLong(entityOffsetsPosition);
+			header.writeLong(inverseCount);
+			header.writeLong(inverseOffsetsPosition);
+			header.writeInt(maxRecordLength);
+			header.writeInt(0);
+			header.getFD().sync();
+		}finally{
+			header.close();
+		}
+	}
+	
+	private DataOutputStream open(File target) throws IOException{
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target), 1024 * 64));
+	}
+	
+	private long copy(File source, DataOutputStream out) throws IOException{
+		BufferedInputStream in = new BufferedInputStream(new FileInputStream(source));
+		try{
+			return IOUtils.copyLarge(in, out);
+		}finally{
+			in.close();
+		}
+	}
+}
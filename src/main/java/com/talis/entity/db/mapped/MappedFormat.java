@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.mapped;
+
+import com.google.common.base.Charsets;
+import com.hp.hpl.jena.graph.Node;
+
+/**
+ * Layout of the files read by MappedEntityDatabase. 
+ * 
+ * A fixed size header is followed by the entity records, in key order. Each
+ * record is an int length and the key, the subject and graph URIs separated
+ * by a tab, then an int length and the marshalled entity description. Next
+ * is an array of long offsets, one for each record. Then come the inverse 
+ * records, keyed by graph and subject and sorted, each holding the ordinal 
+ * of the entity record it refers to, followed by an array of their offsets.
+ */
+final class MappedFormat {
+
+	static final int MAGIC = 0x4C455354;
+	static final int VERSION = 1;
+	
+	static final int ENTITY_COUNT = 8;
+	static final int ENTITY_OFFSETS = 16;
+	static final int INVERSE_COUNT = 24;
+	static final int INVERSE_OFFSETS = 32;
+	static final int MAX_RECORD_LENGTH = 40;
+	static final int HEADER_LENGTH = 48;
+	
+	static final byte SEPARATOR = '\t';
+	
+	private MappedFormat(){}
+	
+	static byte[] getKey(Node first, Node second){
+		byte[] a = first.getURI().getBytes(Charsets.UTF_8);
+		byte[] b = second.getURI().getBytes(Charsets.UTF_8);
+		byte[] key = new byte[a.length + 1 + b.length];
+		System.arraycopy(a, 0, key, 0, a.length);
+		key[a.length] = SEPARATOR;
+		System.arraycopy(b, 0, key, a.length + 1, b.length);
+		return key;
+	}
+	
+	static byte[] getKeyPrefix(Node node){
+		byte[] a = node.getURI().getBytes(Charsets.UTF_8);
+		byte[] prefix = new byte[a.length + 1];
+		System.arraycopy(a, 0, prefix, 0, a.length);
+		prefix[a.length] = SEPARATOR;
+		return prefix;
+	}
+	
+	/** The node after the separator in a key */
+	static Node getSecondNode(byte[] key){
+		for (int i=0; i<key.length; i++){
+			if (SEPARATOR == key[i]){
+				return Node.createURI(new String(key, i + 1, key.length - i - 1, Charsets.UTF_8));
+			}
+		}
+		throw new IllegalArgumentException("Malformed key");
+	}
+	
+	/** The node before the separator in a key */
+	static Node getFirstNode(byte[] key){
+		for (int i=0; i<key.length; i++){
+			if (SEPARATOR == key[i]){
+				return Node.createURI(new String(key, 0, i, Charsets.UTF_8));
+			}
+		}
+		throw new IllegalArgumentException("Malformed key");
+	}
+	
+	static int compare(byte[] a, byte[] b){
+		int length = Math.min(a.length, b.length);
+		for (int i=0; i<length; i++){
+			int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+			if (cmp != 0){
+				return cmp;
+			}
+		}
+		return a.length - b.length;
+	}
+}
@@ -0,0 +1,802 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.ram;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.EntityDatabaseException;
+import com.talis.entity.EntityDesc;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.marshal.Marshaller;
+
+/**
+ * In memory EntityDatabase which keeps its data outside of the java heap, so
+ * that heap use, and so GC pauses, don't grow with the size of the data.
+ * 
+ * Each entity description is marshalled and written as a record to a slab
+ * of direct memory. Records hold the subject and graph URIs, the encoded 
+ * quads and links to the neighbouring records for the same subject and the
+ * same graph. Three open addressing hash tables, also in direct memory, map
+ * from subject and graph to the newest record in each chain, and from subject 
+ * and graph together to the current record for that entity.
+ * 
+ * Only a record's links and live flag are ever modified in place. A put 
+ * appends a new record, a delete appends nothing, and either way the record
+ * replaced is marked as dead and unlinked from its chains, so lookups only
+ * walk live records however often a subject is rewritten. Once dead records
+ * take up more space than live ones, the live records are copied to new 
+ * slabs and the old ones are left for the garbage collector to release.
+ * 
+ * Any number of readers can proceed together, writers have exclusive access.
+ * Iterating over all() collects and sorts the subject URIs on the heap.
+ */
+public class OffHeapEntityDatabase implements EntityDatabase {
+
+	private static final Logger LOG = LoggerFactory.getLogger(OffHeapEntityDatabase.class);
+	
+	public static final int SLAB_SIZE_DEFAULT = 1024 * 1024 * 64;
+	public static final String SLAB_SIZE_PROPERTY = "com.talis.entity.store.offheap.slabSize";
+	
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final long NONE = 0;
+	
+	private final Marshaller marshaller;
+	private final int slabSize;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	private Arena arena;
+	private HashIndex entities;
+	private HashIndex subjects;
+	private HashIndex graphs;
+	private long liveBytes;
+	private long deadBytes;
+	
+	public OffHeapEntityDatabase(){
+		this(new Marshaller(new SnappyCodec()), Integer.getInteger(SLAB_SIZE_PROPERTY, SLAB_SIZE_DEFAULT));
+	}
+	
+	public OffHeapEntityDatabase(Marshaller marshaller, int slabSize){
+		this.marshaller = marshaller;
+		this.slabSize = slabSize;
+		reset(INITIAL_CAPACITY);
+	}
+	
+	private void reset(int capacity){
+		arena = new Arena(slabSize);
+		entities = new EntityIndex(capacity);
+		subjects = new SubjectIndex(capacity);
+		graphs = new GraphIndex(capacity);
+		liveBytes = 0;
+		deadBytes = 0;
+	}
+	
+	@Override
+	public void put(Node subject, Node graph, Collection<Quad> quads) throws EntityDatabaseException {
+		byte[] data;
+		try{
+			data = marshaller.toEntityDesc(subject, graph, quads).bytes;
+		}catch (Exception e){
+			LOG.error("Unable to marshal entity", e);
+			throw new EntityDatabaseException("Unable to marshal entity", e);
+		}
+		byte[] s = toBytes(subject);
+		byte[] g = toBytes(graph);
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+		try{
+			int entityHash = hash(s, g);
+			long existing = entities.get(entityHash, s, g);
+			if (NONE != existing){
+				kill(existing);
+			}
+			store(s, g, data, entityHash);
+			compactIfNecessary();
+		}finally{
+			writeLock.unlock();
+		}
+	}
+	
+	private void store(byte[] s, byte[] g, byte[] data, int entityHash){
+		int subjectHash = hash(s);
+		int graphHash = hash(g);
+		long nextForSubject = subjects.get(subjectHash, s, null);
+		long nextForGraph = graphs.get(graphHash, g, null);
+		long address = arena.write(s, g, data, nextForSubject, nextForGraph);
+		if (NONE != nextForSubject){
+			arena.setPrevForSubject(nextForSubject, address);
+		}
+		if (NONE != nextForGraph){
+			arena.setPrevForGraph(nextForGraph, address);
+		}
+		entities.put(entityHash, s, g, address);
+		subjects.put(subjectHash, s, null, address);
+		graphs.put(graphHash, g, null, address);
+		liveBytes += arena.length(address);
+	}
+	
+	private void kill(long address){
+		unlinkFromGraph(address);
+		discard(address);
+	}
+	
+	// for records whose whole graph chain is being dropped
+	private void discard(long address){
+		unlinkFromSubject(address);
+		arena.kill(address);
+		int length = arena.length(address);
+		liveBytes -= length;
+		deadBytes += length;
+	}
+	
+	// The record's own links are left alone, so a walk along its chain that 
+	// has reached it can carry on past it.
+	private void unlinkFromSubject(long address){
+		long prev = arena.prevForSubject(address);
+		long next = arena.nextForSubject(address);
+		if (NONE != next){
+			arena.setPrevForSubject(next, prev);
+		}
+		if (NONE != prev){
+			arena.setNextForSubject(prev, next);
+			return;
+		}
+		byte[] s = arena.subject(address);
+		if (NONE == next){
+			subjects.remove(hash(s), s, null);
+		}else{
+			subjects.put(hash(s), s, null, next);
+		}
+	}
+	
+	private void unlinkFromGraph(long address){
+		long prev = arena.prevForGraph(address);
+		long next = arena.nextForGraph(address);
+		if (NONE != next){
+			arena.setPrevForGraph(next, prev);
+		}
+		if (NONE != prev){
+			arena.setNextForGraph(prev, next);
+			return;
+		}
+		byte[] g = arena.graph(address);
+		if (NONE == next){
+			graphs.remove(hash(g), g, null);
+		}else{
+			graphs.put(hash(g), g, null, next);
+		}
+	}
+
+	@Override
+	public void delete(Node subject, Node graph) throws EntityDatabaseException {
+		byte[] s = toBytes(subject);
+		byte[] g = toBytes(graph);
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+		try{
+			long existing = entities.remove(hash(s, g), s, g);
+			if (NONE != existing){
+				kill(existing);
+				compactIfNecessary();
+			}
+		}finally{
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public void deleteGraph(Node graph) throws EntityDatabaseException {
+		byte[] g = toBytes(graph);
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+		try{
+			long address = graphs.remove(hash(g), g, null);
+			while (NONE != address){
+				byte[] s = arena.subject(address);
+				entities.remove(hash(s, g), s, g);
+				discard(address);
+				address = arena.nextForGraph(address);
+			}
+			compactIfNecessary();
+		}finally{
+			writeLock.unlock();
+		}
+	}
+	
+	@Override
+	public boolean exists(Node subject) throws EntityDatabaseException {
+		byte[] s = toBytes(subject);
+		Lock readLock = lock.readLock();
+		readLock.lock();
+		try{
+			// subjects are dropped from the index along with their last record
+			return NONE != subjects.get(hash(s), s, null);
+		}finally{
+			readLock.unlock();
+		}
+	}
+
+	@Override
+	public Iterable<Quad> get(Node subject) throws EntityDatabaseException {
+		return getEntity(subject);
+	}
+	
+	private Collection<Quad> getEntity(Node subject) throws EntityDatabaseException {
+		byte[] s = toBytes(subject);
+		Lock readLock = lock.readLock();
+		readLock.lock();
+		try{
+			return collect(subject, s);
+		}finally{
+			readLock.unlock();
+		}
+	}
+	
+	private Collection<Quad> collect(Node subject, byte[] s) throws EntityDatabaseException{
+		Collection<Quad> quads = new ArrayList<Quad>();
+		long address = subjects.get(hash(s), s, null);
+		while (NONE != address){
+			quads.addAll(decode(subject, toNode(arena.graph(address)), arena.data(address)));
+			address = arena.nextForSubject(address);
+		}
+		return quads;
+	}
+	
+	@Override
+	public Map<Node, Iterable<Quad>> getAll(Collection<Node> subjects) throws EntityDatabaseException {
+		Map<Node, Iterable<Quad>> results = new HashMap<Node, Iterable<Quad>>();
+		Lock readLock = lock.readLock();
+		readLock.lock();
+		try{
+			for (Node subject : subjects){
+				if (! results.containsKey(subject)){
+					results.put(subject, collect(subject, toBytes(subject)));
+				}
+			}
+		}finally{
+			readLock.unlock();
+		}
+		return results;
+	}
+
+	@Override
+	public Iterable<Quad> getGraph(Node graph) throws EntityDatabaseException {
+		byte[] g = toBytes(graph);
+		Collection<Quad> quads = new ArrayList<Quad>();
+		Lock readLock = lock.readLock();
+		readLock.lock();
+		try{
+			long address = graphs.get(hash(g), g, null);
+			while (NONE != address){
+				quads.addAll(decode(toNode(arena.subject(address)), graph, arena.data(address)));
+				address = arena.nextForGraph(address);
+			}
+		}finally{
+			readLock.unlock();
+		}
+		return quads;
+	}
+	
+	private Collection<Quad> decode(Node subject, Node graph, byte[] data) throws EntityDatabaseException{
+		try{
+			return marshaller.toQuads(new EntityDesc(subject, graph, data));
+		}catch (Exception e){
+			LOG.error("Unable to unmarshal entity", e);
+			throw new EntityDatabaseException("Unable to unmarshal entity", e);
+		}
+	}
+
+	@Override
+	public Iterable<Entry<Node, Iterable<Quad>>> all() throws EntityDatabaseException {
+		final List<Node> allSubjects = new ArrayList<Node>();
+		Lock readLock = lock.readLock();
+		readLock.lock();
+		try{
+			for (long address : subjects.addresses()){
+				allSubjects.add(toNode(arena.subject(address)));
+			}
+		}finally{
+			readLock.unlock();
+		}
+		Collections.sort(allSubjects, NODE_COMPARATOR);
+		return new Iterable<Entry<Node, Iterable<Quad>>>(){
+			@Override
+			public Iterator<Entry<Node, Iterable<Quad>>> iterator() {
+				return new EntityIterator(allSubjects.iterator());
+			}
+		};
+	}
+	
+	private static final Comparator<Node> NODE_COMPARATOR = new Comparator<Node>(){
+		@Override
+		public int compare(Node o1, Node o2) {
+			return (o1.getURI().compareTo(o2.getURI()));
+		}
+	};
+
+	@Override
+	public void clear() throws EntityDatabaseException {
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+		try{
+			reset(INITIAL_CAPACITY);
+		}finally{
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws EntityDatabaseException {
+		Lock writeLock = lock.writeLock();
+		writeLock.lock();
+		try{
+			// the direct buffers are released once they're collected
+			arena = null;
+			entities = null;
+			subjects = null;
+			graphs = null;
+		}finally{
+			writeLock.unlock();
+		}
+	}
+
+	@Override
+	public void begin() {
+		// noop
+	}
+
+	@Override
+	public void commit() {
+		// noop
+	}
+
+	@Override
+	public void abort() {
+		throw new UnsupportedOperationException("Not supported");
+	}
+	
+	/** Bytes in use by live records */
+	public long getLiveBytes(){
+		return liveBytes;
+	}
+	
+	/** Bytes occupied by dead records, awaiting compaction */
+	public long getDeadBytes(){
+		return deadBytes;
+	}
+	
+	private void compactIfNecessary(){
+		if (deadBytes > slabSize && deadBytes > liveBytes){
+			compact();
+		}
+	}
+	
+	// copy every live record into fresh slabs, rebuilding the indexes
+	private void compact(){
+		LOG.debug("Compacting, {} live bytes and {} dead", liveBytes, deadBytes);
+		Arena oldArena = arena;
+		List<Long> live = entities.addresses();
+		reset(Math.max(INITIAL_CAPACITY, Integer.highestOneBit(live.size()) * 4));
+		for (long address : live){
+			byte[] s = oldArena.subject(address);
+			byte[] g = oldArena.graph(address);
+			store(s, g, oldArena.data(address), hash(s, g));
+		}
+		LOG.debug("Compacted, {} live bytes in {} slabs", liveBytes, arena.slabCount());
+	}
+	
+	private static byte[] toBytes(Node node){
+		return node.getURI().getBytes(Charsets.UTF_8);
+	}
+	
+	private static Node toNode(byte[] bytes){
+		return Node.createURI(new String(bytes, Charsets.UTF_8));
+	}
+	
+	private static int hash(byte[] bytes){
+		int h = 1;
+		for (byte b : bytes){
+			h = 31 * h + b;
+		}
+		return mix(h);
+	}
+	
+	private static int hash(byte[] first, byte[] second){
+		return mix(31 * hash(first) + hash(second));
+	}
+	
+	// spread the bits, as tables are indexed by the low bits of the hash
+	private static int mix(int h){
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		return h ^ (h >>> 16);
+	}
+	
+	/**
+	 * Append only storage for records, in direct ByteBuffers. An address is
+	 * the index of a slab in the upper 32 bits and the offset of the record 
+	 * within it in the lower. No record starts at offset zero, so that zero 
+	 * can mean no record.
+	 * 
+	 * Record layout: int length, byte live, long next and previous for 
+	 * subject, long next and previous for graph, then length prefixed 
+	 * subject, graph and data bytes.
+	 */
+	private static final class Arena{
+		
+		private static final int LENGTH = 0;
+		private static final int LIVE = 4;
+		private static final int NEXT_FOR_SUBJECT = 5;
+		private static final int PREV_FOR_SUBJECT = 13;
+		private static final int NEXT_FOR_GRAPH = 21;
+		private static final int PREV_FOR_GRAPH = 29;
+		private static final int SUBJECT = 37;
+		private static final int FIRST_OFFSET = 8;
+		
+		private final int slabSize;
+		private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+		private ByteBuffer current;
+		
+		Arena(int slabSize){
+			this.slabSize = slabSize;
+		}
+		
+		int slabCount(){
+			return slabs.size();
+		}
+		
+		long write(byte[] subject, byte[] graph, byte[] data, long nextForSubject, long nextForGraph){
+			int length = SUBJECT + 12 + subject.length + graph.length + data.length;
+			if (null == current || current.remaining() < length){
+				current = ByteBuffer.allocateDirect(Math.max(slabSize, length + FIRST_OFFSET));
+				current.position(FIRST_OFFSET);
+				slabs.add(current);
+			}
+			long address = ((long)(slabs.size() - 1) << 32) | current.position();
+			current.putInt(length);
+			current.put((byte)1);
+			current.putLong(nextForSubject);
+			current.putLong(NONE);
+			current.putLong(nextForGraph);
+			current.putLong(NONE);
+			current.putInt(subject.length);
+			current.put(subject);
+			current.putInt(graph.length);
+			current.put(graph);
+			current.putInt(data.length);
+			current.put(data);
+			return address;
+		}
+		
+		private ByteBuffer slab(long address){
+			return slabs.get((int)(address >>> 32));
+		}
+		
+		private static int offset(long address){
+			return (int) address;
+		}
+		
+		int length(long address){
+			return slab(address).getInt(offset(address) + LENGTH);
+		}
+		
+		boolean isLive(long address){
+			return slab(address).get(offset(address) + LIVE) == 1;
+		}
+		
+		void kill(long address){
+			slab(address).put(offset(address) + LIVE, (byte)0);
+		}
+		
+		long nextForSubject(long address){
+			return slab(address).getLong(offset(address) + NEXT_FOR_SUBJECT);
+		}
+		
+		long nextForGraph(long address){
+			return slab(address).getLong(offset(address) + NEXT_FOR_GRAPH);
+		}
+		
+		long prevForSubject(long address){
+			return slab(address).getLong(offset(address) + PREV_FOR_SUBJECT);
+		}
+		
+		long prevForGraph(long address){
+			return slab(address).getLong(offset(address) + PREV_FOR_GRAPH);
+		}
+		
+		void setNextForSubject(long address, long next){
+			slab(address).putLong(offset(address) + NEXT_FOR_SUBJECT, next);
+		}
+		
+		void setNextForGraph(long address, long next){
+			slab(address).putLong(offset(address) + NEXT_FOR_GRAPH, next);
+		}
+		
+		void setPrevForSubject(long address, long prev){
+			slab(address).putLong(offset(address) + PREV_FOR_SUBJECT, prev);
+		}
+		
+		void setPrevForGraph(long address, long prev){
+			slab(address).putLong(offset(address) + PREV_FOR_GRAPH, prev);
+		}
+		
+		private int graphPosition(ByteBuffer slab, long address){
+			int subjectPosition = offset(address) + SUBJECT;
+			return subjectPosition + 4 + slab.getInt(subjectPosition);
+		}
+		
+		private int dataPosition(ByteBuffer slab, long address){
+			int graphPosition = graphPosition(slab, address);
+			return graphPosition + 4 + slab.getInt(graphPosition);
+		}
+		
+		byte[] subject(long address){
+			return read(slab(address), offset(address) + SUBJECT);
+		}
+		
+		byte[] graph(long address){
+			ByteBuffer slab = slab(address);
+			return read(slab, graphPosition(slab, address));
+		}
+		
+		byte[] data(long address){
+			ByteBuffer slab = slab(address);
+			return read(slab, dataPosition(slab, address));
+		}
+		
+		boolean subjectEquals(long address, byte[] subject){
+			return matches(slab(address), offset(address) + SUBJECT, subject);
+		}
+		
+		boolean graphEquals(long address, byte[] graph){
+			ByteBuffer slab = slab(address);
+			return matches(slab, graphPosition(slab, address), graph);
+		}
+		
+		// reads use absolute positions, or a duplicate, so that readers 
+		// don't interfere with each other 
+		private static byte[] read(ByteBuffer slab, int position){
+			byte[] bytes = new byte[slab.getInt(position)];
+			ByteBuffer view = slab.duplicate();
+			view.position(position + 4);
+			view.get(bytes);
+			return bytes;
+		}
+		
+		private static boolean matches(ByteBuffer slab, int position, byte[] bytes){
+			if (slab.getInt(position) != bytes.length){
+				return false;
+			}
+			for (int i=0; i<bytes.length; i++){
+				if (slab.get(position + 4 + i) != bytes[i]){
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+	/**
+	 * Open addressing hash table, with linear probing, from a key held in a
+	 * record to the record's address. Each slot is a pair of longs, the key's 
+	 * hash and the address. Removed entries leave a tombstone until the table
+	 * is next resized.
+	 */
+	private abstract class HashIndex{
+		
+		private static final long EMPTY = 0;
+		private static final long REMOVED = -1;
+		
+		private LongBuffer table;
+		private int capacity;
+		private int size;
+		private int used;
+		
+		HashIndex(int capacity){
+			allocate(capacity);
+		}
+		
+		private void allocate(int capacity){
+			this.capacity = capacity;
+			this.table = ByteBuffer.allocateDirect(capacity * 16).asLongBuffer();
+			this.size = 0;
+			this.used = 0;
+		}
+		
+		abstract boolean matches(long address, byte[] first, byte[] second);
+		
+		private int find(int hash, byte[] first, byte[] second){
+			int mask = capacity - 1;
+			for (int slot = hash & mask; ; slot = (slot + 1) & mask){
+				long address = table.get(slot * 2 + 1);
+				if (EMPTY == address){
+					return -1;
+				}
+				if (REMOVED != address && table.get(slot * 2) == hash && matches(address, first, second)){
+					return slot;
+				}
+			}
+		}
+		
+		long get(int hash, byte[] first, byte[] second){
+			int slot = find(hash, first, second);
+			return slot < 0 ? NONE : table.get(slot * 2 + 1);
+		}
+		
+		void put(int hash, byte[] first, byte[] second, long address){
+			int slot = find(hash, first, second);
+			if (slot >= 0){
+				table.put(slot * 2 + 1, address);
+				return;
+			}
+			if ((used + 1) * 2 > capacity){
+				resize();
+			}
+			insert(hash, address);
+			size++;
+		}
+		
+		private void insert(int hash, long address){
+			int mask = capacity - 1;
+			int slot = hash & mask;
+			while (true){
+				long current = table.get(slot * 2 + 1);
+				if (EMPTY == current || REMOVED == current){
+					if (EMPTY == current){
+						used++;
+					}
+					table.put(slot * 2, hash);
+					table.put(slot * 2 + 1, address);
+					return;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+		
+		long remove(int hash, byte[] first, byte[] second){
+			int slot = find(hash, first, second);
+			if (slot < 0){
+				return NONE;
+			}
+			long address = table.get(slot * 2 + 1);
+			table.put(slot * 2 + 1, REMOVED);
+			size--;
+			return address;
+		}
+		
+		// grow if mostly full of live entries, otherwise just clear out tombstones
+		private void resize(){
+			LongBuffer oldTable = table;
+			int oldCapacity = capacity;
+			allocate(size * 4 > oldCapacity ? oldCapacity * 2 : oldCapacity);
+			for (int slot = 0; slot < oldCapacity; slot++){
+				long address = oldTable.get(slot * 2 + 1);
+				if (EMPTY != address && REMOVED != address){
+					insert((int) oldTable.get(slot * 2), address);
+					size++;
+				}
+			}
+		}
+		
+		List<Long> addresses(){
+			List<Long> addresses = new ArrayList<Long>(size);
+			for (int slot = 0; slot < capacity; slot++){
+				long address = table.get(slot * 2 + 1);
+				if (EMPTY != address && REMOVED != address){
+					addresses.add(address);
+				}
+			}
+			return addresses;
+		}
+	}
+	
+	private class EntityIndex extends HashIndex{
+		EntityIndex(int capacity){
+			super(capacity);
+		}
+		@Override
+		boolean matches(long address, byte[] subject, byte[] graph) {
+			return arena.subjectEquals(address, subject) && arena.graphEquals(address, graph);
+		}
+	}
+	
+	private class SubjectIndex extends HashIndex{
+		SubjectIndex(int capacity){
+			super(capacity);
+		}
+		@Override
+		boolean matches(long address, byte[] subject, byte[] unused) {
+			return arena.subjectEquals(address, subject);
+		}
+	}
+	
+	private class GraphIndex extends HashIndex{
+		GraphIndex(int capacity){
+			super(capacity);
+		}
+		@Override
+		boolean matches(long address, byte[] graph, byte[] unused) {
+			return arena.graphEquals(address, graph);
+		}
+	}
+	
+	private class EntityIterator implements Iterator<Entry<Node, Iterable<Quad>>>{
+		
+		private final Iterator<Node> subjects;
+		private Entry<Node, Iterable<Quad>> next;
+		
+		EntityIterator(Iterator<Node> subjects){
+			this.subjects = subjects;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			// subjects with no live records, or deleted since, are skipped
+			while (null == next && subjects.hasNext()){
+				Node subject = subjects.next();
+				try{
+					Collection<Quad> quads = getEntity(subject);
+					if (! quads.isEmpty()){
+						next = new SimpleImmutableEntry<Node, Iterable<Quad>>(subject, quads);
+					}
+				}catch (EntityDatabaseException e){
+					LOG.error("Error during iteration", e);
+					throw new RuntimeException("Error retrieving quads for subject " + subject, e);
+				}
+			}
+			return null != next;
+		}
+
+		@Override
+		public Entry<Node, Iterable<Quad>> next() {
+			if (! hasNext()){
+				throw new NoSuchElementException();
+			}
+			Entry<Node, Iterable<Quad>> entity = next;
+			next = null;
+			return entity;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Not supported");
+		}
+	}
+}
@@ -16,23 +16,42 @@
 
 package com.talis.entity.db.ram;
 
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.sparql.core.Quad;
 import com.talis.entity.EntityDatabase;
 import com.talis.entity.EntityDatabaseException;
 
+/**
+ * In memory EntityDatabase, safe for use by many concurrent readers and writers.
+ * Entities are indexed by subject (in URI order) and then by graph, so subject 
+ * lookups are logarithmic in the number of subjects. Reads are lock free, over 
+ * concurrent maps. Writes take one of a fixed set of locks, striped by graph, 
+ * so that the subject index and the graph index are always updated together.
+ */
 public class RamEntityDatabase implements EntityDatabase {
 
+	private static final int LOCK_STRIPES = 64;
+	
 	public static final Comparator<? super Quad> QUAD_COMPARATOR = new Comparator<Quad>(){
 		@Override
 		public int compare(Quad a, Quad b) {
@@ -59,84 +78,172 @@ public class RamEntityDatabase implements EntityDatabase {
 		}
 	};
 	
-	private Map<String, Collection<Quad>> store = new TreeMap<String, Collection<Quad>>();
-	private Map<Node, Set<Node>> graphIndex = new HashMap<Node, Set<Node>>();
+	private final Lock[] locks;
+	private ConcurrentNavigableMap<Node, SubjectEntry> subjectIndex = new ConcurrentSkipListMap<Node, SubjectEntry>(NODE_COMPARATOR);
+	private ConcurrentMap<Node, Set<Node>> graphIndex = new ConcurrentHashMap<Node, Set<Node>>();
+	
+	public RamEntityDatabase(){
+		locks = new Lock[LOCK_STRIPES];
+		for (int i=0; i<LOCK_STRIPES; i++){
+			locks[i] = new ReentrantLock();
+		}
+	}
+	
+	private Lock lockFor(Node graph){
+		return locks[(graph.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+	}
 	
 	@Override
 	public void put(Node subject, Node graph, Collection<Quad> quads){
-		String key = getKey(subject, graph); 
-		store.put(key, quads);
-		Set<Node> subjects = graphIndex.get(graph);
-		if (null == subjects){
-			subjects = new HashSet<Node>();
-			graphIndex.put(graph, subjects);
+		// take a copy, callers are free to reuse their collection once we return
+		Collection<Quad> entity = Collections.unmodifiableCollection(new ArrayList<Quad>(quads));
+		Lock lock = lockFor(graph);
+		lock.lock();
+		try{
+			store(subject, graph, entity);
+			Set<Node> subjects = graphIndex.get(graph);
+			if (null == subjects){
+				subjects = Collections.newSetFromMap(new ConcurrentHashMap<Node, Boolean>());
+				graphIndex.put(graph, subjects);
+			}
+			subjects.add(subject);
+		}finally{
+			lock.unlock();
 		}
-		subjects.add(subject);
 	}
 
 	@Override
 	public void delete(Node subject, Node graph) {
-		store.remove(getKey(subject, graph));
-		graphIndex.remove(getKey(graph, subject));
+		Lock lock = lockFor(graph);
+		lock.lock();
+		try{
+			remove(subject, graph);
+			Set<Node> subjects = graphIndex.get(graph);
+			if (null != subjects){
+				subjects.remove(subject);
+				if (subjects.isEmpty()){
+					graphIndex.remove(graph);
+				}
+			}
+		}finally{
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public void deleteGraph(Node graph) {
-		Set<Node> subjects = graphIndex.get(graph);
-		if (null != subjects){
-			for (Node subjectToDelete : subjects) {
-				store.remove(getKey(subjectToDelete, graph));
+		Lock lock = lockFor(graph);
+		lock.lock();
+		try{
+			Set<Node> subjects = graphIndex.remove(graph);
+			if (null != subjects){
+				for (Node subjectToDelete : subjects) {
+					remove(subjectToDelete, graph);
+				}
+			}
+		}finally{
+			lock.unlock();
+		}
+	}
+	
+	// Writers to the same subject may hold different graph locks, so each entry 
+	// carries its own monitor. An entry is only detached from the index while 
+	// holding it, and a writer finding a detached entry retries with a new one.
+	private void store(Node subject, Node graph, Collection<Quad> entity){
+		while (true){
+			SubjectEntry entry = subjectIndex.get(subject);
+			if (null == entry){
+				entry = new SubjectEntry();
+				SubjectEntry existing = subjectIndex.putIfAbsent(subject, entry);
+				if (null != existing){
+					entry = existing;
+				}
+			}
+			synchronized (entry){
+				if (! entry.detached){
+					entry.graphs.put(graph, entity);
+					return;
+				}
+			}
+		}
+	}
+	
+	private void remove(Node subject, Node graph){
+		SubjectEntry entry = subjectIndex.get(subject);
+		if (null != entry){
+			synchronized (entry){
+				entry.graphs.remove(graph);
+				if (entry.graphs.isEmpty()){
+					entry.detached = true;
+					subjectIndex.remove(subject, entry);
+				}
 			}
 		}
-		graphIndex.remove(graph);
 	}
 
 	@Override
 	public Collection<Quad> get(Node subject) throws EntityDatabaseException {
-		String targetSubject = subject.toString();
+		return collect(subjectIndex.get(subject));
+	}
+	
+	private Collection<Quad> collect(SubjectEntry entry){
 		Collection<Quad> allQuads = new TreeSet<Quad>(QUAD_COMPARATOR);
-		for (String key : store.keySet()){
-			String[] parts = key.split("\t");
-			String thisSubject = parts[0];
-			if (thisSubject.equals(targetSubject)){
-				allQuads.addAll(store.get(thisSubject + "\t" + parts[1]));
+		if (null != entry){
+			for (Collection<Quad> entity : entry.graphs.values()){
+				allQuads.addAll(entity);
 			}
 		}
 		return allQuads;
 	}
 	
+	@Override
+	public Map<Node, Iterable<Quad>> getAll(Collection<Node> subjects) throws EntityDatabaseException {
+		Map<Node, Iterable<Quad>> results = new HashMap<Node, Iterable<Quad>>();
+		for (Node subject : subjects){
+			if (! results.containsKey(subject)){
+				results.put(subject, collect(subjectIndex.get(subject)));
+			}
+		}
+		return results;
+	}
+	
 	@Override
 	public Collection<Quad> getGraph(Node graph) throws EntityDatabaseException {
 		Collection<Quad> allQuads = new HashSet<Quad>();
 		Set<Node> subjects = graphIndex.get(graph);
 		if (null != subjects){
 			for (Node subject : subjects) {
-				allQuads.addAll(store.get(getKey(subject, graph)));
+				SubjectEntry entry = subjectIndex.get(subject);
+				if (null != entry){
+					Collection<Quad> entity = entry.graphs.get(graph);
+					if (null != entity){
+						allQuads.addAll(entity);
+					}
+				}
 			}
 		}
 		return allQuads;
 	}
+	
 	@Override
 	public boolean exists(Node subject) throws EntityDatabaseException {
-		String targetSubject = subject.toString();
-		for (String key : store.keySet()){
-			String[] parts = key.split("\t");
-			String thisSubject = parts[0];
-			if (thisSubject.equals(targetSubject)){
-				return true;
-			}
-		}
-		return false;
+		SubjectEntry entry = subjectIndex.get(subject);
+		return null != entry && ! entry.graphs.isEmpty();
 	}
 	
-	private String getKey(Node subject, Node graph){
-		return subject.getURI().concat("\t").concat(graph.getURI());
-	}
-
 	@Override
 	public void clear() throws EntityDatabaseException {
-		store.clear();
-		graphIndex.clear();
+		for (Lock lock : locks){
+			lock.lock();
+		}
+		try{
+			subjectIndex.clear();
+			graphIndex.clear();
+		}finally{
+			for (Lock lock : locks){
+				lock.unlock();
+			}
+		}
 	}
 
 	@Override
@@ -156,22 +263,64 @@ public class RamEntityDatabase implements EntityDatabase {
 
 	@Override 
 	public void close(){
-		store = null;
+		subjectIndex = null;
 		graphIndex = null;
 	}
 
 	@Override
 	public Iterable<Entry<Node, Iterable<Quad>>> all()
 			throws EntityDatabaseException {
-		String previous = null;
-		Map<Node, Iterable<Quad>> everything = new TreeMap<Node, Iterable<Quad>>(NODE_COMPARATOR);
-		for (String key : store.keySet()){
-			String subject = key.split("\t")[0];
-			if (key != previous){
-			  Node subjectURI = Node.createURI(subject);
-			  everything.put(subjectURI, get(subjectURI));
+		final Collection<Entry<Node, SubjectEntry>> entries = subjectIndex.entrySet();
+		return new Iterable<Entry<Node, Iterable<Quad>>>(){
+			@Override
+			public Iterator<Entry<Node, Iterable<Quad>>> iterator() {
+				return new EntityIterator(entries.iterator());
 			}
+		};
+	}
+	
+	private static final class SubjectEntry{
+		// compared by identity, so a detached entry can't be mistaken for its replacement
+		final ConcurrentMap<Node, Collection<Quad>> graphs = new ConcurrentHashMap<Node, Collection<Quad>>();
+		// guarded by the entry's monitor
+		boolean detached = false;
+	}
+	
+	private class EntityIterator implements Iterator<Entry<Node, Iterable<Quad>>>{
+		
+		private final Iterator<Entry<Node, SubjectEntry>> entries;
+		private Entry<Node, Iterable<Quad>> next;
+		
+		EntityIterator(Iterator<Entry<Node, SubjectEntry>> entries){
+			this.entries = entries;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			// entries emptied by concurrent deletes are skipped
+			while (null == next && entries.hasNext()){
+				Entry<Node, SubjectEntry> entry = entries.next();
+				Collection<Quad> quads = collect(entry.getValue());
+				if (! quads.isEmpty()){
+					next = new SimpleImmutableEntry<Node, Iterable<Quad>>(entry.getKey(), quads);
+				}
+			}
+			return null != next;
+		}
+
+		@Override
+		public Entry<Node, Iterable<Quad>> next() {
+			if (! hasNext()){
+				throw new NoSuchElementException();
+			}
+			Entry<Node, Iterable<Quad>> entity = next;
+			next = null;
+			return entity;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Not supported");
 		}
-		return everything.entrySet();
 	}
 }
@@ -0,0 +1,103 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.marshal;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import com.hp.hpl.jena.datatypes.TypeMapper;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.rdf.model.AnonId;
+
+/**
+ * Reads and writes single nodes as a one byte type tag followed by 
+ * length prefixed UTF-8 strings. No escaping is applied and no tokenizer 
+ * is needed to read them back.
+ */
+public final class BinaryNodeFormat {
+
+	public static final byte URI = 1;
+	public static final byte BLANK = 2;
+	public static final byte PLAIN_LITERAL = 3;
+	public static final byte LANG_LITERAL = 4;
+	public static final byte TYPED_LITERAL = 5;
+	
+	private static final String CHARSET = "UTF-8";
+	
+	private BinaryNodeFormat(){}
+	
+	public static void writeNode(DataOutput out, Node node) throws IOException{
+		if (node.isURI()){
+			out.writeByte(URI);
+			writeString(out, node.getURI());
+		}else if (node.isBlank()){
+			out.writeByte(BLANK);
+			writeString(out, node.getBlankNodeLabel());
+		}else if (node.isLiteral()){
+			String lang = node.getLiteralLanguage();
+			String datatype = node.getLiteralDatatypeURI();
+			if (null != datatype){
+				out.writeByte(TYPED_LITERAL);
+				writeString(out, node.getLiteralLexicalForm());
+				writeString(out, datatype);
+			}else if (null != lang && ! lang.isEmpty()){
+				out.writeByte(LANG_LITERAL);
+				writeString(out, node.getLiteralLexicalForm());
+				writeString(out, lang);
+			}else{
+				out.writeByte(PLAIN_LITERAL);
+				writeString(out, node.getLiteralLexicalForm());
+			}
+		}else{
+			throw new IOException("Unable to serialize node " + node);
+		}
+	}
+	
+	public static Node readNode(DataInput in) throws IOException{
+		byte tag = in.readByte();
+		switch(tag){
+			case URI :
+				return Node.createURI(readString(in));
+			case BLANK :
+				return Node.createAnon(new AnonId(readString(in)));
+			case PLAIN_LITERAL :
+				return Node.createLiteral(readString(in));
+			case LANG_LITERAL :
+				String lex = readString(in);
+				return Node.createLiteral(lex, readString(in), null);
+			case TYPED_LITERAL :
+				String lexical = readString(in);
+				return Node.createLiteral(lexical, null, 
+						TypeMapper.getInstance().getSafeTypeByName(readString(in)));
+			default :
+				throw new IOException("Unknown node type tag " + tag);
+		}
+	}
+	
+	private static void writeString(DataOutput out, String value) throws IOException{
+		byte[] bytes = value.getBytes(CHARSET);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	private static String readString(DataInput in) throws IOException{
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, CHARSET);
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.marshal;
+
+/**
+ * The on-disk representation used by a {@link Marshaller} when writing entities.
+ * Readers always accept both formats, so stores can be switched over gradually.
+ */
+public enum EntityFormat {
+	
+	/** Escaped N-Triples style predicate/object pairs, parsed with RIOT on read */
+	NTRIPLES,
+	
+	/** Length prefixed, type tagged nodes - see {@link BinaryNodeFormat} */
+	BINARY
+	
+}
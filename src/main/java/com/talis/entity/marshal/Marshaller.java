@@ -19,6 +19,8 @@ package com.talis.entity.marshal;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
@@ -39,18 +41,32 @@ import com.talis.entity.compress.NoopCodec;
 
 public class Marshaller{
 
+	// Binary entities start with a zero byte, which can never begin a
+	// serialized N-Triples pair, so the two formats can be told apart on read
+	public static final byte BINARY_FORMAT_MARKER = 0;
+	public static final byte BINARY_FORMAT_VERSION = 1;
+	
 	private final NodeFormatter nodeFmt = new NodeFormatterNT() ;
 	private final Codec codec;
+	private final EntityFormat format;
 	
 	public Marshaller(){
 		this(new NoopCodec());
 	}
 	
 	public Marshaller(Codec codec){
+		this(codec, EntityFormat.NTRIPLES);
+	}
+	
+	public Marshaller(Codec codec, EntityFormat format){
 		this.codec = codec;
+		this.format = format;
 	}
 	
 	public EntityDesc toEntityDesc(Node subject, Node graph, Collection<Quad> quads) throws IOException {
+		if (format == EntityFormat.BINARY){
+			return new EntityDesc(subject, graph, codec.encode(toBinary(quads)));
+		}
 		ByteArrayOutputStream out = new ByteArrayOutputStream();
 		BufferedWriter writer = new BufferedWriter( new OutputStreamWriter( out ) ) ;
 		for(Quad q : quads){
@@ -64,10 +80,13 @@ public class Marshaller{
 	}
 
 	public Collection<Quad> toQuads(EntityDesc desc) throws IOException {
+		byte[] bytes = codec.decode(desc.bytes);
+		if (bytes.length > 0 && bytes[0] == BINARY_FORMAT_MARKER){
+			return fromBinary(desc, bytes);
+		}
 		Collection<Quad> quads = new ArrayList<Quad>();
 		Tokenizer tokenizer = TokenizerFactory.makeTokenizerASCII(
-									new ByteArrayInputStream(
-											codec.decode(desc.bytes))) ;
+									new ByteArrayInputStream(bytes)) ;
         LangPair parser = new LangPair(tokenizer, RiotLib.profile(Lang.NTRIPLES, null));
         while(parser.hasNext()){
         	Pair<Node, Node> po = parser.next();
@@ -75,5 +94,36 @@ public class Marshaller{
         }
 		return quads;
 	}
+	
+	private byte[] toBinary(Collection<Quad> quads) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(BINARY_FORMAT_MARKER);
+		out.writeByte(BINARY_FORMAT_VERSION);
+		out.writeInt(quads.size());
+		for (Quad q : quads){
+			BinaryNodeFormat.writeNode(out, q.getPredicate());
+			BinaryNodeFormat.writeNode(out, q.getObject());
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+	
+	private Collection<Quad> fromBinary(EntityDesc desc, byte[] bytes) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		in.readByte();
+		byte version = in.readByte();
+		if (version != BINARY_FORMAT_VERSION){
+			throw new IOException("Unsupported binary entity format version " + version);
+		}
+		int count = in.readInt();
+		Collection<Quad> quads = new ArrayList<Quad>(count);
+		for (int i=0; i<count; i++){
+			Node predicate = BinaryNodeFormat.readNode(in);
+			Node object = BinaryNodeFormat.readNode(in);
+			quads.add(new Quad( desc.graph, desc.subject, predicate, object));
+		}
+		return quads;
+	}
 
 }
@@ -0,0 +1,133 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The distribution of a series of non-negative values, such as latencies in
+ * nanoseconds or sizes in bytes, recorded from any number of threads 
+ * without locking.
+ * 
+ * Values are counted in buckets of (at worst) around 6% of their magnitude, 
+ * 16 for each power of 2, so the memory used is fixed, percentiles are 
+ * accurate to within a bucket and nothing is ever discarded. Values below 
+ * 32 are counted exactly.
+ */
+public class Histogram implements Metric {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+	
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+	
+	/** Records a value, treating negative values as 0 */
+	public void update(long value){
+		if (value < 0){
+			value = 0;
+		}
+		buckets.incrementAndGet(bucketFor(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		long current;
+		while (value < (current = min.get()) && ! min.compareAndSet(current, value)){
+			// retry
+		}
+		while (value > (current = max.get()) && ! max.compareAndSet(current, value)){
+			// retry
+		}
+	}
+	
+	public long getCount(){
+		return count.get();
+	}
+	
+	public long getSum(){
+		return sum.get();
+	}
+	
+	/** The smallest value recorded, or 0 if there are none */
+	public long getMin(){
+		return count.get() == 0 ? 0 : min.get();
+	}
+	
+	/** The largest value recorded, or 0 if there are none */
+	public long getMax(){
+		return count.get() == 0 ? 0 : max.get();
+	}
+	
+	public double getMean(){
+		long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+	
+	/**
+	 * @param quantile Between 0 and 1, e.g. 0.99 for the 99th percentile
+	 * @return The upper bound of the bucket holding the value at the quantile,
+	 * never more than the largest value recorded, or 0 if there are no values
+	 */
+	public long getPercentile(double quantile){
+		if (quantile < 0 || quantile > 1){
+			throw new IllegalArgumentException("Quantile must be between 0 and 1");
+		}
+		// concurrent updates may land in buckets after the total was taken, 
+		// so count what's actually there
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i=0; i<BUCKETS; i++){
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0){
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+		for (int i=0; i<BUCKETS; i++){
+			seen += counts[i];
+			if (seen >= rank){
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+	
+	static int bucketFor(long value){
+		if (value < SUB_BUCKETS){
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	static long upperBound(int bucket){
+		if (bucket < SUB_BUCKETS){
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int shift = exponent - SUB_BUCKET_BITS;
+		long lower = (1L << exponent) | ((long) (bucket % SUB_BUCKETS) << shift);
+		return lower + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.metrics;
+
+import java.io.IOException;
+
+import com.talis.entity.compress.Codec;
+
+/**
+ * Wraps another Codec, recording the time taken (in nanoseconds) and the 
+ * compressed size of each entity encoded or decoded, as the histograms 
+ * codec.encode.time, codec.encode.bytes, codec.decode.time and 
+ * codec.decode.bytes.
+ */
+public class InstrumentedCodec implements Codec {
+
+	private final Codec codec;
+	private final Histogram encodeTime;
+	private final Histogram encodeBytes;
+	private final Histogram decodeTime;
+	private final Histogram decodeBytes;
+	
+	public InstrumentedCodec(Codec codec, MetricRegistry registry){
+		this.codec = codec;
+		encodeTime = registry.histogram("codec.encode.time");
+		encodeBytes = registry.histogram("codec.encode.bytes");
+		decodeTime = registry.histogram("codec.decode.time");
+		decodeBytes = registry.histogram("codec.decode.bytes");
+	}
+	
+	@Override
+	public byte[] encode(byte[] bytes) throws IOException {
+		long start = System.nanoTime();
+		byte[] encoded = codec.encode(bytes);
+		record(System.nanoTime() - start, encoded.length, encodeTime, encodeBytes);
+		return encoded;
+	}
+
+	@Override
+	public byte[] decode(byte[] bytes) throws IOException {
+		long start = System.nanoTime();
+		byte[] decoded = codec.decode(bytes);
+		record(System.nanoTime() - start, bytes.length, decodeTime, decodeBytes);
+		return decoded;
+	}
+	
+	private void record(long nanos, int compressedSize, Histogram time, Histogram size){
+		time.update(nanos);
+		size.update(compressedSize);
+		long[] totals = ThreadTimings.get();
+		totals[ThreadTimings.CODEC_NANOS] += nanos;
+		totals[ThreadTimings.BYTES] += compressedSize;
+	}
+}
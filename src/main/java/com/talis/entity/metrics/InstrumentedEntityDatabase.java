@@ -0,0 +1,387 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.metrics;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.EntityDatabaseException;
+
+/**
+ * Decorates an EntityDatabase, recording metrics for each operation in a
+ * MetricRegistry, named name.operation.metric:
+ * 
+ * time, storageTime, codecTime, marshalTime - histograms of the time taken
+ * in nanoseconds, split into the time spent in the codec, formatting or 
+ * parsing quads, and the remainder, which is the storage itself. The split 
+ * is only known when the delegate uses an InstrumentedMarshaller, and only 
+ * covers work done on the calling thread, otherwise storageTime is the whole 
+ * of the time.
+ * 
+ * bytes - a histogram of the (compressed) bytes written or read, again only 
+ * known with an InstrumentedMarshaller.
+ * 
+ * quads - a histogram of the quads in each entity written or read.
+ * 
+ * errors - a count of operations which failed, which aren't timed.
+ * 
+ * Results which the delegate reads lazily (e.g. with streaming reads) are
+ * timed until they have been iterated to the end, so a result which is 
+ * abandoned part way through isn't recorded. Each entity read through all()
+ * is recorded as an all.entity operation.
+ */
+public class InstrumentedEntityDatabase implements EntityDatabase {
+
+	public static final String DEFAULT_NAME = "entities";
+	
+	private final EntityDatabase delegate;
+	private final Operation put;
+	private final Operation delete;
+	private final Operation deleteGraph;
+	private final Operation exists;
+	private final Operation get;
+	private final Operation getGraph;
+	private final Operation getAll;
+	private final Operation all;
+	private final Operation allEntity;
+	private final Operation commit;
+	
+	public InstrumentedEntityDatabase(EntityDatabase delegate, MetricRegistry registry){
+		this(delegate, registry, DEFAULT_NAME);
+	}
+	
+	/**
+	 * @param name Prefixes the name of every metric, to tell databases sharing
+	 * a registry apart 
+	 */
+	public InstrumentedEntityDatabase(EntityDatabase delegate, MetricRegistry registry, String name){
+		this.delegate = delegate;
+		put = new Operation(registry, name + ".put");
+		delete = new Operation(registry, name + ".delete");
+		deleteGraph = new Operation(registry, name + ".deleteGraph");
+		exists = new Operation(registry, name + ".exists");
+		get = new Operation(registry, name + ".get");
+		getGraph = new Operation(registry, name + ".getGraph");
+		getAll = new Operation(registry, name + ".getAll");
+		all = new Operation(registry, name + ".all");
+		allEntity = new Operation(registry, name + ".all.entity");
+		commit = new Operation(registry, name + ".commit");
+	}
+	
+	@Override
+	public void put(Node subject, Node graph, Collection<Quad> quads) throws EntityDatabaseException {
+		Sample sample = new Sample();
+		boolean done = false;
+		try{
+			delegate.put(subject, graph, quads);
+			done = true;
+		}finally{
+			sample.stop();
+			put.record(sample, done);
+		}
+		put.quads.update(quads.size());
+	}
+
+	@Override
+	public void delete(Node subject, Node graph) throws EntityDatabaseException {
+		Sample sample = new Sample();
+		boolean done = false;
+		try{
+			delegate.delete(subject, graph);
+			done = true;
+		}finally{
+			sample.stop();
+			delete.record(sample, done);
+		}
+	}
+
+	@Override
+	public void deleteGraph(Node graph) throws EntityDatabaseException {
+		Sample sample = new Sample();
+		boolean done = false;
+		try{
+			delegate.deleteGraph(graph);
+			done = true;
+		}finally{
+			sample.stop();
+			deleteGraph.record(sample, done);
+		}
+	}
+
+	@Override
+	public boolean exists(Node subject) throws EntityDatabaseException {
+		Sample sample = new Sample();
+		boolean done = false;
+		try{
+			boolean found = delegate.exists(subject);
+			done = true;
+			return found;
+		}finally{
+			sample.stop();
+			exists.record(sample, done);
+		}
+	}
+
+	@Override
+	public Iterable<Quad> get(Node subject) throws EntityDatabaseException {
+		Sample sample = new Sample();
+		Iterable<Quad> quads = null;
+		try{
+			quads = delegate.get(subject);
+		}finally{
+			sample.stop();
+			if (null == quads){
+				get.record(sample, false);
+			}
+		}
+		return measure(quads, sample, get);
+	}
+
+	@Override
+	public Iterable<Quad> getGraph(Node graph) throws EntityDatabaseException {
+		Sample sample = new Sample();
+		Iterable<Quad> quads = null;
+		try{
+			quads = delegate.getGraph(graph);
+		}finally{
+			sample.stop();
+			if (null == quads){
+				getGraph.record(sample, false);
+			}
+		}
+		return measure(quads, sample, getGraph);
+	}
+
+	@Override
+	public Map<Node, Iterable<Quad>> getAll(Collection<Node> subjects) throws EntityDatabaseException {
+		Sample sample = new Sample();
+		boolean done = false;
+		try{
+			Map<Node, Iterable<Quad>> entities = delegate.getAll(subjects);
+			done = true;
+			for (Iterable<Quad> quads : entities.values()){
+				if (quads instanceof Collection){
+					getAll.quads.update(((Collection<Quad>) quads).size());
+				}
+			}
+			return entities;
+		}finally{
+			sample.stop();
+			getAll.record(sample, done);
+		}
+	}
+
+	@Override
+	public Iterable<Entry<Node, Iterable<Quad>>> all() throws EntityDatabaseException {
+		Sample sample = new Sample();
+		boolean done = false;
+		final Iterable<Entry<Node, Iterable<Quad>>> entities;
+		try{
+			entities = delegate.all();
+			done = true;
+		}finally{
+			sample.stop();
+			all.record(sample, done);
+		}
+		return new Iterable<Entry<Node, Iterable<Quad>>>(){
+			@Override
+			public Iterator<Entry<Node, Iterable<Quad>>> iterator() {
+				return new EntityIterator(entities.iterator());
+			}
+		};
+	}
+
+	@Override
+	public void clear() throws EntityDatabaseException {
+		delegate.clear();
+	}
+
+	@Override
+	public void close() throws EntityDatabaseException {
+		delegate.close();
+	}
+
+	@Override
+	public void begin() throws EntityDatabaseException {
+		delegate.begin();
+	}
+
+	@Override
+	public void commit() throws EntityDatabaseException {
+		Sample sample = new Sample();
+		boolean done = false;
+		try{
+			delegate.commit();
+			done = true;
+		}finally{
+			sample.stop();
+			commit.record(sample, done);
+		}
+	}
+
+	@Override
+	public void abort() throws EntityDatabaseException {
+		delegate.abort();
+	}
+	
+	// Collections have already been read, anything else is timed as it's iterated
+	private Iterable<Quad> measure(final Iterable<Quad> quads, final Sample sample, final Operation operation){
+		if (quads instanceof Collection){
+			operation.record(sample, true);
+			operation.quads.update(((Collection<Quad>) quads).size());
+			return quads;
+		}
+		return new Iterable<Quad>(){
+			private boolean measuring = false;
+			
+			@Override
+			public Iterator<Quad> iterator() {
+				synchronized(this){
+					if (measuring){
+						return quads.iterator();
+					}
+					measuring = true;
+				}
+				return new QuadIterator(quads, sample, operation);
+			}
+		};
+	}
+	
+	private static final class Operation {
+		private final Histogram time;
+		private final Histogram storageTime;
+		private final Histogram codecTime;
+		private final Histogram marshalTime;
+		private final Histogram bytes;
+		private final Histogram quads;
+		private final Counter errors;
+		
+		Operation(MetricRegistry registry, String name){
+			time = registry.histogram(name + ".time");
+			storageTime = registry.histogram(name + ".storageTime");
+			codecTime = registry.histogram(name + ".codecTime");
+			marshalTime = registry.histogram(name + ".marshalTime");
+			bytes = registry.histogram(name + ".bytes");
+			quads = registry.histogram(name + ".quads");
+			errors = registry.counter(name + ".errors");
+		}
+		
+		void record(Sample sample, boolean succeeded){
+			if (! succeeded){
+				errors.inc();
+				return;
+			}
+			time.update(sample.getNanos());
+			storageTime.update(sample.getStorageNanos());
+			codecTime.update(sample.getCodecNanos());
+			marshalTime.update(sample.getMarshalNanos());
+			bytes.update(sample.getBytes());
+		}
+	}
+	
+	private static final class QuadIterator implements Iterator<Quad> {
+		private final Iterator<Quad> quads;
+		private final Sample sample;
+		private final Operation operation;
+		private long count = 0;
+		private boolean recorded = false;
+		
+		QuadIterator(Iterable<Quad> quads, Sample sample, Operation operation){
+			sample.resume();
+			this.quads = quads.iterator();
+			sample.stop();
+			this.sample = sample;
+			this.operation = operation;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			sample.resume();
+			boolean hasNext = false;
+			try{
+				hasNext = quads.hasNext();
+			}finally{
+				sample.stop();
+			}
+			if (! hasNext && ! recorded){
+				recorded = true;
+				operation.record(sample, true);
+				operation.quads.update(count);
+			}
+			return hasNext;
+		}
+
+		@Override
+		public Quad next() {
+			sample.resume();
+			try{
+				Quad quad = quads.next();
+				count++;
+				return quad;
+			}finally{
+				sample.stop();
+			}
+		}
+
+		@Override
+		public void remove() {
+			quads.remove();
+		}
+	}
+	
+	private final class EntityIterator implements Iterator<Entry<Node, Iterable<Quad>>> {
+		private final Iterator<Entry<Node, Iterable<Quad>>> entities;
+		
+		EntityIterator(Iterator<Entry<Node, Iterable<Quad>>> entities){
+			this.entities = entities;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return entities.hasNext();
+		}
+
+		@Override
+		public Entry<Node, Iterable<Quad>> next() {
+			Sample sample = new Sample();
+			Entry<Node, Iterable<Quad>> entity = null;
+			try{
+				entity = entities.next();
+			}finally{
+				sample.stop();
+				if (null == entity){
+					allEntity.record(sample, false);
+				}
+			}
+			if (entity.getValue() instanceof Collection){
+				allEntity.quads.update(((Collection<Quad>) entity.getValue()).size());
+			}
+			allEntity.record(sample, true);
+			return entity;
+		}
+
+		@Override
+		public void remove() {
+			entities.remove();
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.metrics;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDesc;
+import com.talis.entity.compress.Codec;
+import com.talis.entity.marshal.EntityFormat;
+import com.talis.entity.marshal.Marshaller;
+
+/**
+ * A Marshaller which records the time spent formatting and parsing entities
+ * (in nanoseconds, not including the codec) as the histograms 
+ * marshaller.toEntityDesc.time and marshaller.toQuads.time. Its codec is 
+ * wrapped in an InstrumentedCodec recording to the same registry.
+ */
+public class InstrumentedMarshaller extends Marshaller {
+
+	private final Histogram formatTime;
+	private final Histogram parseTime;
+	
+	public InstrumentedMarshaller(Codec codec, MetricRegistry registry){
+		this(codec, EntityFormat.NTRIPLES, registry);
+	}
+	
+	public InstrumentedMarshaller(Codec codec, EntityFormat format, MetricRegistry registry){
+		super(new InstrumentedCodec(codec, registry), format);
+		formatTime = registry.histogram("marshaller.toEntityDesc.time");
+		parseTime = registry.histogram("marshaller.toQuads.time");
+	}
+	
+	@Override
+	public EntityDesc toEntityDesc(Node subject, Node graph, Collection<Quad> quads) throws IOException {
+		long[] totals = ThreadTimings.get();
+		long codecBefore = totals[ThreadTimings.CODEC_NANOS];
+		long start = System.nanoTime();
+		EntityDesc desc = super.toEntityDesc(subject, graph, quads);
+		record(System.nanoTime() - start - (totals[ThreadTimings.CODEC_NANOS] - codecBefore), formatTime);
+		return desc;
+	}
+	
+	@Override
+	public Collection<Quad> toQuads(EntityDesc desc) throws IOException {
+		long[] totals = ThreadTimings.get();
+		long codecBefore = totals[ThreadTimings.CODEC_NANOS];
+		long start = System.nanoTime();
+		Collection<Quad> quads = super.toQuads(desc);
+		record(System.nanoTime() - start - (totals[ThreadTimings.CODEC_NANOS] - codecBefore), parseTime);
+		return quads;
+	}
+	
+	private void record(long nanos, Histogram time){
+		time.update(nanos);
+		ThreadTimings.get()[ThreadTimings.MARSHAL_NANOS] += nanos;
+	}
+}
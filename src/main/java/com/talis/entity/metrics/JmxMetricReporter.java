@@ -0,0 +1,177 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes each metric in a registry as an MBean, named 
+ * domain:type=Histogram,name=metric-name (or type=Counter), for any JMX 
+ * console to read. Metrics registered after the reporter is started are
+ * published as they're added.
+ */
+public class JmxMetricReporter implements MetricRegistryListener {
+
+	private static final Logger LOG = LoggerFactory.getLogger(JmxMetricReporter.class);
+	
+	public static final String DEFAULT_DOMAIN = "com.talis.entity";
+	
+	private final MetricRegistry registry;
+	private final MBeanServer server;
+	private final String domain;
+	private final List<ObjectName> registered = new CopyOnWriteArrayList<ObjectName>();
+	
+	public JmxMetricReporter(MetricRegistry registry){
+		this(registry, ManagementFactory.getPlatformMBeanServer(), DEFAULT_DOMAIN);
+	}
+	
+	public JmxMetricReporter(MetricRegistry registry, MBeanServer server, String domain){
+		this.registry = registry;
+		this.server = server;
+		this.domain = domain;
+	}
+	
+	public void start(){
+		registry.addListener(this);
+	}
+	
+	/** Unregisters every MBean published by this reporter */
+	public void stop(){
+		registry.removeListener(this);
+		for (ObjectName name : registered){
+			try{
+				server.unregisterMBean(name);
+			}catch(JMException e){
+				LOG.warn("Unable to unregister MBean " + name, e);
+			}
+		}
+		registered.clear();
+	}
+	
+	@Override
+	public void metricAdded(String name, Metric metric) {
+		try{
+			if (metric instanceof Histogram){
+				register("Histogram", name, new StandardMBean(new JmxHistogram((Histogram) metric), HistogramMBean.class));
+			}else if (metric instanceof Counter){
+				register("Counter", name, new StandardMBean(new JmxCounter((Counter) metric), CounterMBean.class));
+			}
+		}catch(JMException e){
+			LOG.warn("Unable to register MBean for metric " + name, e);
+		}
+	}
+	
+	ObjectName getObjectName(String type, String name) throws JMException{
+		Hashtable<String, String> properties = new Hashtable<String, String>();
+		properties.put("type", type);
+		properties.put("name", ObjectName.quote(name));
+		return new ObjectName(domain, properties);
+	}
+	
+	private void register(String type, String name, Object mbean) throws JMException{
+		ObjectName objectName = getObjectName(type, name);
+		server.registerMBean(mbean, objectName);
+		registered.add(objectName);
+	}
+	
+	public interface CounterMBean {
+		public long getCount();
+	}
+	
+	public interface HistogramMBean {
+		public long getCount();
+		public long getMin();
+		public long getMax();
+		public double getMean();
+		public long get50thPercentile();
+		public long get95thPercentile();
+		public long get99thPercentile();
+		public long get999thPercentile();
+	}
+	
+	private static class JmxCounter implements CounterMBean {
+		private final Counter counter;
+		
+		JmxCounter(Counter counter){
+			this.counter = counter;
+		}
+		
+		@Override
+		public long getCount() {
+			return counter.getCount();
+		}
+	}
+	
+	private static class JmxHistogram implements HistogramMBean {
+		private final Histogram histogram;
+		
+		JmxHistogram(Histogram histogram){
+			this.histogram = histogram;
+		}
+		
+		@Override
+		public long getCount() {
+			return histogram.getCount();
+		}
+
+		@Override
+		public long getMin() {
+			return histogram.getMin();
+		}
+
+		@Override
+		public long getMax() {
+			return histogram.getMax();
+		}
+
+		@Override
+		public double getMean() {
+			return histogram.getMean();
+		}
+
+		@Override
+		public long get50thPercentile() {
+			return histogram.getPercentile(0.5);
+		}
+
+		@Override
+		public long get95thPercentile() {
+			return histogram.getPercentile(0.95);
+		}
+
+		@Override
+		public long get99thPercentile() {
+			return histogram.getPercentile(0.99);
+		}
+
+		@Override
+		public long get999thPercentile() {
+			return histogram.getPercentile(0.999);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.metrics;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Named metrics, created on first use and shared by everything asking for 
+ * the same name. A registry can be shared by several instrumented databases
+ * (given different names) and the codecs and marshallers they use, and
+ * published by adding a MetricRegistryListener.
+ */
+public class MetricRegistry {
+
+	private final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+	private final List<MetricRegistryListener> listeners = new CopyOnWriteArrayList<MetricRegistryListener>();
+	
+	public Counter counter(String name){
+		Metric metric = metrics.get(name);
+		if (null == metric){
+			metric = add(name, new Counter());
+		}
+		return cast(name, metric, Counter.class);
+	}
+	
+	public Histogram histogram(String name){
+		Metric metric = metrics.get(name);
+		if (null == metric){
+			metric = add(name, new Histogram());
+		}
+		return cast(name, metric, Histogram.class);
+	}
+	
+	/** A copy of the metrics, ordered by name */
+	public SortedMap<String, Metric> getMetrics(){
+		return new TreeMap<String, Metric>(metrics);
+	}
+	
+	/** Adds the listener, then tells it about every metric already registered */
+	public synchronized void addListener(MetricRegistryListener listener){
+		listeners.add(listener);
+		for (String name : getMetrics().keySet()){
+			listener.metricAdded(name, metrics.get(name));
+		}
+	}
+	
+	public synchronized void removeListener(MetricRegistryListener listener){
+		listeners.remove(listener);
+	}
+	
+	private synchronized Metric add(String name, Metric metric){
+		Metric existing = metrics.putIfAbsent(name, metric);
+		if (null != existing){
+			return existing;
+		}
+		for (MetricRegistryListener listener : listeners){
+			listener.metricAdded(name, metric);
+		}
+		return metric;
+	}
+	
+	private <T extends Metric> T cast(String name, Metric metric, Class<T> type){
+		if (! type.isInstance(metric)){
+			throw new IllegalArgumentException(
+					String.format("%s is already registered as a %s", name, metric.getClass().getSimpleName()));
+		}
+		return type.cast(metric);
+	}
+}
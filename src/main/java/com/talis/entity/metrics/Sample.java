@@ -0,0 +1,73 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.metrics;
+
+/**
+ * The time taken by a single operation, and how much of it was spent in
+ * codecs and marshalling on the calling thread. An operation whose results
+ * are read lazily may be timed in several parts, between resume() and 
+ * stop(), but each part must begin and end on the same thread.
+ */
+final class Sample {
+
+	private final long[] atStart = new long[3];
+	private long[] totals;
+	private long start;
+	
+	private long nanos;
+	private long codecNanos;
+	private long marshalNanos;
+	private long bytes;
+	
+	Sample(){
+		resume();
+	}
+	
+	void resume(){
+		totals = ThreadTimings.get();
+		System.arraycopy(totals, 0, atStart, 0, atStart.length);
+		start = System.nanoTime();
+	}
+	
+	void stop(){
+		nanos += System.nanoTime() - start;
+		codecNanos += totals[ThreadTimings.CODEC_NANOS] - atStart[ThreadTimings.CODEC_NANOS];
+		marshalNanos += totals[ThreadTimings.MARSHAL_NANOS] - atStart[ThreadTimings.MARSHAL_NANOS];
+		bytes += totals[ThreadTimings.BYTES] - atStart[ThreadTimings.BYTES];
+	}
+	
+	long getNanos(){
+		return nanos;
+	}
+	
+	long getCodecNanos(){
+		return codecNanos;
+	}
+	
+	long getMarshalNanos(){
+		return marshalNanos;
+	}
+	
+	/** Whatever wasn't spent in codecs or marshalling */
+	long getStorageNanos(){
+		return Math.max(0, nanos - codecNanos - marshalNanos);
+	}
+	
+	long getBytes(){
+		return bytes;
+	}
+}
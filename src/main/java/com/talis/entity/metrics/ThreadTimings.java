@@ -0,0 +1,42 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.metrics;
+
+/**
+ * Running totals of the time each thread has spent in codecs and marshalling,
+ * and the bytes it has encoded or decoded, so that an instrumented database
+ * can tell how much of an operation was spent outside of storage.
+ */
+final class ThreadTimings {
+
+	static final int CODEC_NANOS = 0;
+	static final int MARSHAL_NANOS = 1;
+	static final int BYTES = 2;
+	
+	private static final ThreadLocal<long[]> TOTALS = new ThreadLocal<long[]>(){
+		@Override
+		protected long[] initialValue() {
+			return new long[3];
+		}
+	};
+	
+	private ThreadTimings(){}
+	
+	static long[] get(){
+		return TOTALS.get();
+	}
+}
@@ -0,0 +1,321 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import com.google.common.base.Charsets;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+
+/**
+ * Generates a synthetic dataset of any size, so that benchmarks and tests 
+ * can run against millions (or billions) of quads without shipping them. 
+ * The quads are produced as they are read, and the same settings and seed 
+ * always produce the same quads.
+ * 
+ * Quads are produced sorted by subject, then by graph, as the bulk builder
+ * requires. Each subject has an entity in graphsPerSubject of the graphs, so
+ * each graph holds around subjects * graphsPerSubject / graphs subjects. The
+ * number of quads in an entity follows a Zipf distribution between 1 and 
+ * maxQuadsPerEntity, so most entities are small with a long tail of large 
+ * ones. Objects are either literals, of a length chosen uniformly from the 
+ * range given, or URIs of other subjects. Subject and object URIs are padded 
+ * to uriLength.
+ */
+public class SyntheticQuads implements Iterable<Quad> {
+
+	private static final String SUBJECT_BASE = "http://example.com/resource/";
+	private static final String GRAPH_BASE = "http://example.com/graph/";
+	private static final String PREDICATE_BASE = "http://example.com/vocab/p";
+	private static final char[] LETTERS = "abcdefghijklmnopqrstuvwxyz".toCharArray();
+	
+	private long seed = 42;
+	private long quads = 1000000;
+	private int graphs = 100;
+	private int graphsPerSubject = 2;
+	private int maxQuadsPerEntity = 100;
+	private double zipfExponent = 1.0;
+	private int predicates = 50;
+	private int literalPercent = 50;
+	private int minLiteralLength = 5;
+	private int maxLiteralLength = 100;
+	private int uriLength = 50;
+	
+	/** The total number of quads. The last entity is truncated to fit */
+	public SyntheticQuads setQuads(long quads){
+		checkPositive(quads, "quads");
+		this.quads = quads;
+		return this;
+	}
+	
+	public SyntheticQuads setSeed(long seed){
+		this.seed = seed;
+		return this;
+	}
+	
+	public SyntheticQuads setGraphs(int graphs){
+		checkPositive(graphs, "graphs");
+		this.graphs = graphs;
+		return this;
+	}
+	
+	/** The number of graphs each subject has an entity in, at most the number of graphs */
+	public SyntheticQuads setGraphsPerSubject(int graphsPerSubject){
+		checkPositive(graphsPerSubject, "graphs per subject");
+		this.graphsPerSubject = graphsPerSubject;
+		return this;
+	}
+	
+	public SyntheticQuads setMaxQuadsPerEntity(int maxQuadsPerEntity){
+		checkPositive(maxQuadsPerEntity, "quads per entity");
+		this.maxQuadsPerEntity = maxQuadsPerEntity;
+		return this;
+	}
+	
+	/** Larger exponents make large entities rarer, 0 makes every size equally likely */
+	public SyntheticQuads setZipfExponent(double zipfExponent){
+		if (zipfExponent < 0){
+			throw new IllegalArgumentException("Zipf exponent must not be negative");
+		}
+		this.zipfExponent = zipfExponent;
+		return this;
+	}
+	
+	public SyntheticQuads setPredicates(int predicates){
+		checkPositive(predicates, "predicates");
+		this.predicates = predicates;
+		return this;
+	}
+	
+	/** The percentage of objects which are literals rather than URIs */
+	public SyntheticQuads setLiteralPercent(int literalPercent){
+		if (literalPercent < 0 || literalPercent > 100){
+			throw new IllegalArgumentException("Literal percentage must be between 0 and 100");
+		}
+		this.literalPercent = literalPercent;
+		return this;
+	}
+	
+	public SyntheticQuads setLiteralLength(int min, int max){
+		checkPositive(min, "literal length");
+		if (max < min){
+			throw new IllegalArgumentException("Maximum literal length is less than the minimum");
+		}
+		this.minLiteralLength = min;
+		this.maxLiteralLength = max;
+		return this;
+	}
+	
+	/** Subject and object URIs are padded to this length, but never truncated */
+	public SyntheticQuads setUriLength(int uriLength){
+		this.uriLength = uriLength;
+		return this;
+	}
+	
+	public long getQuads(){
+		return quads;
+	}
+	
+	@Override
+	public Iterator<Quad> iterator(){
+		return new Generator();
+	}
+	
+	/** The quads serialized as (ASCII) N-Quads */
+	public InputStream openStream(){
+		return new NQuadsStream(new Generator());
+	}
+	
+	private static void checkPositive(long value, String name){
+		if (value < 1){
+			throw new IllegalArgumentException(String.format("Number of %s must be positive", name));
+		}
+	}
+	
+	private final class Generator implements Iterator<Quad> {
+		
+		private final Random random = new Random();
+		private final double[] zipfCdf;
+		private long produced = 0;
+		private long nextSubject = 0;
+		
+		private Node subject;
+		private int[] subjectGraphs;
+		private int graphIndex;
+		private Node graph;
+		private int remainingInEntity;
+		
+		Generator(){
+			zipfCdf = new double[maxQuadsPerEntity];
+			double total = 0;
+			for (int k=1; k<=maxQuadsPerEntity; k++){
+				total += 1 / Math.pow(k, zipfExponent);
+				zipfCdf[k - 1] = total;
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return produced < quads;
+		}
+
+		@Override
+		public Quad next() {
+			if (! hasNext()){
+				throw new NoSuchElementException();
+			}
+			while (remainingInEntity == 0){
+				if (null == subjectGraphs || graphIndex == subjectGraphs.length){
+					startSubject();
+				}
+				graph = Node.createURI(String.format("%s%09d", GRAPH_BASE, subjectGraphs[graphIndex++]));
+				remainingInEntity = quadsPerEntity();
+			}
+			remainingInEntity--;
+			produced++;
+			Node predicate = Node.createURI(PREDICATE_BASE + random.nextInt(predicates));
+			Node object;
+			if (random.nextInt(100) < literalPercent){
+				object = Node.createLiteral(letters(minLiteralLength + random.nextInt(maxLiteralLength - minLiteralLength + 1)));
+			}else{
+				object = Node.createURI(resourceUri(random.nextInt(Integer.MAX_VALUE)));
+			}
+			return new Quad(graph, subject, predicate, object);
+		}
+		
+		// each subject's quads depend only on the seed and the subject's 
+		// position, not on anything generated before it 
+		private void startSubject(){
+			random.setSeed(seed * 1000003 + nextSubject);
+			subject = Node.createURI(resourceUri(nextSubject++));
+			subjectGraphs = new int[Math.min(graphsPerSubject, graphs)];
+			for (int i=0; i<subjectGraphs.length; i++){
+				subjectGraphs[i] = subjectGraphs.length == graphs ? i : distinctGraph(i);
+			}
+			Arrays.sort(subjectGraphs);
+			graphIndex = 0;
+		}
+		
+		// a graph not already among the first count chosen for this subject 
+		private int distinctGraph(int count){
+			while (true){
+				int candidate = random.nextInt(graphs);
+				boolean seen = false;
+				for (int i=0; i<count && !seen; i++){
+					seen = subjectGraphs[i] == candidate;
+				}
+				if (! seen){
+					return candidate;
+				}
+			}
+		}
+		
+		private int quadsPerEntity(){
+			double target = random.nextDouble() * zipfCdf[zipfCdf.length - 1];
+			int index = Arrays.binarySearch(zipfCdf, target);
+			return (index >= 0 ? index : -index - 1) + 1;
+		}
+		
+		// fixed width numbering keeps subjects in key order 
+		private String resourceUri(long index){
+			StringBuilder uri = new StringBuilder(String.format("%s%012d", SUBJECT_BASE, index));
+			if (uri.length() < uriLength){
+				uri.append('/');
+				while (uri.length() < uriLength){
+					uri.append(LETTERS[random.nextInt(LETTERS.length)]);
+				}
+			}
+			return uri.toString();
+		}
+		
+		private String letters(int length){
+			char[] chars = new char[length];
+			for (int i=0; i<length; i++){
+				chars[i] = random.nextInt(7) == 0 ? ' ' : LETTERS[random.nextInt(LETTERS.length)];
+			}
+			return new String(chars);
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	// Every node is either a URI or a plain literal of letters and spaces, 
+	// so nothing needs escaping
+	private static final class NQuadsStream extends InputStream {
+		
+		private final Iterator<Quad> quads;
+		private byte[] line = new byte[0];
+		private int position = 0;
+		
+		NQuadsStream(Iterator<Quad> quads){
+			this.quads = quads;
+		}
+		
+		@Override
+		public int read() {
+			if (! fill()){
+				return -1;
+			}
+			return line[position++] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0){
+				return 0;
+			}
+			if (! fill()){
+				return -1;
+			}
+			int count = Math.min(len, line.length - position);
+			System.arraycopy(line, position, b, off, count);
+			position += count;
+			return count;
+		}
+		
+		private boolean fill(){
+			if (position < line.length){
+				return true;
+			}
+			if (! quads.hasNext()){
+				return false;
+			}
+			Quad quad = quads.next();
+			StringBuilder builder = new StringBuilder();
+			builder.append('<').append(quad.getSubject().getURI()).append("> <")
+					.append(quad.getPredicate().getURI()).append("> ");
+			Node object = quad.getObject();
+			if (object.isURI()){
+				builder.append('<').append(object.getURI()).append('>');
+			}else{
+				builder.append('"').append(object.getLiteralLexicalForm()).append('"');
+			}
+			builder.append(" <").append(quad.getGraph().getURI()).append("> .\n");
+			line = builder.toString().getBytes(Charsets.US_ASCII);
+			position = 0;
+			return true;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.openjena.atlas.lib.Sink;
+import org.openjena.riot.RiotReader;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.db.babudb.Keys;
+
+public class SyntheticQuadsTest {
+
+	@Test
+	public void producesRequestedNumberOfQuads(){
+		assertEquals(12345, Iterables.size(new SyntheticQuads().setQuads(12345)));
+	}
+	
+	@Test
+	public void sameSeedProducesSameQuads(){
+		SyntheticQuads quads = new SyntheticQuads().setQuads(5000).setSeed(7);
+		assertEquals(Lists.newArrayList(quads), Lists.newArrayList(new SyntheticQuads().setQuads(5000).setSeed(7)));
+		assertFalse(Lists.newArrayList(quads).equals(Lists.newArrayList(new SyntheticQuads().setQuads(5000).setSeed(8))));
+	}
+	
+	@Test
+	public void quadsAreSortedBySubjectThenGraph(){
+		String previous = "";
+		for (Quad quad : new SyntheticQuads().setQuads(20000).setGraphs(5).setGraphsPerSubject(3)){
+			String key = Keys.getKeyString(quad.getSubject(), quad.getGraph());
+			assertTrue(key.compareTo(previous) >= 0);
+			previous = key;
+		}
+	}
+	
+	@Test
+	public void entitySizesAndShapesFollowSettings(){
+		SyntheticQuads quads = new SyntheticQuads().setQuads(50000).setGraphs(10).setGraphsPerSubject(2)
+										.setMaxQuadsPerEntity(20).setLiteralPercent(100)
+										.setLiteralLength(10, 10).setUriLength(80);
+		Map<String, Integer> entitySizes = new HashMap<String, Integer>();
+		Map<Node, Integer> graphsPerSubject = new HashMap<Node, Integer>();
+		Node lastSubject = null;
+		for (Quad quad : quads){
+			lastSubject = quad.getSubject();
+			String key = Keys.getKeyString(quad.getSubject(), quad.getGraph());
+			Integer size = entitySizes.get(key);
+			if (null == size){
+				Integer graphs = graphsPerSubject.get(quad.getSubject());
+				graphsPerSubject.put(quad.getSubject(), null == graphs ? 1 : graphs + 1);
+				size = 0;
+			}
+			entitySizes.put(key, size + 1);
+			assertEquals(80, quad.getSubject().getURI().length());
+			assertEquals(10, quad.getObject().getLiteralLexicalForm().length());
+		}
+		int singles = 0;
+		for (int size : entitySizes.values()){
+			assertTrue(size <= 20);
+			if (size == 1){
+				singles++;
+			}
+		}
+		// the most likely size under the Zipf distribution
+		assertTrue(singles > entitySizes.size() / 5);
+		// the quad limit may cut the final subject short
+		for (Map.Entry<Node, Integer> graphs : graphsPerSubject.entrySet()){
+			if (graphs.getKey().equals(lastSubject)){
+				assertTrue(graphs.getValue() <= 2);
+			}else{
+				assertEquals(2, graphs.getValue().intValue());
+			}
+		}
+	}
+	
+	@Test
+	public void streamParsesAsTheSameQuads(){
+		SyntheticQuads quads = new SyntheticQuads().setQuads(5000);
+		final List<Quad> parsed = new ArrayList<Quad>();
+		RiotReader.createParserNQuads(quads.openStream(), new Sink<Quad>(){
+			@Override
+			public void send(Quad quad) {
+				parsed.add(quad);
+			}
+			@Override
+			public void flush() {}
+			@Override
+			public void close() {}
+		}).parse();
+		Iterator<Quad> generated = quads.iterator();
+		for (Quad quad : parsed){
+			assertEquals(generated.next(), quad);
+		}
+		assertFalse(generated.hasNext());
+	}
+}
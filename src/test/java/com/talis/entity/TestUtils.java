@@ -23,6 +23,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 import org.openjena.riot.out.OutputLangUtils;
@@ -44,6 +45,28 @@ public class TestUtils {
 		return quads;
 	}
 	
+	// N-Quads sorted by subject then graph, each subject described in every 
+	// graph by one quad per predicate
+	public static List<String> getNQuadLines(int subjects, int graphs, int predicates){
+		List<String> lines = new ArrayList<String>();
+		for (int i=0; i<subjects; i++){
+			for (int g=0; g<graphs; g++){
+				for (int p=0; p<predicates; p++){
+					lines.add(String.format("<http://example.com/s/%05d> <http://example.com/p/%s> \"%s\" <http://example.com/g/%s> .\n", i, p, i, g));
+				}
+			}
+		}
+		return lines;
+	}
+	
+	public static String getNQuads(int subjects, int graphs, int predicates){
+		StringBuilder quads = new StringBuilder();
+		for (String line : getNQuadLines(subjects, graphs, predicates)){
+			quads.append(line);
+		}
+		return quads.toString();
+	}
+	
 	public static void printQuads(Iterable<Quad> quads){
 		PrintWriter out = new PrintWriter(System.out);
 		for (Quad quad : quads){
@@ -0,0 +1,45 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.compress;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.talis.entity.marshal.MarshallerTestBase;
+
+public class CountingCodecTest extends MarshallerTestBase{
+
+	@Override
+	protected Codec getCodec() {
+		return new CountingCodec(new SnappyCodec());
+	}
+	
+	@Test
+	public void countsBytesBeforeAndAfterEncoding() throws Exception{
+		CountingCodec codec = new CountingCodec(new SnappyCodec());
+		byte[] bytes = new byte[1000];
+		byte[] encoded = codec.encode(bytes);
+		codec.encode(bytes);
+		codec.decode(encoded);
+		assertEquals(2000, codec.getUncompressedBytes());
+		assertEquals(encoded.length * 2, codec.getCompressedBytes());
+		assertTrue(codec.getCompressedBytes() < codec.getUncompressedBytes());
+	}
+
+}
@@ -19,10 +19,8 @@ package com.talis.entity.db;
 import static com.talis.entity.TestUtils.showMemory;
 import static com.talis.entity.TestUtils.tryForceGC;
 
-import java.io.BufferedInputStream;
 import java.io.InputStream;
 import java.util.concurrent.CountDownLatch;
-import java.util.zip.GZIPInputStream;
 
 import org.junit.After;
 import org.junit.Before;
@@ -32,6 +30,7 @@ import org.openjena.riot.RiotReader;
 
 import com.hp.hpl.jena.sparql.core.Quad;
 import com.talis.entity.EntityDatabase;
+import com.talis.entity.SyntheticQuads;
 
 public abstract class EntityDatabaseConcurrencyTestBase {
 	
@@ -40,6 +39,9 @@ public abstract class EntityDatabaseConcurrencyTestBase {
 	protected Runtime runtime;
 	public static final int NUM_DBS = 5;
 	
+	// size of the generated dataset loaded into each database
+	public static final long QUADS = Long.getLong("com.talis.entity.test.quads", 1000000);
+	
 	@Before
 	public void setup() throws Exception{
 		tryForceGC();
@@ -70,16 +72,11 @@ public abstract class EntityDatabaseConcurrencyTestBase {
 	
 	@Test
 	public void benchmarkLoadingDataset() throws Exception{
-		String resource = "/1-million-quads.nq.gz";
-//		String resource = "/test-1.nq.gz";
-		
-		System.out.println("Loading dataset");
+		System.out.println(String.format("Loading dataset of %s quads", QUADS));
 		CountDownLatch startGate = new CountDownLatch(1);
 		CountDownLatch endGate = new CountDownLatch(dbs.length);
 		for (int i=0;i<NUM_DBS;i++){
-			InputStream in = new GZIPInputStream(
-								new BufferedInputStream(
-									this.getClass().getResourceAsStream(resource)));
+			InputStream in = new SyntheticQuads().setQuads(QUADS).openStream();
 			new Thread(new LoadWorker(i, dbs[i], in, startGate, endGate)).start();
 		}
 		long start = System.currentTimeMillis();
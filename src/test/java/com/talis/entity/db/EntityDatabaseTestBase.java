@@ -23,7 +23,9 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.junit.Before;
@@ -243,4 +245,24 @@ public abstract class EntityDatabaseTestBase {
  		assertQuadIterablesEqual(fourthQuads, results.get(3).getValue());
 	}
 	
+	@Test
+	public void getAllEntitiesAtOnce() throws Exception{
+		Node secondSubject = Node.createURI(subject.getURI() + "1");
+		Collection<Quad> secondQuads = getQuads(graph, secondSubject, 5);
+		Node secondGraph = Node.createURI(graph.getURI() + "1");
+		Collection<Quad> moreSecondQuads = getQuads(secondGraph, secondSubject, 5);
+		Node unknownSubject = Node.createURI(subject.getURI() + "2");
+		
+		db.put(subject, graph, quads);
+		db.put(secondSubject, graph, secondQuads);
+		db.put(secondSubject, secondGraph, moreSecondQuads);
+		
+		Map<Node, Iterable<Quad>> results = db.getAll(
+				Arrays.asList(unknownSubject, secondSubject, subject, secondSubject));
+		assertEquals(3, results.size());
+		assertQuadIterablesEqual(quads, results.get(subject));
+		assertQuadIterablesEqual(Iterables.concat(secondQuads, moreSecondQuads), results.get(secondSubject));
+		assertTrue(Iterables.isEmpty(results.get(unknownSubject)));
+	}
+	
 }
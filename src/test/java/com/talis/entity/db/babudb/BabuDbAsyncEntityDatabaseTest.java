@@ -0,0 +1,148 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import static com.talis.entity.TestUtils.assertQuadIterablesEqual;
+import static com.talis.entity.TestUtils.getQuads;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
+
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabaseException;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.marshal.Marshaller;
+
+public class BabuDbAsyncEntityDatabaseTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+	
+	private Node subject;
+	private Node graph;
+	private Collection<Quad> quads;
+	private DatabaseManager dbManager;
+	private BabuDbEntityDatabase db;
+	private ExecutorService executor;
+	private BabuDbAsyncEntityDatabase asyncDb;
+	
+	@Before
+	public void setup() throws Exception{
+		subject = Node.createURI("http://example.com/s");
+		graph = Node.createURI("http://example.com/g");
+		quads = getQuads(graph, subject, 30);
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		db = new BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), "test-id", dbManager);
+		executor = Executors.newFixedThreadPool(2);
+		asyncDb = new BabuDbAsyncEntityDatabase(db, executor);
+	}
+	
+	@After
+	public void tearDown() throws Exception{
+		executor.shutdown();
+		db.close();
+		dbManager.shutDown();
+	}
+	
+	@Test
+	public void roundTripStatements() throws Exception{
+		asyncDb.put(subject, graph, quads).get();
+		assertQuadIterablesEqual(quads, asyncDb.get(subject).get());
+		assertQuadIterablesEqual(quads, db.get(subject));
+	}
+	
+	@Test
+	public void unknownSubjectAndGraphAreEmpty() throws Exception{
+		assertTrue(Iterables.isEmpty(asyncDb.get(subject).get()));
+		assertTrue(Iterables.isEmpty(asyncDb.getGraph(graph).get()));
+	}
+	
+	@Test
+	public void overlapRequestsForManyEntities() throws Exception{
+		int subjects = 100;
+		Collection<Quad> allQuads = new ArrayList<Quad>();
+		List<ListenableFuture<Void>> writes = new ArrayList<ListenableFuture<Void>>();
+		for (int i=0; i<subjects; i++){
+			Node thisSubject = Node.createURI(subject.getURI() + "/" + i);
+			Collection<Quad> entity = getQuads(graph, thisSubject, 10);
+			allQuads.addAll(entity);
+			writes.add(asyncDb.put(thisSubject, graph, entity));
+		}
+		Futures.allAsList(writes).get();
+		
+		List<ListenableFuture<Iterable<Quad>>> reads = new ArrayList<ListenableFuture<Iterable<Quad>>>();
+		for (int i=0; i<subjects; i++){
+			reads.add(asyncDb.get(Node.createURI(subject.getURI() + "/" + i)));
+		}
+		Collection<Quad> results = new ArrayList<Quad>();
+		for (Iterable<Quad> entity : Futures.allAsList(reads).get()){
+			Iterables.addAll(results, entity);
+		}
+		assertQuadIterablesEqual(allQuads, results);
+		assertQuadIterablesEqual(allQuads, asyncDb.getGraph(graph).get());
+	}
+	
+	@Test
+	public void deleteEntity() throws Exception{
+		Node otherGraph = Node.createURI("http://example.com/other");
+		Collection<Quad> otherQuads = getQuads(otherGraph, subject, 5);
+		asyncDb.put(subject, graph, quads).get();
+		asyncDb.put(subject, otherGraph, otherQuads).get();
+		asyncDb.delete(subject, graph).get();
+		assertQuadIterablesEqual(otherQuads, asyncDb.get(subject).get());
+		assertTrue(Iterables.isEmpty(asyncDb.getGraph(graph).get()));
+		assertFalse(Iterables.isEmpty(asyncDb.getGraph(otherGraph).get()));
+	}
+	
+	@Test
+	public void decodeFailuresFailTheFuture() throws Exception{
+		byte[] storageKey = db.getKeys().getStorageKey(subject, graph);
+		DatabaseInsertGroup batch = db.getDb().createInsertGroup();
+		batch.addInsert(BabuDbEntityDatabase.SUBJECT_INDEX, storageKey, new byte[]{ -1, -1, -1, -1, -1 });
+		batch.addInsert(BabuDbEntityDatabase.GRAPH_INDEX, db.getKeys().getInverseKey(subject, graph), storageKey);
+		db.getDb().insert(batch, null).get();
+		assertFailsWithEntityDatabaseException(asyncDb.get(subject));
+		assertFailsWithEntityDatabaseException(asyncDb.getGraph(graph));
+	}
+	
+	private void assertFailsWithEntityDatabaseException(ListenableFuture<?> future) throws Exception{
+		try{
+			future.get();
+			fail("Expected lookup to fail");
+		}catch (ExecutionException e){
+			assertTrue(e.getCause() instanceof EntityDatabaseException);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import static com.talis.entity.TestUtils.assertQuadIterablesEqual;
+import static com.talis.entity.TestUtils.getQuads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.db.EntityDatabaseTestBase;
+import com.talis.entity.marshal.Marshaller;
+
+public class BabuDbEntityDatabaseBlockCacheTest extends EntityDatabaseTestBase {
+
+	private DatabaseManager dbManager;
+	
+	@Before
+	public void setup() throws Exception{
+		System.setProperty(BlockCache.MAX_BYTES_PROPERTY, "" + 1024 * 1024);
+		System.setProperty(BlockCache.OFF_HEAP_PROPERTY, "true");
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		super.setup();
+	}
+	
+	@After
+	public void tearDown() throws Exception{
+		System.clearProperty(BlockCache.MAX_BYTES_PROPERTY);
+		System.clearProperty(BlockCache.OFF_HEAP_PROPERTY);
+		db.close();
+		dbManager.shutDown();
+	}
+	
+	@Override
+	public EntityDatabase getDatabase() {
+		return new BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), id, dbManager);
+	}
+	
+	private BlockCache getBlockCache(){
+		return ((BabuDbEntityDatabase)db).getBlockCache();
+	}
+	
+	@Test
+	public void repeatedLookupsAreServedFromCache() throws Exception{
+		db.put(subject, graph, quads);
+		assertQuadIterablesEqual(quads, db.get(subject));
+		long misses = getBlockCache().getMissCount();
+		assertQuadIterablesEqual(quads, db.get(subject));
+		assertTrue(db.exists(subject));
+		assertEquals(misses, getBlockCache().getMissCount());
+		assertEquals(2, getBlockCache().getHitCount());
+	}
+	
+	@Test
+	public void writesInvalidateCachedEntries() throws Exception{
+		db.put(subject, graph, quads);
+		assertQuadIterablesEqual(quads, db.get(subject));
+		assertQuadIterablesEqual(quads, db.getGraph(graph));
+		
+		Collection<Quad> replacement = getQuads(graph, subject, 5);
+		db.put(subject, graph, replacement);
+		assertQuadIterablesEqual(replacement, db.get(subject));
+		assertQuadIterablesEqual(replacement, db.getGraph(graph));
+		
+		db.deleteGraph(graph);
+		assertTrue(Iterables.isEmpty(db.get(subject)));
+		assertFalse(db.exists(subject));
+	}
+	
+	@Test
+	public void committedTransactionInvalidatesCachedEntries() throws Exception{
+		db.put(subject, graph, quads);
+		assertQuadIterablesEqual(quads, db.get(subject));
+		Collection<Quad> replacement = getQuads(graph, subject, 5);
+		db.begin();
+		db.put(subject, graph, replacement);
+		assertQuadIterablesEqual(replacement, db.get(subject));
+		db.commit();
+		assertQuadIterablesEqual(replacement, db.get(subject));
+	}
+}
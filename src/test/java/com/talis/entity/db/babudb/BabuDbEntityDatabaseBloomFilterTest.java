@@ -0,0 +1,113 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import static com.talis.entity.TestUtils.assertQuadIterablesEqual;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.hp.hpl.jena.graph.Node;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.db.EntityDatabaseTestBase;
+import com.talis.entity.marshal.Marshaller;
+
+public class BabuDbEntityDatabaseBloomFilterTest extends EntityDatabaseTestBase {
+
+	private DatabaseManager dbManager;
+	
+	@Before
+	public void setup() throws Exception{
+		System.setProperty(BabuDbEntityDatabase.BLOOM_FILTER_PROPERTY, "true");
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		super.setup();
+	}
+	
+	@After
+	public void tearDown() throws Exception{
+		System.clearProperty(BabuDbEntityDatabase.BLOOM_FILTER_PROPERTY);
+		db.close();
+		dbManager.shutDown();
+	}
+	
+	@Override
+	public EntityDatabase getDatabase() {
+		return new BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), id, dbManager);
+	}
+	
+	private File getFilterFile(){
+		return new File(tmpDir.getRoot(), id + BabuDbEntityDatabase.BLOOM_FILTER_SUFFIX);
+	}
+	
+	private void restart() throws Exception{
+		db.close();
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		db = getDatabase();
+	}
+	
+	@Test
+	public void filterIsSavedOnCloseAndRemovedOnOpen() throws Exception{
+		db.put(subject, graph, quads);
+		db.close();
+		assertTrue(getFilterFile().exists());
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		db = getDatabase();
+		assertFalse(getFilterFile().exists());
+		assertTrue(db.exists(subject));
+		assertQuadIterablesEqual(quads, db.get(subject));
+		assertFalse(db.exists(Node.createURI("http://example.com/unknown")));
+	}
+	
+	@Test
+	public void filterIsRebuiltWhenMissing() throws Exception{
+		db.put(subject, graph, quads);
+		db.close();
+		assertTrue(getFilterFile().delete());
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		db = getDatabase();
+		assertTrue(db.exists(subject));
+		assertQuadIterablesEqual(quads, db.get(subject));
+	}
+	
+	@Test
+	public void unknownSubjectsAreNotFound() throws Exception{
+		db.put(subject, graph, quads);
+		restart();
+		for (int i=0; i<1000; i++){
+			Node unknown = Node.createURI("http://example.com/unknown/" + i);
+			assertFalse(db.exists(unknown));
+			assertTrue(Iterables.isEmpty(db.get(unknown)));
+		}
+	}
+	
+	@Test
+	public void asyncWritesAreVisibleToSyncReads() throws Exception{
+		BabuDbAsyncEntityDatabase asyncDb = 
+				new BabuDbAsyncEntityDatabase((BabuDbEntityDatabase)db, MoreExecutors.sameThreadExecutor());
+		asyncDb.put(subject, graph, quads).get();
+		assertTrue(db.exists(subject));
+		assertQuadIterablesEqual(quads, db.get(subject));
+	}
+}
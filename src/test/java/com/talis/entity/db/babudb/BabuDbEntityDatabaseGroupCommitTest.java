@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import static com.talis.entity.TestUtils.assertQuadIterablesEqual;
+import static com.talis.entity.TestUtils.getQuads;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.db.EntityDatabaseTestBase;
+import com.talis.entity.marshal.Marshaller;
+
+public class BabuDbEntityDatabaseGroupCommitTest extends EntityDatabaseTestBase {
+
+	private DatabaseManager dbManager;
+	
+	@Before
+	public void setup() throws Exception{
+		System.setProperty(BabuDbEntityDatabase.GROUP_COMMIT_WINDOW_PROPERTY, "5");
+		System.setProperty(DatabaseManager.LOG_SYNC_MODE_PROPERTY, "FSYNC");
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		super.setup();
+	}
+	
+	@After
+	public void tearDown() throws Exception{
+		System.clearProperty(BabuDbEntityDatabase.GROUP_COMMIT_WINDOW_PROPERTY);
+		System.clearProperty(DatabaseManager.LOG_SYNC_MODE_PROPERTY);
+		db.close();
+		dbManager.shutDown();
+	}
+	
+	@Override
+	public EntityDatabase getDatabase() {
+		return new BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), id, dbManager);
+	}
+	
+	@Test
+	public void concurrentWritesAreAllApplied() throws Exception{
+		int writers = 8;
+		final int subjectsPerWriter = 50;
+		ExecutorService executor = Executors.newFixedThreadPool(writers);
+		Collection<Quad> expected = new ArrayList<Quad>();
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		try{
+			for (int i=0; i<writers; i++){
+				final List<Collection<Quad>> entities = new ArrayList<Collection<Quad>>();
+				for (int j=0; j<subjectsPerWriter; j++){
+					Node thisSubject = Node.createURI(subject.getURI() + "/" + i + "/" + j);
+					Collection<Quad> entity = getQuads(graph, thisSubject, 5);
+					entities.add(entity);
+					expected.addAll(entity);
+				}
+				results.add(executor.submit(new Callable<Void>(){
+					@Override
+					public Void call() throws Exception {
+						for (Collection<Quad> entity : entities){
+							Quad first = entity.iterator().next();
+							db.put(first.getSubject(), graph, entity);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> result : results){
+				result.get();
+			}
+		}finally{
+			executor.shutdown();
+		}
+		assertQuadIterablesEqual(expected, db.getGraph(graph));
+	}
+	
+}
@@ -0,0 +1,74 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import static com.talis.entity.TestUtils.assertQuadIterablesEqual;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Node;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.db.EntityDatabaseTestBase;
+import com.talis.entity.marshal.Marshaller;
+
+public class BabuDbEntityDatabaseNodeDictionaryTest extends EntityDatabaseTestBase {
+
+	private DatabaseManager dbManager;
+	
+	@Before
+	public void setup() throws Exception{
+		System.setProperty(BabuDbEntityDatabase.NODE_DICTIONARY_PROPERTY, "true");
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		super.setup();
+	}
+	
+	@After
+	public void tearDown() throws Exception{
+		System.clearProperty(BabuDbEntityDatabase.NODE_DICTIONARY_PROPERTY);
+		db.close();
+		dbManager.shutDown();
+	}
+	
+	@Override
+	public EntityDatabase getDatabase() {
+		return new BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), id, dbManager);
+	}
+	
+	@Test
+	public void deleteUnknownEntity() throws Exception{
+		db.put(subject, graph, quads);
+		db.delete(Node.createURI("http://example.com/unknown"), graph);
+		db.delete(subject, Node.createURI("http://example.com/unknown"));
+		db.deleteGraph(Node.createURI("http://example.com/unknown"));
+		assertQuadIterablesEqual(quads, db.get(subject));
+	}
+	
+	@Test
+	public void entitiesSurviveRestart() throws Exception{
+		db.put(subject, graph, quads);
+		db.close();
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		db = getDatabase();
+		assertTrue(db.exists(subject));
+		assertQuadIterablesEqual(quads, db.get(subject));
+		assertQuadIterablesEqual(quads, db.getGraph(graph));
+	}
+}
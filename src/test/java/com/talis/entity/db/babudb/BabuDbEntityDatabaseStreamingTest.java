@@ -0,0 +1,110 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import static com.talis.entity.TestUtils.assertQuadIterablesEqual;
+import static com.talis.entity.TestUtils.getQuads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.marshal.Marshaller;
+
+public class BabuDbEntityDatabaseStreamingTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+	
+	private Node subject;
+	private Node graph;
+	private Collection<Quad> quads;
+	private DatabaseManager dbManager;
+	private BabuDbEntityDatabase db;
+	
+	@Before
+	public void setup() throws Exception{
+		subject = Node.createURI("http://example.com/s");
+		graph = Node.createURI("http://example.com/g");
+		quads = getQuads(graph, subject, 30);
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		db = new BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), "test-id", dbManager);
+	}
+	
+	@After
+	public void tearDown() throws Exception{
+		db.close();
+		dbManager.shutDown();
+	}
+	
+	@Test
+	public void resultsAreReadWhenIterated() throws Exception{
+		Iterable<Quad> entity = db.stream(subject);
+		Iterable<Quad> graphQuads = db.streamGraph(graph);
+		assertFalse(entity.iterator().hasNext());
+		assertFalse(graphQuads.iterator().hasNext());
+		
+		db.put(subject, graph, quads);
+		assertQuadIterablesEqual(quads, entity);
+		assertQuadIterablesEqual(quads, graphQuads);
+	}
+	
+	@Test
+	public void streamLargeGraph() throws Exception{
+		int subjects = 500;
+		for (int i=0; i<subjects; i++){
+			Node thisSubject = Node.createURI(subject.getURI() + "/" + i);
+			db.put(thisSubject, graph, getQuads(graph, thisSubject, 20));
+		}
+		int count = 0;
+		for (Quad quad : db.streamGraph(graph)){
+			assertEquals(graph, quad.getGraph());
+			count++;
+		}
+		assertEquals(subjects * 20, count);
+	}
+	
+	@Test
+	public void emptyResultForUnknownSubject() throws Exception{
+		assertFalse(db.stream(Node.createURI("http://example.com/unknown")).iterator().hasNext());
+	}
+	
+	@Test
+	public void closingIteratorEndsIteration() throws Exception{
+		db.put(subject, graph, quads);
+		Iterator<Quad> entity = db.stream(subject).iterator();
+		assertTrue(entity.hasNext());
+		entity.next();
+		((Closeable) entity).close();
+		assertFalse(entity.hasNext());
+		// closing again, or after exhaustion, is harmless
+		((Closeable) entity).close();
+		assertQuadIterablesEqual(quads, db.get(subject));
+	}
+}
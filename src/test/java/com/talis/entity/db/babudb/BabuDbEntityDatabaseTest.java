@@ -16,10 +16,25 @@
 
 package com.talis.entity.db.babudb;
 
+import static com.talis.entity.TestUtils.assertQuadIterablesEqual;
+import static com.talis.entity.TestUtils.getQuads;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
+import com.google.common.collect.Iterables;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
 import com.talis.entity.EntityDatabase;
+import com.talis.entity.EntityDatabaseException;
 import com.talis.entity.compress.SnappyCodec;
 import com.talis.entity.db.EntityDatabaseTestBase;
 import com.talis.entity.marshal.Marshaller;
@@ -45,4 +60,82 @@ public class BabuDbEntityDatabaseTest extends EntityDatabaseTestBase {
 		return new BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), id, dbManager);
 	}
 	
+	@Test
+	public void pendingWritesAreVisibleWithinTransaction() throws Exception{
+		Node otherGraph = Node.createURI("http://example.com/other");
+		Collection<Quad> otherQuads = getQuads(otherGraph, subject, 5);
+		db.put(subject, otherGraph, otherQuads);
+		db.begin();
+		db.put(subject, graph, quads);
+		assertTrue(db.exists(subject));
+		assertQuadIterablesEqual(Iterables.concat(quads, otherQuads), db.get(subject));
+		assertQuadIterablesEqual(quads, db.getGraph(graph));
+		
+		db.delete(subject, otherGraph);
+		assertQuadIterablesEqual(quads, db.get(subject));
+		assertTrue(Iterables.isEmpty(db.getGraph(otherGraph)));
+		db.commit();
+		
+		assertQuadIterablesEqual(quads, db.get(subject));
+		assertTrue(Iterables.isEmpty(db.getGraph(otherGraph)));
+	}
+	
+	@Test
+	public void pendingWritesAreNotVisibleToOtherThreads() throws Exception{
+		db.begin();
+		db.put(subject, graph, quads);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try{
+			Callable<Boolean> existsElsewhere = new Callable<Boolean>(){
+				@Override
+				public Boolean call() throws Exception {
+					return db.exists(subject);
+				}
+			};
+			assertFalse(executor.submit(existsElsewhere).get());
+			db.commit();
+			assertTrue(executor.submit(existsElsewhere).get());
+		}finally{
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void abortDiscardsPendingWrites() throws Exception{
+		db.put(subject, graph, quads);
+		db.begin();
+		db.deleteGraph(graph);
+		Node otherSubject = Node.createURI("http://example.com/other");
+		db.put(otherSubject, graph, getQuads(graph, otherSubject, 5));
+		assertFalse(db.exists(subject));
+		db.abort();
+		
+		assertQuadIterablesEqual(quads, db.get(subject));
+		assertFalse(db.exists(otherSubject));
+		assertQuadIterablesEqual(quads, db.getGraph(graph));
+	}
+	
+	@Test
+	public void deleteGraphIncludesPendingWrites() throws Exception{
+		Node otherSubject = Node.createURI("http://example.com/other");
+		db.put(subject, graph, quads);
+		db.begin();
+		db.put(otherSubject, graph, getQuads(graph, otherSubject, 5));
+		db.deleteGraph(graph);
+		db.commit();
+		assertFalse(db.exists(subject));
+		assertFalse(db.exists(otherSubject));
+		assertTrue(Iterables.isEmpty(db.getGraph(graph)));
+	}
+	
+	@Test (expected=EntityDatabaseException.class)
+	public void nestedTransactionsAreNotSupported() throws Exception{
+		db.begin();
+		try{
+			db.begin();
+		}finally{
+			db.abort();
+		}
+	}
+	
 }
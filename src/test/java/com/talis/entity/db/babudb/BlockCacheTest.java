@@ -0,0 +1,78 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.junit.Test;
+
+public class BlockCacheTest {
+
+	private final byte[] prefix = "http://example.com/s\t".getBytes();
+	private final byte[] key = "http://example.com/s\thttp://example.com/g".getBytes();
+	private final byte[] value = new byte[]{1, 2, 3, 4, 5};
+	
+	private List<Entry<byte[], byte[]>> getEntries(){
+		List<Entry<byte[], byte[]>> entries = new ArrayList<Entry<byte[], byte[]>>();
+		entries.add(new SimpleImmutableEntry<byte[], byte[]>(key, value));
+		return entries;
+	}
+	
+	@Test
+	public void roundTripEntriesOnAndOffHeap(){
+		for (boolean offHeap : new boolean[]{false, true}){
+			BlockCache cache = new BlockCache(1024 * 1024, offHeap);
+			cache.putEntries(prefix, getEntries(), cache.generation());
+			cache.putValue(key, value, cache.generation());
+			List<Entry<byte[], byte[]>> cached = cache.getEntries(prefix);
+			assertEquals(1, cached.size());
+			assertArrayEquals(key, cached.get(0).getKey());
+			assertArrayEquals(value, cached.get(0).getValue());
+			assertArrayEquals(value, cache.getValue(key));
+			// reading mustn't disturb the cached buffer
+			assertArrayEquals(value, cache.getValue(key));
+		}
+	}
+	
+	@Test
+	public void invalidateRemovesValueAndPrefixEntries(){
+		BlockCache cache = new BlockCache(1024 * 1024, false);
+		cache.putEntries(prefix, getEntries(), cache.generation());
+		cache.putValue(key, value, cache.generation());
+		cache.invalidate(key, prefix);
+		assertNull(cache.getEntries(prefix));
+		assertNull(cache.getValue(key));
+	}
+	
+	@Test
+	public void resultsOfLookupsOverlappingInvalidationAreNotCached(){
+		BlockCache cache = new BlockCache(1024 * 1024, false);
+		long seen = cache.generation();
+		cache.invalidate(key, prefix);
+		cache.putEntries(prefix, getEntries(), seen);
+		cache.putValue(key, value, seen);
+		assertNull(cache.getEntries(prefix));
+		assertNull(cache.getValue(key));
+	}
+}
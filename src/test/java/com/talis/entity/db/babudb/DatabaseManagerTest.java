@@ -27,6 +27,12 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -36,6 +42,8 @@ import org.xtreemfs.babudb.BabuDBFactory;
 import org.xtreemfs.babudb.api.BabuDB;
 import org.xtreemfs.babudb.api.Checkpointer;
 import org.xtreemfs.babudb.api.database.Database;
+import org.xtreemfs.babudb.api.database.DatabaseInsertGroup;
+import org.xtreemfs.babudb.api.database.DatabaseRequestListener;
 import org.xtreemfs.babudb.api.exception.BabuDBException;
 import org.xtreemfs.babudb.api.exception.BabuDBException.ErrorCode;
 import org.xtreemfs.babudb.config.BabuDBConfig;
@@ -138,6 +146,23 @@ public class DatabaseManagerTest {
 		assertEquals(99999, factory.suppliedConfig.getMaxLogfileSize());
 	}
 	
+	@Test 
+	public void dbSystemInitialisedWithIndexConfig() throws Exception{
+		IndexConfig indexConfig = new IndexConfig()
+										.setMaxRecordsPerBlock(128)
+										.setMaxBlockFileSize(1024 * 1024)
+										.setCompressIndex(true)
+										.setWorkerThreads(2);
+		ObservableFactory factory = new ObservableFactory();
+		DatabaseManager manager = new DatabaseManager(tmpDir.getRoot(), factory, indexConfig);
+		assertSame(indexConfig, manager.getIndexConfig());
+		assertEquals(128, factory.suppliedConfig.getMaxNumRecordsPerBlock());
+		assertEquals(1024 * 1024, factory.suppliedConfig.getMaxBlockFileSize());
+		assertTrue(factory.suppliedConfig.getCompression());
+		assertEquals(2, factory.suppliedConfig.getNumThreads());
+		manager.shutDown();
+	}
+	
 	@Test (expected=RuntimeException.class) 
 	public void throwRuntimeExceptionIfDbRootDirMissing() throws Exception{
 		File bogus = new File("/this/does/not/exist");
@@ -258,6 +283,72 @@ public class DatabaseManagerTest {
 		}		
 	}
 
+	@Test
+	public void statsCountInsertsAndReportFileSizes() throws Exception{
+		DatabaseManager manager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		try{
+			Database db = manager.getDatabase("test-db");
+			final CountDownLatch completed = new CountDownLatch(1);
+			DatabaseInsertGroup batch = db.createInsertGroup();
+			batch.addInsert(0, "key".getBytes(), "value".getBytes());
+			manager.insert(db, batch, new DatabaseRequestListener<Object>(){
+				@Override
+				public void finished(Object result, Object context) {
+					completed.countDown();
+				}
+				@Override
+				public void failed(BabuDBException e, Object context) {}
+			});
+			assertTrue(completed.await(10, TimeUnit.SECONDS));
+			
+			DatabaseStats stats = manager.getStats();
+			assertEquals(0, stats.getPendingInserts());
+			assertEquals(1, stats.getCompletedInserts());
+			assertEquals(0, stats.getFailedInserts());
+			assertTrue(stats.getIndexBytes().containsKey("test-db"));
+			assertTrue(stats.getLogFiles() >= 1);
+			assertEquals(-1, stats.getLastCheckpointDurationMillis());
+		}finally{
+			manager.shutDown();
+		}
+	}
+	
+	@Test
+	public void checkpointIsTimed() throws Exception{
+		DatabaseManager manager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		try{
+			Database db = manager.getDatabase("test-db");
+			DatabaseInsertGroup batch = db.createInsertGroup();
+			batch.addInsert(0, "key".getBytes(), "value".getBytes());
+			manager.insert(db, batch).get();
+			manager.checkpoint();
+			
+			DatabaseStats stats = manager.getStats();
+			assertEquals(1, stats.getCheckpoints());
+			assertTrue(stats.getLastCheckpointDurationMillis() >= 0);
+			assertTrue(stats.getMillisSinceLastCheckpoint() >= 0);
+			assertTrue(stats.getIndexBytes().get("test-db") > 0);
+		}finally{
+			manager.shutDown();
+		}
+	}
+	
+	@Test
+	public void statsArePublishedThroughJmx() throws Exception{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		DatabaseManager manager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		ObjectName name;
+		try{
+			name = manager.registerMBean();
+			assertEquals(0L, server.getAttribute(name, "PendingInserts"));
+			assertEquals(-1L, server.getAttribute(name, "LastCheckpointDurationMillis"));
+			assertEquals(0L, server.getAttribute(name, "TotalIndexBytes"));
+		}finally{
+			manager.shutDown();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+	
 	private BabuDBFactoryWrapper getWrapperForDbSystem(final BabuDB dbSystem){
 		BabuDBFactoryWrapper factory = new BabuDBFactoryWrapper(){
 			@Override
@@ -0,0 +1,160 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hp.hpl.jena.graph.Node;
+import com.talis.entity.EntityDatabaseException;
+
+public class NodeDictionaryTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+	
+	private DatabaseManager dbManager;
+	private NodeDictionary dictionary;
+	private Node first;
+	private Node second;
+	
+	@Before
+	public void setup() throws Exception{
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		dictionary = new NodeDictionary("test-nodes", dbManager);
+		first = Node.createURI("http://example.com/first");
+		second = Node.createURI("http://example.com/second");
+	}
+	
+	@After
+	public void tearDown() throws Exception{
+		dictionary.close();
+		dbManager.shutDown();
+	}
+	
+	@Test
+	public void unknownNodeHasNoId() throws Exception{
+		assertEquals(NodeDictionary.NO_ID, dictionary.getId(first));
+	}
+	
+	@Test
+	public void idsAreAllocatedInSequence() throws Exception{
+		assertEquals(1, dictionary.getOrCreateId(first));
+		assertEquals(2, dictionary.getOrCreateId(second));
+		assertEquals(1, dictionary.getOrCreateId(first));
+		assertEquals(1, dictionary.getId(first));
+		assertEquals(first, dictionary.getNode(1));
+		assertEquals(second, dictionary.getNode(2));
+	}
+	
+	@Test
+	public void idsSurviveRestart() throws Exception{
+		dictionary.getOrCreateId(first);
+		dictionary.close();
+		dbManager.shutDown();
+		
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		dictionary = new NodeDictionary("test-nodes", dbManager);
+		assertEquals(1, dictionary.getId(first));
+		assertEquals(first, dictionary.getNode(1));
+		assertEquals(2, dictionary.getOrCreateId(second));
+	}
+	
+	@Test
+	public void clearRestartsAllocation() throws Exception{
+		dictionary.getOrCreateId(first);
+		dictionary.getOrCreateId(second);
+		dictionary.clear();
+		assertEquals(NodeDictionary.NO_ID, dictionary.getId(first));
+		assertEquals(1, dictionary.getOrCreateId(second));
+	}
+	
+	@Test
+	public void newIdsAreAllocatedTogether() throws Exception{
+		long firstId = dictionary.getOrCreateId(first);
+		long[] ids = dictionary.getOrCreateIds(second, first, second);
+		assertEquals(firstId + 1, ids[0]);
+		assertEquals(firstId, ids[1]);
+		assertEquals(firstId + 1, ids[2]);
+		assertEquals(second, dictionary.getNode(ids[0]));
+	}
+	
+	@Test
+	public void concurrentAllocationGivesEachNodeOneId() throws Exception{
+		final int threads = 8;
+		final int nodes = 200;
+		final long[][] allocated = new long[threads][nodes];
+		final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+		final CountDownLatch startGate = new CountDownLatch(1);
+		final CountDownLatch endGate = new CountDownLatch(threads);
+		for (int t=0; t<threads; t++){
+			final int thread = t;
+			new Thread(new Runnable(){
+				@Override
+				public void run() {
+					try{
+						startGate.await();
+						for (int i=0; i<nodes; i++){
+							allocated[thread][i] = dictionary.getOrCreateId(Node.createURI("http://example.com/node/" + i));
+						}
+					}catch(Throwable e){
+						errors.add(e);
+					}finally{
+						endGate.countDown();
+					}
+				}
+			}).start();
+		}
+		startGate.countDown();
+		endGate.await();
+		
+		assertEquals(Collections.emptyList(), errors);
+		Set<Long> distinct = new HashSet<Long>();
+		for (int i=0; i<nodes; i++){
+			for (int t=1; t<threads; t++){
+				assertEquals(allocated[0][i], allocated[t][i]);
+			}
+			distinct.add(allocated[0][i]);
+			assertEquals(Node.createURI("http://example.com/node/" + i), dictionary.getNode(allocated[0][i]));
+		}
+		assertEquals(nodes, distinct.size());
+		
+		// allocation carries on after the highest id stored
+		dictionary.close();
+		dbManager.shutDown();
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		dictionary = new NodeDictionary("test-nodes", dbManager);
+		assertEquals(Collections.max(distinct) + 1, dictionary.getOrCreateId(first));
+	}
+	
+	@Test (expected=EntityDatabaseException.class)
+	public void lookupUnknownId() throws Exception{
+		dictionary.getNode(99);
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hp.hpl.jena.graph.Node;
+
+public class SubjectBloomFilterTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+	
+	private Node subject(int i){
+		return Node.createURI("http://example.com/s/" + i);
+	}
+	
+	@Test
+	public void addedSubjectsAreAlwaysFound(){
+		SubjectBloomFilter filter = SubjectBloomFilter.create(10000, 0.01);
+		for (int i=0; i<10000; i++){
+			filter.put(subject(i));
+		}
+		for (int i=0; i<10000; i++){
+			assertTrue(filter.mightContain(subject(i)));
+		}
+	}
+	
+	@Test
+	public void falsePositiveRateIsCloseToTarget(){
+		SubjectBloomFilter filter = SubjectBloomFilter.create(10000, 0.01);
+		for (int i=0; i<10000; i++){
+			filter.put(subject(i));
+		}
+		int falsePositives = 0;
+		for (int i=10000; i<20000; i++){
+			if (filter.mightContain(subject(i))){
+				falsePositives++;
+			}
+		}
+		assertTrue("Too many false positives: " + falsePositives, falsePositives < 300);
+	}
+	
+	@Test
+	public void roundTripFilterThroughFile() throws Exception{
+		SubjectBloomFilter filter = SubjectBloomFilter.create(1000, 0.01);
+		for (int i=0; i<1000; i++){
+			filter.put(subject(i));
+		}
+		File file = new File(tmpDir.getRoot(), "filter.bloom");
+		filter.writeTo(file);
+		SubjectBloomFilter other = SubjectBloomFilter.readFrom(file);
+		for (int i=0; i<1000; i++){
+			assertTrue(other.mightContain(subject(i)));
+		}
+		assertFalse(SubjectBloomFilter.create(1000, 0.01).mightContain(subject(0)));
+	}
+}
@@ -16,16 +16,25 @@
 
 package com.talis.entity.db.babudb.bulk;
 
+import static com.talis.entity.TestUtils.getNQuadLines;
+import static com.talis.entity.TestUtils.getNQuads;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
-import java.util.zip.GZIPInputStream;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -38,15 +47,20 @@ import org.openjena.riot.tokens.TokenizerFactory;
 import com.google.common.collect.Iterables;
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.SyntheticQuads;
 import com.talis.entity.compress.SnappyCodec;
 import com.talis.entity.db.EntityLoaderSink;
 import com.talis.entity.db.babudb.BabuDBFactoryWrapper;
 import com.talis.entity.db.babudb.BabuDbEntityDatabase;
 import com.talis.entity.db.babudb.DatabaseManager;
+import com.talis.entity.db.babudb.IndexConfig;
 import com.talis.entity.marshal.Marshaller;
 
 public class BabuDbEntityDatabaseBuilderTest {
 
+	// size of the generated dataset loaded both incrementally and in bulk 
+	private static final long QUADS = Long.getLong("com.talis.entity.test.quads", 100000);
+
 	@Rule
 	public TemporaryFolder dbDir0 = new TemporaryFolder();
 	
@@ -89,11 +103,166 @@ public class BabuDbEntityDatabaseBuilderTest {
 		System.out.println(String.format("Databases are equal - check took %s ms", (System.currentTimeMillis() - start)));
 	}
 	
-	private InputStream getQuadStream() throws IOException{
-		String resource = "/1-million-quads-srt.nq.gz";
-		return new GZIPInputStream(
-					new BufferedInputStream(
-							this.getClass().getResourceAsStream(resource)));
+	@Test
+	public void bothIndexesAreWritten() throws Exception{
+		String quads = getNQuads(500, 2, 1);
+		File workDir = dbDir1.newFolder("work");
+		File outputDir = dbDir1.newFolder("db");
+		new BabuDbEntityDatabaseBuilder(2).build(
+				new ByteArrayInputStream(quads.getBytes("UTF-8")), workDir, outputDir, "small");
+		
+		DatabaseManager dbm = new DatabaseManager( outputDir, new BabuDBFactoryWrapper());
+		BabuDbEntityDatabase bulkloaded = new  BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), "small", dbm);
+		assertEquals(2, Iterables.size(bulkloaded.get(Node.createURI("http://example.com/s/00042"))));
+		assertEquals(500, Iterables.size(bulkloaded.getGraph(Node.createURI("http://example.com/g/1"))));
+		assertEquals(500, Iterables.size(bulkloaded.all()));
+		bulkloaded.close();
+	}
+	
+	@Test
+	public void progressIsReportedToListener() throws Exception{
+		String quads = getNQuads(500, 2, 1);
+		File input = new File(dbDir1.newFolder("input"), "quads.nq");
+		FileUtils.writeStringToFile(input, quads, "UTF-8");
+		File workDir = dbDir1.newFolder("work");
+		File outputDir = dbDir1.newFolder("db");
+		RecordingListener listener = new RecordingListener();
+		new BabuDbEntityDatabaseBuilder(new IndexConfig(), listener).build(input, workDir, outputDir, "progress");
+		
+		BuildProgress progress = listener.finished;
+		assertEquals(1000, progress.getQuadsParsed());
+		assertEquals(1000, progress.getEntitiesWritten());
+		assertEquals(input.length(), progress.getInputBytesRead());
+		assertEquals(input.length(), progress.getInputLength());
+		assertTrue(progress.getCompressedBytes() > 0);
+		assertTrue(progress.getUncompressedBytes() > 0);
+		assertEquals(Arrays.asList(BuildPhase.PRIMARY_INDEX, BuildPhase.INVERSE_SORT, BuildPhase.INVERSE_INDEX), listener.started);
+		// the inverse sort may finish before the primary index is closed
+		assertEquals(new HashSet<BuildPhase>(listener.started), new HashSet<BuildPhase>(listener.finishedPhases));
+	}
+	
+	@Test
+	public void buildFromUnsortedInput() throws Exception{
+		List<String> lines = getNQuadLines(500, 2, 1);
+		lines.add(lines.get(0));
+		Collections.shuffle(lines, new Random(7));
+		StringBuilder quads = new StringBuilder();
+		for (String line : lines){
+			quads.append(line);
+		}
+		File workDir = dbDir1.newFolder("work");
+		File spillDir = dbDir1.newFolder("spill");
+		File outputDir = dbDir1.newFolder("db");
+		new BabuDbEntityDatabaseBuilder(2).buildUnsorted(
+				new ByteArrayInputStream(quads.toString().getBytes("UTF-8")), spillDir, workDir, outputDir, "unsorted");
+		
+		DatabaseManager dbm = new DatabaseManager( outputDir, new BabuDBFactoryWrapper());
+		BabuDbEntityDatabase bulkloaded = new  BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), "unsorted", dbm);
+		assertEquals(2, Iterables.size(bulkloaded.get(Node.createURI("http://example.com/s/00000"))));
+		assertEquals(500, Iterables.size(bulkloaded.getGraph(Node.createURI("http://example.com/g/0"))));
+		assertEquals(500, Iterables.size(bulkloaded.all()));
+		bulkloaded.close();
+	}
+	
+	@Test
+	public void mergeChangesIntoExistingDatabase() throws Exception{
+		String quads = getNQuads(500, 2, 1);
+		File outputDir = dbDir1.newFolder("db");
+		BabuDbEntityDatabaseBuilder builder = new BabuDbEntityDatabaseBuilder(2);
+		builder.build(new ByteArrayInputStream(quads.getBytes("UTF-8")), dbDir1.newFolder("work"), outputDir, "base");
+		
+		// replace one description, add one to a deleted graph and one new subject
+		StringBuilder changes = new StringBuilder();
+		for (int i=0; i<3; i++){
+			changes.append(String.format("<http://example.com/s/00001> <http://example.com/p> \"new %s\" <http://example.com/g/0> .\n", i));
+		}
+		changes.append("<http://example.com/s/00002> <http://example.com/p> \"readded\" <http://example.com/g/1> .\n");
+		changes.append("<http://example.com/s/00500> <http://example.com/p> \"added\" <http://example.com/g/0> .\n");
+		File mergedDir = dbDir1.newFolder("merged");
+		builder.merge(outputDir, "base", new ByteArrayInputStream(changes.toString().getBytes("UTF-8")), 
+						Collections.singleton(Node.createURI("http://example.com/g/1")), 
+						dbDir1.newFolder("merge"), mergedDir, "merged");
+		
+		DatabaseManager dbm = new DatabaseManager( mergedDir, new BabuDBFactoryWrapper());
+		BabuDbEntityDatabase merged = new  BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), "merged", dbm);
+		assertEquals(501, Iterables.size(merged.all()));
+		assertEquals(3, Iterables.size(merged.get(Node.createURI("http://example.com/s/00001"))));
+		assertEquals(2, Iterables.size(merged.get(Node.createURI("http://example.com/s/00002"))));
+		assertEquals(1, Iterables.size(merged.get(Node.createURI("http://example.com/s/00003"))));
+		assertEquals(1, Iterables.size(merged.get(Node.createURI("http://example.com/s/00500"))));
+		assertEquals(503, Iterables.size(merged.getGraph(Node.createURI("http://example.com/g/0"))));
+		assertEquals(1, Iterables.size(merged.getGraph(Node.createURI("http://example.com/g/1"))));
+		merged.close();
+	}
+	
+	@Test
+	public void mergeChangesInTextOrder() throws Exception{
+		StringBuilder quads = new StringBuilder();
+		for (int i=0; i<20; i++){
+			quads.append(String.format("<http://example.com/s/%s> <http://example.com/p> \"%s\" <http://example.com/g> .\n", i, i));
+		}
+		File outputDir = dbDir1.newFolder("db");
+		BabuDbEntityDatabaseBuilder builder = new BabuDbEntityDatabaseBuilder(2);
+		builder.buildUnsorted(new ByteArrayInputStream(quads.toString().getBytes("UTF-8")), dbDir1.newFolder("work"), outputDir, "base");
+		
+		// as sorted by sort(1), which puts s/10 before s/1
+		List<String> changes = new ArrayList<String>();
+		for (String s : new String[]{"1", "10", "2"}){
+			changes.add(String.format("<http://example.com/s/%s> <http://example.com/p> \"new\" <http://example.com/g> .\n", s));
+		}
+		Collections.sort(changes);
+		StringBuilder upserts = new StringBuilder();
+		for (String change : changes){
+			upserts.append(change);
+		}
+		File mergedDir = dbDir1.newFolder("merged");
+		builder.merge(outputDir, "base", new ByteArrayInputStream(upserts.toString().getBytes("UTF-8")), 
+						Collections.<Node>emptySet(), dbDir1.newFolder("merge"), mergedDir, "merged");
+		
+		DatabaseManager dbm = new DatabaseManager( mergedDir, new BabuDBFactoryWrapper());
+		BabuDbEntityDatabase merged = new  BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), "merged", dbm);
+		assertEquals(20, Iterables.size(merged.all()));
+		for (String s : new String[]{"1", "10", "2"}){
+			Quad quad = Iterables.getOnlyElement(merged.get(Node.createURI("http://example.com/s/" + s)));
+			assertEquals("new", quad.getObject().getLiteralLexicalForm());
+		}
+		assertEquals("3", Iterables.getOnlyElement(merged.get(Node.createURI("http://example.com/s/3"))).getObject().getLiteralLexicalForm());
+		merged.close();
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void mergeIntoExistingDirectoryIsRejected() throws Exception{
+		File outputDir = dbDir1.newFolder("db");
+		new BabuDbEntityDatabaseBuilder(2).merge(outputDir, "base", new ByteArrayInputStream(new byte[0]), 
+						Collections.<Node>emptySet(), dbDir1.newFolder("merge"), outputDir, "merged");
+	}
+	
+	private static class RecordingListener implements BuildListener {
+		private final List<BuildPhase> started = new CopyOnWriteArrayList<BuildPhase>();
+		private final List<BuildPhase> finishedPhases = new CopyOnWriteArrayList<BuildPhase>();
+		private volatile BuildProgress finished;
+		
+		@Override
+		public void phaseStarted(BuildPhase phase, BuildProgress progress) {
+			started.add(phase);
+		}
+		
+		@Override
+		public void phaseFinished(BuildPhase phase, BuildProgress progress) {
+			finishedPhases.add(phase);
+		}
+		
+		@Override
+		public void progress(BuildProgress progress) {}
+		
+		@Override
+		public void buildFinished(BuildProgress progress) {
+			finished = progress;
+		}
+	}
+	
+	private InputStream getQuadStream(){
+		return new SyntheticQuads().setQuads(QUADS).openStream();
 	}
 
 }
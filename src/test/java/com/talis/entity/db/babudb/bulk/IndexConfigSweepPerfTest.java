@@ -0,0 +1,148 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb.bulk;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterables;
+import com.hp.hpl.jena.graph.Node;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.db.babudb.BabuDBFactoryWrapper;
+import com.talis.entity.db.babudb.BabuDbEntityDatabase;
+import com.talis.entity.db.babudb.DatabaseManager;
+import com.talis.entity.db.babudb.IndexConfig;
+import com.talis.entity.marshal.Marshaller;
+
+/**
+ * Sweeps the index layout settings over two shapes of data: many small 
+ * entities read by subject, and a few large graphs read whole. Each 
+ * combination is bulk built, then timed for random entity lookups and 
+ * whole graph reads.
+ */
+public class IndexConfigSweepPerfTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+	
+	private static final int[] RECORDS_PER_BLOCK = {16, 64, 256, 1024};
+	private static final boolean[] COMPRESSION = {false, true};
+	private static final int[] SORT_BUFFERS = {10000, 100000};
+	
+	private static final int LOOKUPS = 10000;
+	private static final int GRAPH_READS = 5;
+	
+	private int runs = 0;
+	
+	@Test
+	public void sweepSmallEntities() throws Exception{
+		// 50k subjects, each with 20 quads in one of 10 graphs
+		sweep("small entities", generate(50000, 10, 20), 50000, 10);
+	}
+	
+	@Test
+	public void sweepLargeGraphs() throws Exception{
+		// 2 graphs of 100k quads, 2 quads for each subject
+		sweep("large graphs", generate(100000, 2, 2), 100000, 2);
+	}
+	
+	private void sweep(String name, byte[] quads, int subjects, int graphs) throws Exception{
+		System.out.println();
+		System.out.println("Index layout sweep: " + name);
+		System.out.println("recordsPerBlock\tcompressed\tsortBuffer\tbuild ms\tindex bytes\tlookups/s\tgraph reads ms");
+		for (int recordsPerBlock : RECORDS_PER_BLOCK){
+			for (boolean compressed : COMPRESSION){
+				for (int sortBuffer : SORT_BUFFERS){
+					IndexConfig config = new IndexConfig()
+												.setMaxRecordsPerBlock(recordsPerBlock)
+												.setCompressIndex(compressed)
+												.setSortBufferSize(sortBuffer);
+					run(config, quads, subjects, graphs);
+				}
+			}
+		}
+	}
+	
+	private void run(IndexConfig config, byte[] quads, int subjects, int graphs) throws Exception{
+		File root = tmpDir.newFolder("run-" + (runs++));
+		File outputDir = new File(root, "db");
+		long start = System.currentTimeMillis();
+		new BabuDbEntityDatabaseBuilder(config).build(new ByteArrayInputStream(quads), new File(root, "work"), outputDir, "sweep");
+		long buildTime = System.currentTimeMillis() - start;
+		long indexBytes = FileUtils.sizeOfDirectory(new File(outputDir, "sweep"));
+		
+		DatabaseManager dbm = new DatabaseManager(outputDir, new BabuDBFactoryWrapper(), config);
+		BabuDbEntityDatabase db = new BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), "sweep", dbm);
+		try{
+			Random random = new Random(1);
+			List<Node> lookups = new ArrayList<Node>(LOOKUPS);
+			for (int i=0; i<LOOKUPS; i++){
+				lookups.add(subject(random.nextInt(subjects)));
+			}
+			start = System.nanoTime();
+			for (Node subject : lookups){
+				Iterables.size(db.get(subject));
+			}
+			double lookupsPerSecond = LOOKUPS / ((System.nanoTime() - start) / 1e9);
+			
+			start = System.currentTimeMillis();
+			for (int i=0; i<GRAPH_READS; i++){
+				Iterables.size(db.getGraph(graph(i % graphs)));
+			}
+			long graphTime = (System.currentTimeMillis() - start) / GRAPH_READS;
+			
+			System.out.println(String.format("%s\t%s\t%s\t%s\t%s\t%.0f\t%s", 
+					config.getMaxRecordsPerBlock(), config.isCompressIndex(), config.getSortBufferSize(),
+					buildTime, indexBytes, lookupsPerSecond, graphTime));
+		}finally{
+			db.close();
+			dbm.shutDown();
+			FileUtils.deleteQuietly(root);
+		}
+	}
+	
+	private Node subject(int i){
+		return Node.createURI(String.format("http://example.com/s/%08d", i));
+	}
+	
+	private Node graph(int i){
+		return Node.createURI(String.format("http://example.com/g/%04d", i));
+	}
+	
+	// sorted by subject, each subject in a single graph
+	private byte[] generate(int subjects, int graphs, int quadsPerSubject){
+		StringBuilder quads = new StringBuilder();
+		for (int i=0; i<subjects; i++){
+			String graph = graph(i % graphs).getURI();
+			String subject = subject(i).getURI();
+			for (int j=0; j<quadsPerSubject; j++){
+				quads.append(String.format("<%s> <http://example.com/p/%s> \"value %s %s\" <%s> .\n", 
+												subject, j, i, j, graph));
+			}
+		}
+		return quads.toString().getBytes(Charsets.UTF_8);
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb.bulk;
+
+import static com.talis.entity.TestUtils.getNQuads;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.talis.entity.EntityDesc;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.marshal.Marshaller;
+
+public class PipelinedEntityIteratorTest {
+
+	private Marshaller marshaller;
+	private byte[] input;
+	
+	@Before
+	public void setup(){
+		marshaller = new Marshaller(new SnappyCodec());
+		input = getNQuads(2000, 2, 2).getBytes(Charsets.UTF_8);
+	}
+	
+	private InputStream getQuadStream(){
+		return new ByteArrayInputStream(input);
+	}
+	
+	@Test
+	public void producesSameEntitiesAsEntityIterator() throws Exception{
+		for (int threads : new int[]{1, 4}){
+			EntityIterator expected = new EntityIterator(getQuadStream(), marshaller);
+			PipelinedEntityIterator actual = new PipelinedEntityIterator(getQuadStream(), marshaller, threads);
+			int count = 0;
+			while (actual.hasNext()){
+				EntityDesc fromPipeline = actual.next();
+				EntityDesc fromIterator = expected.next();
+				assertEquals(fromIterator.subject, fromPipeline.subject);
+				assertEquals(fromIterator.graph, fromPipeline.graph);
+				assertArrayEquals(fromIterator.bytes, fromPipeline.bytes);
+				count++;
+			}
+			assertEquals(4000, count);
+		}
+	}
+	
+	@Test
+	public void closeStopsIteration() throws Exception{
+		PipelinedEntityIterator entities = new PipelinedEntityIterator(getQuadStream(), marshaller, 2);
+		assertTrue(entities.hasNext());
+		entities.next();
+		entities.close();
+		assertFalse(entities.hasNext());
+	}
+	
+	@Test (expected=RuntimeException.class)
+	public void parseErrorsAreRethrown() throws Exception{
+		InputStream broken = new ByteArrayInputStream("<http://example.com/s> <http://example.com/p> .\n".getBytes(Charsets.UTF_8));
+		PipelinedEntityIterator entities = new PipelinedEntityIterator(broken, marshaller, 2);
+		while (entities.hasNext()){
+			entities.next();
+		}
+	}
+}
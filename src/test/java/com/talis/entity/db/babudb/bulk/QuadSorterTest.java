@@ -0,0 +1,90 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.babudb.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.TestUtils;
+import com.talis.entity.db.babudb.Keys;
+
+public class QuadSorterTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+	
+	@Test
+	public void quadsAreSortedBySubjectThenGraph() throws Exception{
+		List<Quad> quads = new ArrayList<Quad>();
+		for (int i=0; i<100; i++){
+			Node subject = Node.createURI("http://example.com/s/" + i);
+			for (int g=0; g<3; g++){
+				quads.addAll(TestUtils.getQuads(Node.createURI("http://example.com/g/" + g), subject, 4));
+			}
+		}
+		Collections.shuffle(quads, new Random(42));
+		
+		// a small buffer forces several runs to be merged
+		QuadSorter sorter = new QuadSorter(tmpDir.newFolder("spill"), 50, 2);
+		Iterator<Quad> sorted = sorter.sort(quads.iterator());
+		String previous = null;
+		int count = 0;
+		while (sorted.hasNext()){
+			Quad quad = sorted.next();
+			String key = Keys.getKeyString(quad.getSubject(), quad.getGraph());
+			assertTrue(null == previous || previous.compareTo(key) <= 0);
+			previous = key;
+			count++;
+		}
+		assertEquals(quads.size(), count);
+		sorter.cleanup();
+	}
+	
+	@Test
+	public void duplicatesAndBlankSubjectsAreDropped() throws Exception{
+		Node graph = Node.createURI("http://example.com/g");
+		Node subject = Node.createURI("http://example.com/s");
+		Node predicate = Node.createURI("http://example.com/p");
+		List<Quad> quads = new ArrayList<Quad>();
+		quads.add(new Quad(graph, subject, predicate, Node.createLiteral("a")));
+		quads.add(new Quad(graph, Node.createAnon(), predicate, Node.createLiteral("b")));
+		quads.add(new Quad(graph, subject, predicate, Node.createLiteral("a")));
+		
+		Iterator<Quad> sorted = new QuadSorter(tmpDir.newFolder("spill")).sort(quads.iterator());
+		assertEquals(quads.get(0), sorted.next());
+		assertFalse(sorted.hasNext());
+	}
+	
+	@Test
+	public void emptyInput() throws Exception{
+		Iterator<Quad> sorted = new QuadSorter(tmpDir.newFolder("spill")).sort(new ArrayList<Quad>().iterator());
+		assertFalse(sorted.hasNext());
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.cache;
+
+import static com.talis.entity.TestUtils.assertQuadIterablesEqual;
+import static com.talis.entity.TestUtils.getQuads;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.db.EntityDatabaseTestBase;
+import com.talis.entity.db.babudb.BabuDBFactoryWrapper;
+import com.talis.entity.db.babudb.BabuDbEntityDatabase;
+import com.talis.entity.db.babudb.DatabaseManager;
+import com.talis.entity.db.babudb.IndexConfig;
+import com.talis.entity.marshal.Marshaller;
+
+public class CachingBabuDbEntityDatabaseTest extends EntityDatabaseTestBase{
+
+	private DatabaseManager dbManager;
+	
+	@Before
+	public void setup() throws Exception{
+		// with worker threads, BabuDB completes inserts asynchronously 
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper(), 
+											new IndexConfig().setWorkerThreads(2));
+		super.setup();
+	}
+	
+	@After
+	public void tearDown() throws Exception{
+		db.close();
+		dbManager.shutDown();
+	}
+	
+	@Override
+	public EntityDatabase getDatabase() {
+		return new CachingEntityDatabase(
+				new BabuDbEntityDatabase(new Marshaller(new SnappyCodec()), id, dbManager));
+	}
+	
+	@Test
+	public void lookupAfterPutCachesTheNewState() throws Exception{
+		for (int i=1; i<=50; i++){
+			Collection<Quad> entity = getQuads(graph, subject, i);
+			db.put(subject, graph, entity);
+			assertQuadIterablesEqual(entity, db.get(subject));
+			// served from the cache
+			assertQuadIterablesEqual(entity, db.get(subject));
+		}
+		assertEquals(50, ((CachingEntityDatabase)db).getMissCount());
+		assertEquals(50, ((CachingEntityDatabase)db).getHitCount());
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.cache;
+
+import static com.talis.entity.TestUtils.assertQuadIterablesEqual;
+import static com.talis.entity.TestUtils.getQuads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.db.EntityDatabaseTestBase;
+import com.talis.entity.db.ram.RamEntityDatabase;
+
+public class CachingEntityDatabaseTest extends EntityDatabaseTestBase{
+
+	@Override
+	public EntityDatabase getDatabase() {
+		return new CachingEntityDatabase(new RamEntityDatabase());
+	}
+	
+	private CachingEntityDatabase cachingDb(){
+		return (CachingEntityDatabase)db;
+	}
+	
+	@Test
+	public void repeatedLookupsAreServedFromCache() throws Exception{
+		db.put(subject, graph, quads);
+		assertQuadIterablesEqual(quads, db.get(subject));
+		assertQuadIterablesEqual(quads, db.get(subject));
+		assertQuadIterablesEqual(quads, db.getGraph(graph));
+		assertQuadIterablesEqual(quads, db.getGraph(graph));
+		assertEquals(2, cachingDb().getMissCount());
+		assertEquals(2, cachingDb().getHitCount());
+	}
+	
+	@Test
+	public void putInvalidatesSubjectAndGraph() throws Exception{
+		db.put(subject, graph, quads);
+		db.get(subject);
+		db.getGraph(graph);
+		Collection<Quad> replacement = getQuads(graph, subject, 5);
+		db.put(subject, graph, replacement);
+		assertQuadIterablesEqual(replacement, db.get(subject));
+		assertQuadIterablesEqual(replacement, db.getGraph(graph));
+	}
+	
+	@Test
+	public void deleteInvalidatesSubjectAndGraph() throws Exception{
+		db.put(subject, graph, quads);
+		db.get(subject);
+		db.getGraph(graph);
+		db.delete(subject, graph);
+		assertTrue(Iterables.isEmpty(db.get(subject)));
+		assertTrue(Iterables.isEmpty(db.getGraph(graph)));
+	}
+	
+	@Test
+	public void deleteGraphInvalidatesSubjectsInGraph() throws Exception{
+		Node otherGraph = Node.createURI("http://example.com/other");
+		Collection<Quad> otherQuads = getQuads(otherGraph, subject, 5);
+		db.put(subject, graph, quads);
+		db.put(subject, otherGraph, otherQuads);
+		assertQuadIterablesEqual(Iterables.concat(quads, otherQuads), db.get(subject));
+		db.deleteGraph(graph);
+		assertQuadIterablesEqual(otherQuads, db.get(subject));
+	}
+	
+	@Test
+	public void clearInvalidatesEverything() throws Exception{
+		db.put(subject, graph, quads);
+		db.get(subject);
+		db.clear();
+		assertTrue(Iterables.isEmpty(db.get(subject)));
+	}
+	
+	@Test
+	public void entriesAreEvictedWhenCacheIsFull() throws Exception{
+		db = new CachingEntityDatabase(new RamEntityDatabase(), 64 * 1024);
+		for (int i=0; i<100; i++){
+			Node thisSubject = Node.createURI(subject.getURI() + "/" + i);
+			db.put(thisSubject, graph, getQuads(graph, thisSubject, 20));
+			db.get(thisSubject);
+		}
+		assertTrue(cachingDb().getEvictionCount() > 0);
+		assertEquals(100, cachingDb().getMissCount());
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.mapped;
+
+import static com.talis.entity.TestUtils.assertQuadIterablesEqual;
+import static com.talis.entity.TestUtils.getQuads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterables;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabaseException;
+import com.talis.entity.EntityDesc;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.db.babudb.bulk.BabuDbEntityDatabaseBuilder;
+import com.talis.entity.marshal.Marshaller;
+
+public class MappedEntityDatabaseTest {
+
+	@Rule
+	public TemporaryFolder tmpDir = new TemporaryFolder();
+	
+	private static final int SUBJECTS = 10;
+	private static final int GRAPHS = 3;
+	
+	private Marshaller marshaller;
+	private List<Node> subjects;
+	private List<Node> graphs;
+	private File file;
+	private MappedEntityDatabase db;
+	
+	@Before
+	public void setup() throws Exception {
+		marshaller = new Marshaller(new SnappyCodec());
+		subjects = new ArrayList<Node>();
+		for (int i=0; i<SUBJECTS; i++){
+			subjects.add(Node.createURI("http://example.com/s/" + i));
+		}
+		graphs = new ArrayList<Node>();
+		for (int i=0; i<GRAPHS; i++){
+			graphs.add(Node.createURI("http://example.com/g/" + i));
+		}
+		List<EntityDesc> entities = new ArrayList<EntityDesc>();
+		for (Node subject : subjects){
+			for (Node graph : graphs){
+				entities.add(marshaller.toEntityDesc(subject, graph, getQuads(graph, subject, 5)));
+			}
+		}
+		file = new File(tmpDir.getRoot(), "test.entities");
+		new MappedEntityDatabaseWriter(file, tmpDir.newFolder("work")).write(entities.iterator());
+		db = new MappedEntityDatabase(file, marshaller);
+	}
+	
+	@After
+	public void teardown(){
+		db.close();
+	}
+	
+	private Collection<Quad> getEntity(Node subject){
+		Collection<Quad> quads = new ArrayList<Quad>();
+		for (Node graph : graphs){
+			quads.addAll(getQuads(graph, subject, 5));
+		}
+		return quads;
+	}
+	
+	@Test
+	public void getEntity() throws Exception{
+		assertEquals(SUBJECTS * GRAPHS, db.getEntityCount());
+		for (Node subject : subjects){
+			assertTrue(db.exists(subject));
+			assertQuadIterablesEqual(getEntity(subject), db.get(subject));
+		}
+	}
+	
+	@Test
+	public void unknownSubjectIsAbsent() throws Exception{
+		Node unknown = Node.createURI("http://example.com/s/99");
+		assertFalse(db.exists(unknown));
+		assertTrue(Iterables.isEmpty(db.get(unknown)));
+	}
+	
+	@Test
+	public void subjectWhichPrefixesOthersIsAbsent() throws Exception{
+		Node prefix = Node.createURI("http://example.com/s/");
+		assertFalse(db.exists(prefix));
+		assertTrue(Iterables.isEmpty(db.get(prefix)));
+	}
+	
+	@Test
+	public void getGraph() throws Exception{
+		for (Node graph : graphs){
+			Collection<Quad> expected = new ArrayList<Quad>();
+			for (Node subject : subjects){
+				expected.addAll(getQuads(graph, subject, 5));
+			}
+			assertQuadIterablesEqual(expected, db.getGraph(graph));
+		}
+		assertTrue(Iterables.isEmpty(db.getGraph(Node.createURI("http://example.com/g/99"))));
+	}
+	
+	@Test
+	public void getAllEntitiesAtOnce() throws Exception{
+		Node unknown = Node.createURI("http://example.com/s/99");
+		Map<Node, Iterable<Quad>> results = db.getAll(Arrays.asList(subjects.get(0), subjects.get(3), unknown));
+		assertEquals(3, results.size());
+		assertQuadIterablesEqual(getEntity(subjects.get(0)), results.get(subjects.get(0)));
+		assertQuadIterablesEqual(getEntity(subjects.get(3)), results.get(subjects.get(3)));
+		assertTrue(Iterables.isEmpty(results.get(unknown)));
+	}
+	
+	@Test
+	public void iterateAllEntities() throws Exception{
+		Iterator<Node> expected = subjects.iterator();
+		for (Entry<Node, Iterable<Quad>> entity : db.all()){
+			Node subject = expected.next();
+			assertEquals(subject, entity.getKey());
+			assertQuadIterablesEqual(getEntity(subject), entity.getValue());
+		}
+		assertFalse(expected.hasNext());
+	}
+	
+	@Test
+	public void readAcrossSegments() throws Exception{
+		MappedEntityDatabase segmented = new MappedEntityDatabase(file, marshaller, 512);
+		for (Node subject : subjects){
+			assertQuadIterablesEqual(getEntity(subject), segmented.get(subject));
+		}
+		assertEquals(SUBJECTS * 5, Iterables.size(segmented.getGraph(graphs.get(1))));
+		assertEquals(SUBJECTS, Iterables.size(segmented.all()));
+		segmented.close();
+	}
+	
+	@Test
+	public void emptyDatabase() throws Exception{
+		File empty = new File(tmpDir.getRoot(), "empty.entities");
+		new MappedEntityDatabaseWriter(empty, tmpDir.newFolder("empty")).write(new ArrayList<EntityDesc>().iterator());
+		MappedEntityDatabase emptyDb = new MappedEntityDatabase(empty, marshaller);
+		assertFalse(emptyDb.exists(subjects.get(0)));
+		assertTrue(Iterables.isEmpty(emptyDb.getGraph(graphs.get(0))));
+		assertTrue(Iterables.isEmpty(emptyDb.all()));
+		emptyDb.close();
+	}
+	
+	@Test (expected=IOException.class)
+	public void unsortedInputIsRejected() throws Exception{
+		List<EntityDesc> entities = new ArrayList<EntityDesc>();
+		entities.add(marshaller.toEntityDesc(subjects.get(1), graphs.get(0), getQuads(graphs.get(0), subjects.get(1), 5)));
+		entities.add(marshaller.toEntityDesc(subjects.get(0), graphs.get(0), getQuads(graphs.get(0), subjects.get(0), 5)));
+		new MappedEntityDatabaseWriter(new File(tmpDir.getRoot(), "unsorted.entities"), tmpDir.newFolder("unsorted"))
+				.write(entities.iterator());
+	}
+	
+	@Test (expected=UnsupportedOperationException.class)
+	public void databaseIsReadOnly() throws Exception{
+		db.put(subjects.get(0), graphs.get(0), getQuads(graphs.get(0), subjects.get(0), 5));
+	}
+	
+	@Test
+	public void closedDatabaseCannotBeRead() throws Exception{
+		db.close();
+		try{
+			db.get(subjects.get(0));
+			fail("Expected an EntityDatabaseException");
+		}catch(EntityDatabaseException e){
+			// expected
+		}
+	}
+	
+	@Test
+	public void buildFromQuads() throws Exception{
+		StringBuilder quads = new StringBuilder();
+		for (Node subject : subjects){
+			for (Node graph : graphs){
+				for (int i=0; i<3; i++){
+					quads.append(String.format("<%s> <http://example.com/p/%s> \"%s\" <%s> .\n", 
+												subject.getURI(), i, i, graph.getURI()));
+				}
+			}
+		}
+		File built = new BabuDbEntityDatabaseBuilder().buildMapped(
+							new ByteArrayInputStream(quads.toString().getBytes(Charsets.UTF_8)), 
+							tmpDir.newFolder("build"), tmpDir.newFolder("out"), "built");
+		MappedEntityDatabase builtDb = new MappedEntityDatabase(built, marshaller);
+		assertEquals(SUBJECTS * GRAPHS, builtDb.getEntityCount());
+		assertEquals(GRAPHS * 3, Iterables.size(builtDb.get(subjects.get(2))));
+		assertEquals(SUBJECTS * 3, Iterables.size(builtDb.getGraph(graphs.get(2))));
+		builtDb.close();
+	}
+}
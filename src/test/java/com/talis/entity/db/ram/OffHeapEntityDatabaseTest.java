@@ -0,0 +1,128 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.db.ram;
+
+import static com.talis.entity.TestUtils.assertQuadIterablesEqual;
+import static com.talis.entity.TestUtils.getQuads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.db.EntityDatabaseTestBase;
+import com.talis.entity.marshal.Marshaller;
+
+public class OffHeapEntityDatabaseTest extends EntityDatabaseTestBase{
+
+	@Override
+	public EntityDatabase getDatabase() {
+		return new OffHeapEntityDatabase();
+	}
+	
+	@Test
+	public void replaceEntity() throws Exception{
+		db.put(subject, graph, quads);
+		Collection<Quad> replacement = getQuads(graph, subject, 5);
+		db.put(subject, graph, replacement);
+		assertQuadIterablesEqual(replacement, db.get(subject));
+		assertQuadIterablesEqual(replacement, db.getGraph(graph));
+	}
+	
+	@Test
+	public void deletedSubjectsAreNotIterated() throws Exception{
+		Node otherSubject = Node.createURI(subject.getURI() + "1");
+		db.put(subject, graph, quads);
+		db.put(otherSubject, graph, getQuads(graph, otherSubject, 5));
+		db.delete(subject, graph);
+		assertFalse(db.exists(subject));
+		assertEquals(1, Iterables.size(db.all()));
+		assertEquals(otherSubject, db.all().iterator().next().getKey());
+	}
+	
+	@Test
+	public void deadRecordsAreCompacted() throws Exception{
+		OffHeapEntityDatabase offHeap = new OffHeapEntityDatabase(new Marshaller(new SnappyCodec()), 16 * 1024);
+		int subjects = 50;
+		for (int round = 0; round < 20; round++){
+			for (int i=0; i<subjects; i++){
+				Node thisSubject = Node.createURI(subject.getURI() + "/" + i);
+				offHeap.put(thisSubject, graph, getQuads(graph, thisSubject, 10));
+			}
+		}
+		assertTrue(offHeap.getDeadBytes() <= Math.max(16 * 1024, offHeap.getLiveBytes()));
+		for (int i=0; i<subjects; i++){
+			Node thisSubject = Node.createURI(subject.getURI() + "/" + i);
+			assertQuadIterablesEqual(getQuads(graph, thisSubject, 10), offHeap.get(thisSubject));
+		}
+		assertEquals(subjects * 10, Iterables.size(offHeap.getGraph(graph)));
+		
+		offHeap.deleteGraph(graph);
+		assertEquals(0, offHeap.getLiveBytes());
+		assertTrue(Iterables.isEmpty(offHeap.all()));
+	}
+	
+	@Test
+	public void rewritesInterleavedAcrossSubjectsAndGraphs() throws Exception{
+		Node otherSubject = Node.createURI(subject.getURI() + "1");
+		Node otherGraph = Node.createURI(graph.getURI() + "1");
+		for (int round = 0; round < 100; round++){
+			db.put(subject, graph, getQuads(graph, subject, round % 5 + 1));
+			db.put(otherSubject, graph, getQuads(graph, otherSubject, 2));
+			db.put(subject, otherGraph, getQuads(otherGraph, subject, 3));
+			db.put(otherSubject, otherGraph, getQuads(otherGraph, otherSubject, round % 4 + 1));
+		}
+		assertEquals(5 + 3, Iterables.size(db.get(subject)));
+		assertEquals(2 + 4, Iterables.size(db.get(otherSubject)));
+		assertEquals(5 + 2, Iterables.size(db.getGraph(graph)));
+		assertEquals(3 + 4, Iterables.size(db.getGraph(otherGraph)));
+		
+		db.delete(subject, otherGraph);
+		db.delete(otherSubject, graph);
+		assertQuadIterablesEqual(getQuads(graph, subject, 5), db.get(subject));
+		assertQuadIterablesEqual(getQuads(graph, subject, 5), db.getGraph(graph));
+		assertQuadIterablesEqual(getQuads(otherGraph, otherSubject, 4), db.getGraph(otherGraph));
+		
+		db.deleteGraph(graph);
+		assertFalse(db.exists(subject));
+		assertTrue(db.exists(otherSubject));
+		db.put(subject, graph, quads);
+		assertQuadIterablesEqual(quads, db.get(subject));
+		assertEquals(2, Iterables.size(db.all()));
+	}
+	
+	@Test
+	public void manyEntitiesGrowIndexes() throws Exception{
+		int subjects = 10000;
+		for (int i=0; i<subjects; i++){
+			Node thisSubject = Node.createURI(subject.getURI() + "/" + i);
+			db.put(thisSubject, graph, getQuads(graph, thisSubject, 1));
+		}
+		for (int i=0; i<subjects; i+=100){
+			assertTrue(db.exists(Node.createURI(subject.getURI() + "/" + i)));
+		}
+		assertFalse(db.exists(Node.createURI(subject.getURI() + "/" + subjects)));
+		assertEquals(subjects, Iterables.size(db.all()));
+	}
+}
@@ -16,6 +16,21 @@
 
 package com.talis.entity.db.ram;
 
+import static com.talis.entity.TestUtils.getQuads;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.google.common.collect.Iterables;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
 import com.talis.entity.EntityDatabase;
 import com.talis.entity.db.EntityDatabaseTestBase;
 
@@ -27,4 +42,94 @@ public class RamEntityDatabaseTest extends EntityDatabaseTestBase{
 		return new RamEntityDatabase();
 	}
 	
+	@Test
+	public void concurrentWritersAndReaders() throws Exception{
+		final int threads = 8;
+		final int subjects = 200;
+		final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+		final CountDownLatch startGate = new CountDownLatch(1);
+		final CountDownLatch endGate = new CountDownLatch(threads);
+		for (int t=0; t<threads; t++){
+			final Node thisGraph = Node.createURI(graph.getURI() + "/" + t);
+			new Thread(new Runnable(){
+				@Override
+				public void run() {
+					try{
+						startGate.await();
+						for (int i=0; i<subjects; i++){
+							Node thisSubject = Node.createURI(subject.getURI() + "/" + i);
+							db.put(thisSubject, thisGraph, getQuads(thisGraph, thisSubject, 5));
+							db.get(thisSubject);
+							db.getGraph(thisGraph);
+							if (i % 2 == 0){
+								db.delete(thisSubject, thisGraph);
+							}
+						}
+					}catch(Throwable e){
+						errors.add(e);
+					}finally{
+						endGate.countDown();
+					}
+				}
+			}).start();
+		}
+		startGate.countDown();
+		endGate.await();
+		
+		assertEquals(Collections.emptyList(), errors);
+		for (int t=0; t<threads; t++){
+			Node thisGraph = Node.createURI(graph.getURI() + "/" + t);
+			assertEquals(subjects / 2 * 5, Iterables.size(db.getGraph(thisGraph)));
+		}
+		for (int i=0; i<subjects; i++){
+			Node thisSubject = Node.createURI(subject.getURI() + "/" + i);
+			assertEquals(i % 2 != 0, db.exists(thisSubject));
+		}
+	}
+	
+	@Test
+	public void concurrentWritersToSameSubjectInDifferentGraphs() throws Exception{
+		final int iterations = 5000;
+		final Node[] graphs = { Node.createURI(graph.getURI() + "/1"), Node.createURI(graph.getURI() + "/2") };
+		final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+		final CountDownLatch startGate = new CountDownLatch(1);
+		final CountDownLatch endGate = new CountDownLatch(graphs.length);
+		for (final Node thisGraph : graphs){
+			new Thread(new Runnable(){
+				@Override
+				public void run() {
+					try{
+						startGate.await();
+						for (int i=0; i<iterations; i++){
+							db.put(subject, thisGraph, getQuads(thisGraph, subject, 2));
+							db.delete(subject, thisGraph);
+						}
+						db.put(subject, thisGraph, getQuads(thisGraph, subject, 2));
+					}catch(Throwable e){
+						errors.add(e);
+					}finally{
+						endGate.countDown();
+					}
+				}
+			}).start();
+		}
+		startGate.countDown();
+		endGate.await();
+		
+		assertEquals(Collections.emptyList(), errors);
+		assertTrue(db.exists(subject));
+		assertEquals(graphs.length * 2, Iterables.size(db.get(subject)));
+		for (Node thisGraph : graphs){
+			assertEquals(2, Iterables.size(db.getGraph(thisGraph)));
+		}
+	}
+	
+	@Test
+	public void storedEntitiesAreIsolatedFromCallersCollection() throws Exception{
+		List<Quad> buffer = new ArrayList<Quad>(quads);
+		db.put(subject, graph, buffer);
+		buffer.clear();
+		assertEquals(quads.size(), Iterables.size(db.get(subject)));
+	}
+	
 }
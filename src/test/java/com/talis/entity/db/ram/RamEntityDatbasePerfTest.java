@@ -16,7 +16,15 @@
 
 package com.talis.entity.db.ram;
 
+import static com.talis.entity.TestUtils.getQuads;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Node;
 import com.talis.entity.EntityDatabase;
+import com.talis.entity.EntityDatabaseException;
 import com.talis.entity.db.EntityDatabasePerfTestBase;
 import com.talis.entity.db.ram.RamEntityDatabase;
 
@@ -27,4 +35,43 @@ public class RamEntityDatbasePerfTest extends EntityDatabasePerfTestBase{
 		return new RamEntityDatabase();
 	}
 
+	@Test
+	public void benchmarkSubjectLookupsInSmallStore() throws EntityDatabaseException{
+		System.out.println("Subject lookups, 10k entities");
+		benchmarkSubjectLookups(10000);
+	}
+	
+	@Test
+	public void benchmarkSubjectLookupsInLargeStore() throws EntityDatabaseException{
+		System.out.println("Subject lookups, 1M entities");
+		benchmarkSubjectLookups(1000000);
+	}
+	
+	// per op times should be of the same order at both sizes, 
+	// a linear scan of the subjects would make the large store ~100x slower 
+	private void benchmarkSubjectLookups(int entities) throws EntityDatabaseException{
+		long start = System.currentTimeMillis();
+		for (int i=0; i<entities; i++){
+			Node thisSubject = Node.createURI(subject.getURI() + "/" + i);
+			db.put(thisSubject, graph, getQuads(graph, thisSubject, 1));
+		}
+		System.out.println(String.format("Populated %s entities in %s ms",
+								entities, (System.currentTimeMillis() - start)));
+		
+		int iter = 100000;
+		Random r = new Random();
+		start = System.currentTimeMillis();
+		for (int i=0; i<iter; i++){
+			db.get(Node.createURI(subject.getURI() + "/" + r.nextInt(entities)));
+		}
+		long duration = System.currentTimeMillis() - start;
+		System.out.println(String.format("Gets - Iterations: %s, Total: %s, PerOp: %s",iter, duration, (double)((double)duration/(double)iter)));
+		
+		start = System.currentTimeMillis();
+		for (int i=0; i<iter; i++){
+			db.exists(Node.createURI(subject.getURI() + "/" + r.nextInt(entities * 2)));
+		}
+		duration = System.currentTimeMillis() - start;
+		System.out.println(String.format("Exists - Iterations: %s, Total: %s, PerOp: %s",iter, duration, (double)((double)duration/(double)iter)));
+	}
 }
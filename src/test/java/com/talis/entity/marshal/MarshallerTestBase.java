@@ -27,7 +27,9 @@ import java.util.Collection;
 
 import org.junit.Test;
 
+import com.hp.hpl.jena.datatypes.TypeMapper;
 import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.rdf.model.AnonId;
 import com.hp.hpl.jena.sparql.core.Quad;
 import com.talis.entity.EntityDesc;
 import com.talis.entity.compress.Codec;
@@ -64,4 +66,57 @@ public abstract class MarshallerTestBase {
 		assertEquals(1, quads2.size());
 		assertTrue(quads2.contains(quad));
 	}
+	
+	@Test
+	public void roundTripQuadsInBinaryFormat() throws IOException{
+		Node subject = Node.createURI("http://example.com/s");
+		Node graph = Node.createURI("http://example.com/g");
+		Collection<Quad> before = getQuads(graph, subject, 30);
+		
+		Marshaller marshaller = new Marshaller(getCodec(), EntityFormat.BINARY);
+		EntityDesc entity = marshaller.toEntityDesc(subject, graph, before);
+		assertEquals(subject, entity.subject);
+		assertEquals(graph, entity.graph);
+		Collection<Quad> after = marshaller.toQuads(entity);
+		assertQuadCollectionsEqual(before, after);
+	}
+	
+	@Test
+	public void roundTripLiteralsAndBlankNodesInBinaryFormat() throws IOException{
+		Node subject = Node.createURI("http://example.com/s");
+		Node graph = Node.createURI("http://example.com/g");
+		Node predicate = Node.createURI("http://example.com/p");
+		Collection<Quad> before = new ArrayList<Quad>();
+		before.add(new Quad(graph, subject, predicate, Node.createLiteral("plain \"quoted\"\ttext\n")));
+		before.add(new Quad(graph, subject, predicate, Node.createLiteral("chat", "fr", null)));
+		before.add(new Quad(graph, subject, predicate, 
+				Node.createLiteral("42", null, TypeMapper.getInstance().getSafeTypeByName("http://www.w3.org/2001/XMLSchema#int"))));
+		before.add(new Quad(graph, subject, predicate, Node.createAnon(new AnonId("b0"))));
+		before.add(new Quad(graph, subject, predicate, Node.createLiteral("\u00C9mile")));
+		
+		Marshaller marshaller = new Marshaller(getCodec(), EntityFormat.BINARY);
+		Collection<Quad> after = marshaller.toQuads(marshaller.toEntityDesc(subject, graph, before));
+		assertQuadCollectionsEqual(before, after);
+	}
+	
+	@Test
+	public void readEntitiesWrittenInEitherFormat() throws IOException{
+		Node subject = Node.createURI("http://example.com/s");
+		Node graph = Node.createURI("http://example.com/g");
+		Collection<Quad> before = getQuads(graph, subject, 30);
+		
+		Marshaller text = new Marshaller(getCodec(), EntityFormat.NTRIPLES);
+		Marshaller binary = new Marshaller(getCodec(), EntityFormat.BINARY);
+		assertQuadCollectionsEqual(before, binary.toQuads(text.toEntityDesc(subject, graph, before)));
+		assertQuadCollectionsEqual(before, text.toQuads(binary.toEntityDesc(subject, graph, before)));
+	}
+	
+	@Test
+	public void roundTripEmptyEntityInBinaryFormat() throws IOException{
+		Node subject = Node.createURI("http://example.com/s");
+		Node graph = Node.createURI("http://example.com/g");
+		Marshaller marshaller = new Marshaller(getCodec(), EntityFormat.BINARY);
+		EntityDesc entity = marshaller.toEntityDesc(subject, graph, new ArrayList<Quad>());
+		assertTrue(marshaller.toQuads(entity).isEmpty());
+	}
 }
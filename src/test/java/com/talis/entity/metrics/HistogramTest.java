@@ -0,0 +1,88 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void emptyHistogramReportsZeros(){
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getMin());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getPercentile(0.99));
+		assertEquals(0.0, histogram.getMean(), 0.0);
+	}
+	
+	@Test
+	public void smallValuesAreExact(){
+		Histogram histogram = new Histogram();
+		for (int i=1; i<=20; i++){
+			histogram.update(i);
+		}
+		assertEquals(20, histogram.getCount());
+		assertEquals(210, histogram.getSum());
+		assertEquals(1, histogram.getMin());
+		assertEquals(20, histogram.getMax());
+		assertEquals(10, histogram.getPercentile(0.5));
+		assertEquals(19, histogram.getPercentile(0.95));
+		assertEquals(20, histogram.getPercentile(1.0));
+	}
+	
+	@Test
+	public void percentilesAreWithinBucketPrecision(){
+		Histogram histogram = new Histogram();
+		Random random = new Random(1);
+		for (int i=0; i<100000; i++){
+			histogram.update(1000 + random.nextInt(1000000));
+		}
+		assertWithin(0.07, 501000, histogram.getPercentile(0.5));
+		assertWithin(0.07, 991000, histogram.getPercentile(0.99));
+		assertTrue(histogram.getPercentile(0.999) <= histogram.getMax());
+	}
+	
+	@Test
+	public void negativeValuesAreRecordedAsZero(){
+		Histogram histogram = new Histogram();
+		histogram.update(-5);
+		assertEquals(0, histogram.getMin());
+		assertEquals(0, histogram.getMax());
+	}
+	
+	@Test
+	public void bucketsCoverEveryValue(){
+		for (long value : new long[]{0, 15, 16, 31, 32, 33, 1000, 1L << 40, Long.MAX_VALUE}){
+			int bucket = Histogram.bucketFor(value);
+			assertTrue(Histogram.upperBound(bucket) >= value);
+			if (bucket > 0){
+				assertTrue(Histogram.upperBound(bucket - 1) < value);
+			}
+		}
+	}
+	
+	private void assertWithin(double tolerance, long expected, long actual){
+		assertTrue(String.format("Expected %s to be within %s of %s", actual, tolerance, expected),
+				Math.abs(actual - expected) <= expected * tolerance);
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.metrics;
+
+import static com.talis.entity.TestUtils.assertQuadIterablesEqual;
+import static org.easymock.EasyMock.createStrictMock;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Map.Entry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.talis.entity.EntityDatabase;
+import com.talis.entity.EntityDatabaseException;
+import com.talis.entity.compress.SnappyCodec;
+import com.talis.entity.db.EntityDatabaseTestBase;
+import com.talis.entity.db.babudb.BabuDBFactoryWrapper;
+import com.talis.entity.db.babudb.BabuDbEntityDatabase;
+import com.talis.entity.db.babudb.DatabaseManager;
+
+public class InstrumentedEntityDatabaseTest extends EntityDatabaseTestBase {
+
+	private DatabaseManager dbManager;
+	private MetricRegistry registry;
+	
+	@Before
+	public void setup() throws Exception{
+		dbManager = new DatabaseManager(tmpDir.getRoot(), new BabuDBFactoryWrapper());
+		registry = new MetricRegistry();
+		super.setup();
+	}
+	
+	@After
+	public void tearDown() throws Exception{
+		db.close();
+		dbManager.shutDown();
+	}
+	
+	@Override
+	public EntityDatabase getDatabase() {
+		return new InstrumentedEntityDatabase(
+				new BabuDbEntityDatabase(new InstrumentedMarshaller(new SnappyCodec(), registry), id, dbManager), 
+				registry);
+	}
+	
+	@Test
+	public void recordsWritesAndReads() throws Exception{
+		db.put(subject, graph, quads);
+		assertQuadIterablesEqual(quads, db.get(subject));
+		assertQuadIterablesEqual(quads, db.get(subject));
+		
+		assertEquals(1, registry.histogram("entities.put.time").getCount());
+		assertEquals(quads.size(), registry.histogram("entities.put.quads").getMax());
+		assertTrue(registry.histogram("entities.put.bytes").getMax() > 0);
+		
+		assertEquals(2, registry.histogram("entities.get.time").getCount());
+		assertEquals(quads.size(), registry.histogram("entities.get.quads").getMax());
+		assertTrue(registry.histogram("entities.get.bytes").getMax() > 0);
+		assertTrue(registry.histogram("entities.get.codecTime").getMax() > 0);
+		assertTrue(registry.histogram("entities.get.marshalTime").getMax() > 0);
+		
+		assertEquals(1, registry.histogram("codec.encode.time").getCount());
+		assertEquals(2, registry.histogram("codec.decode.time").getCount());
+		assertEquals(2, registry.histogram("marshaller.toQuads.time").getCount());
+	}
+	
+	@Test
+	public void timeIsSplitBetweenStorageCodecAndMarshalling() throws Exception{
+		db.put(subject, graph, quads);
+		db.get(subject);
+		Histogram time = registry.histogram("entities.get.time");
+		long parts = registry.histogram("entities.get.storageTime").getSum()
+						+ registry.histogram("entities.get.codecTime").getSum()
+						+ registry.histogram("entities.get.marshalTime").getSum();
+		assertEquals(time.getSum(), parts);
+	}
+	
+	@Test
+	public void recordsEachEntityReadFromAll() throws Exception{
+		Node otherGraph = Node.createURI("http://example.com/other");
+		db.put(subject, graph, quads);
+		db.put(subject, otherGraph, quads);
+		for (Entry<Node, Iterable<Quad>> entity : db.all()){
+			entity.getValue();
+		}
+		assertEquals(1, registry.histogram("entities.all.time").getCount());
+		assertEquals(1, registry.histogram("entities.all.entity.time").getCount());
+	}
+	
+	@Test
+	public void failuresAreCounted() throws Exception{
+		EntityDatabase failing = createStrictMock(EntityDatabase.class);
+		failing.get(subject);
+		expectLastCall().andThrow(new EntityDatabaseException("failed"));
+		replay(failing);
+		EntityDatabase instrumented = new InstrumentedEntityDatabase(failing, registry, "failing");
+		try{
+			instrumented.get(subject);
+			fail("Expected an exception");
+		}catch(EntityDatabaseException e){
+			// expected
+		}
+		verify(failing);
+		assertEquals(1, registry.counter("failing.get.errors").getCount());
+		assertEquals(0, registry.histogram("failing.get.time").getCount());
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2012 Talis Systems Ltd
+ * 
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ * 
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.talis.entity.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+
+import org.junit.Test;
+
+public class MetricRegistryTest {
+
+	@Test
+	public void metricsAreSharedByName(){
+		MetricRegistry registry = new MetricRegistry();
+		assertSame(registry.counter("a"), registry.counter("a"));
+		assertSame(registry.histogram("b"), registry.histogram("b"));
+		assertEquals(2, registry.getMetrics().size());
+	}
+	
+	@Test (expected=IllegalArgumentException.class)
+	public void nameCannotBeReusedForDifferentType(){
+		MetricRegistry registry = new MetricRegistry();
+		registry.counter("a");
+		registry.histogram("a");
+	}
+	
+	@Test
+	public void listenerIsToldOfExistingAndNewMetrics(){
+		MetricRegistry registry = new MetricRegistry();
+		registry.counter("existing");
+		final List<String> added = new ArrayList<String>();
+		registry.addListener(new MetricRegistryListener(){
+			@Override
+			public void metricAdded(String name, Metric metric) {
+				added.add(name);
+			}
+		});
+		registry.histogram("new");
+		registry.histogram("new");
+		assertEquals(2, added.size());
+		assertEquals("existing", added.get(0));
+		assertEquals("new", added.get(1));
+	}
+	
+	@Test
+	public void jmxReporterPublishesMetrics() throws Exception{
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		MetricRegistry registry = new MetricRegistry();
+		registry.counter("test.counter").inc(3);
+		JmxMetricReporter reporter = new JmxMetricReporter(registry, server, "com.talis.entity.test");
+		reporter.start();
+		try{
+			registry.histogram("test.histogram").update(42);
+			assertEquals(3L, server.getAttribute(reporter.getObjectName("Counter", "test.counter"), "Count"));
+			assertEquals(42L, server.getAttribute(reporter.getObjectName("Histogram", "test.histogram"), "Max"));
+		}finally{
+			reporter.stop();
+		}
+		assertFalse(server.isRegistered(reporter.getObjectName("Counter", "test.counter")));
+		assertTrue(server.queryNames(reporter.getObjectName("Histogram", "test.histogram"), null).isEmpty());
+	}
+}